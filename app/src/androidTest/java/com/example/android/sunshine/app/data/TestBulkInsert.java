@@ -0,0 +1,200 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that bulkInsert's compiled statement stores the same rows db.insert did, and times
+    the three ways rows get into the weather table: what bulkInsert used to do, what it does
+    now, and ForecastWriter, which the sync uses and which never sees a ContentValues at all.
+    The timings are logged under the "BulkInsertBenchmark" tag.
+ */
+public class TestBulkInsert extends AndroidTestCase {
+
+    static final String BENCHMARK_DATABASE_NAME = "bulk_insert_benchmark.db";
+
+    static final int[] BENCHMARK_ROWS = {14, 1000, 100000};
+    // Rows per bulkInsert call, since 100,000 ContentValues at once would be most of the heap.
+    // A caller in another process would have to split even sooner, to fit a binder transaction.
+    static final int CHUNK_ROWS = 10000;
+    static final int DAYS = 14;
+    static final long FIRST_DATE = 1419033600000L;
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext, BENCHMARK_DATABASE_NAME, true);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    // Row i of a run: DAYS days for each of as many locations as it takes.
+    private static ContentValues createRow(int i) {
+        ContentValues weatherValues = TestUtilities.createWeatherValues(1 + i / DAYS);
+        weatherValues.put(WeatherEntry.COLUMN_DATE, FIRST_DATE + (i % DAYS) * DAY_IN_MILLIS);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i % 10);
+        return weatherValues;
+    }
+
+    private static ContentValues[] createRows(int from, int to) {
+        ContentValues[] rows = new ContentValues[to - from];
+        for (int i = from; i < to; i++) {
+            rows[i - from] = createRow(i);
+        }
+        return rows;
+    }
+
+    private int count() {
+        Cursor cursor = mDb.rawQuery("SELECT COUNT(*) FROM " + WeatherEntry.TABLE_NAME, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // What bulkInsert did before the compiled statement.
+    private int insertOneByOne(ContentValues[] values) {
+        int returnCount = 0;
+        mDb.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                long dateValue = value.getAsLong(WeatherEntry.COLUMN_DATE);
+                value.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+                if (mDb.insert(WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    returnCount++;
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return returnCount;
+    }
+
+    private int insertAll(ContentValues[] values) {
+        return WeatherProvider.insertAll(mDb, WeatherEntry.TABLE_NAME,
+                ForecastWriter.SQL_INSERT_WEATHER, ForecastWriter.INSERT_WEATHER_COLUMNS, values);
+    }
+
+    public void testInsertAllStoresWhatInsertDid() {
+        ContentValues[] rows = createRows(0, DAYS);
+        assertEquals(DAYS, insertOneByOne(rows));
+        Cursor expected = mDb.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE);
+        // fills the cursor's window before the rows go away
+        assertEquals(DAYS, expected.getCount());
+
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+        assertEquals(DAYS, insertAll(createRows(0, DAYS)));
+        Cursor actual = mDb.query(WeatherEntry.TABLE_NAME, null, null, null, null, null,
+                WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE);
+        try {
+            assertEquals(expected.getCount(), actual.getCount());
+            while (expected.moveToNext() && actual.moveToNext()) {
+                for (String column : ForecastWriter.INSERT_WEATHER_COLUMNS) {
+                    assertEquals("Error: " + column + " differs",
+                            expected.getString(expected.getColumnIndex(column)),
+                            actual.getString(actual.getColumnIndex(column)));
+                }
+            }
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    public void testInsertAllFallsBackForOtherColumns() {
+        ContentValues missing = createRow(0);
+        missing.remove(WeatherEntry.COLUMN_SHORT_DESC);
+        ContentValues withId = createRow(1);
+        withId.put(WeatherEntry._ID, 1234);
+
+        assertEquals("Error: only the row with every NOT NULL column should go in",
+                2, insertAll(new ContentValues[]{missing, createRow(2), withId}));
+        assertEquals(2, count());
+
+        Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME, null, WeatherEntry._ID + " = 1234",
+                null, null, null, null);
+        try {
+            assertTrue("Error: a row with an explicit _ID should keep it", cursor.moveToFirst());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Not a pass/fail test beyond the row counts.  Inserts each of BENCHMARK_ROWS rows into
+        an empty table all three ways and logs the time per row.  The ContentValues are built
+        before the clock starts for the first two, while ForecastWriter is timed from the raw
+        values, since not building them is the point of it.
+     */
+    public void testBenchmarkBulkInsert() {
+        for (int rows : BENCHMARK_ROWS) {
+            long oneByOneNanos = 0;
+            long insertAllNanos = 0;
+            long writerNanos = 0;
+
+            for (int from = 0; from < rows; from += CHUNK_ROWS) {
+                int to = Math.min(from + CHUNK_ROWS, rows);
+                ContentValues[] chunk = createRows(from, to);
+                long start = System.nanoTime();
+                assertEquals(to - from, insertOneByOne(chunk));
+                oneByOneNanos += System.nanoTime() - start;
+            }
+            assertEquals(rows, count());
+            mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+
+            for (int from = 0; from < rows; from += CHUNK_ROWS) {
+                int to = Math.min(from + CHUNK_ROWS, rows);
+                ContentValues[] chunk = createRows(from, to);
+                long start = System.nanoTime();
+                assertEquals(to - from, insertAll(chunk));
+                insertAllNanos += System.nanoTime() - start;
+            }
+            assertEquals(rows, count());
+            mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+
+            for (int from = 0; from < rows; from += CHUNK_ROWS) {
+                int to = Math.min(from + CHUNK_ROWS, rows);
+                long start = System.nanoTime();
+                ForecastWriter writer = new ForecastWriter(mContext.getContentResolver(), mDb);
+                try {
+                    for (int i = from; i < to; i++) {
+                        writer.mergeWeather(1 + i / DAYS, FIRST_DATE + (i % DAYS) * DAY_IN_MILLIS,
+                                "Asteroids", 321, 65, 75 + i % 10, 1.2, 1.3, 5.5, 1.1);
+                    }
+                    assertEquals(to - from, writer.commit().weatherRowsInserted);
+                } finally {
+                    writer.close();
+                }
+                writerNanos += System.nanoTime() - start;
+            }
+            assertEquals(rows, count());
+            mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+
+            Log.i("BulkInsertBenchmark", rows + " rows: db.insert " + oneByOneNanos / 1000000
+                    + "ms (" + oneByOneNanos / rows / 1000 + "us/row), compiled statement "
+                    + insertAllNanos / 1000000 + "ms (" + insertAllNanos / rows / 1000
+                    + "us/row), ForecastWriter " + writerNanos / 1000000 + "ms ("
+                    + writerNanos / rows / 1000 + "us/row)");
+        }
+    }
+}
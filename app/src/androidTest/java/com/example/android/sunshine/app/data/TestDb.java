@@ -55,6 +55,8 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.SyncMetricsEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HourlyEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -91,6 +93,8 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_CITY_ID);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LAST_SYNC);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
@@ -177,6 +181,58 @@ public class TestDb extends AndroidTestCase {
     }
 
 
+    /*
+        Builds a version 3 database by hand, the way it looked before city ids, and checks that
+        opening it with the current helper keeps the locations and the forecast.
+     */
+    public void testUpgradeFromVersion3KeepsData() {
+        SQLiteDatabase oldDb = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME, 0, null);
+        oldDb.execSQL("CREATE TABLE location (_id INTEGER PRIMARY KEY," +
+                "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, " +
+                "coord_lat REAL NOT NULL, coord_long REAL NOT NULL, etag TEXT, last_modified TEXT);");
+        oldDb.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "location_id INTEGER NOT NULL, date INTEGER NOT NULL, short_desc TEXT NOT NULL, " +
+                "weather_id INTEGER NOT NULL, min REAL NOT NULL, max REAL NOT NULL, " +
+                "humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, " +
+                "degrees REAL NOT NULL, FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                "UNIQUE (date, location_id) ON CONFLICT REPLACE);");
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = oldDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null, locationValues);
+        assertTrue(locationRowId != -1);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        assertTrue(oldDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+        oldDb.setVersion(3);
+        oldDb.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        Cursor location = db.query(WeatherContract.LocationEntry.TABLE_NAME, null, null, null,
+                null, null, null);
+        assertTrue("Error: upgrade lost the location", location.moveToFirst());
+        TestUtilities.validateCurrentRecord("Error: upgrade changed the location",
+                location, locationValues);
+        int cityIdIndex = location.getColumnIndex(WeatherContract.LocationEntry.COLUMN_CITY_ID);
+        assertTrue("Error: upgrade didn't add the city id column", cityIdIndex != -1);
+        assertTrue(location.isNull(cityIdIndex));
+        location.close();
+
+        Cursor weather = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null,
+                null, null, null);
+        assertTrue("Error: upgrade lost the forecast", weather.moveToFirst());
+        TestUtilities.validateCurrentRecord("Error: upgrade changed the forecast",
+                weather, weatherValues);
+        weather.close();
+
+        Cursor metrics = db.query(WeatherContract.SyncMetricsEntry.TABLE_NAME, null, null, null,
+                null, null, null);
+        assertEquals("Error: upgrade didn't create an empty sync metrics table",
+                0, metrics.getCount());
+        metrics.close();
+        dbHelper.close();
+    }
+
+
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
         code from testLocationTable to here so that you can call this code from both
@@ -0,0 +1,148 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks ForecastWriter's transaction on a database of its own: a writer closed without a
+    commit leaves nothing behind, another connection sees none of the writes until the commit,
+    and days merged again with the same values aren't written twice.
+ */
+public class TestForecastWriter extends AndroidTestCase {
+
+    static final String WRITER_DATABASE_NAME = "forecast_writer.db";
+
+    static final int DAYS = 14;
+    static final long FIRST_DATE = 1419033600000L;
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WRITER_DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext, WRITER_DATABASE_NAME, true);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(WRITER_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private ForecastWriter openWriter() {
+        return new ForecastWriter(mContext.getContentResolver(), mDb);
+    }
+
+    // A location and DAYS days for it, the way a sync writes them.
+    private static long writeForecast(ForecastWriter writer, double maxTemp) {
+        long locationId = writer.addLocation(TestUtilities.TEST_LOCATION, -1, "North Pole",
+                64.7488, -147.353);
+        for (int day = 0; day < DAYS; day++) {
+            writer.mergeWeather(locationId, FIRST_DATE + day * DAY_IN_MILLIS, "Asteroids", 321,
+                    65, maxTemp, 1.2, 1.3, 5.5, 1.1);
+        }
+        return locationId;
+    }
+
+    private static int count(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testCloseWithoutCommitRollsBack() {
+        ForecastWriter writer = openWriter();
+        try {
+            writeForecast(writer, 75);
+            assertEquals("Error: the writer should see its own rows", DAYS,
+                    count(mDb, WeatherEntry.TABLE_NAME));
+        } finally {
+            writer.close();
+        }
+        assertEquals("Error: the days should have been rolled back",
+                0, count(mDb, WeatherEntry.TABLE_NAME));
+        assertEquals("Error: the location should have been rolled back",
+                0, count(mDb, LocationEntry.TABLE_NAME));
+
+        // And closing again, as a finally block after a commit would, is harmless.
+        writer.close();
+    }
+
+    // The reader is a helper of its own on the same file, like another process would have.
+    public void testNothingIsVisibleBeforeCommit() {
+        WeatherDbHelper readerHelper = new WeatherDbHelper(mContext, WRITER_DATABASE_NAME, true);
+        try {
+            SQLiteDatabase reader = readerHelper.getReadableDatabase();
+            ForecastWriter writer = openWriter();
+            try {
+                writeForecast(writer, 75);
+                // With a rollback journal this would wait for the writer; in WAL mode it reads
+                // the last committed state straight away.
+                assertEquals("Error: another connection saw uncommitted days",
+                        0, count(reader, WeatherEntry.TABLE_NAME));
+                assertEquals("Error: another connection saw an uncommitted location",
+                        0, count(reader, LocationEntry.TABLE_NAME));
+
+                ForecastWriter.Changes changes = writer.commit();
+                assertEquals(DAYS, changes.weatherRowsInserted);
+                assertTrue(changes.locationsChanged);
+            } finally {
+                writer.close();
+            }
+            assertEquals("Error: the committed days should be visible",
+                    DAYS, count(reader, WeatherEntry.TABLE_NAME));
+            assertEquals(1, count(reader, LocationEntry.TABLE_NAME));
+        } finally {
+            readerHelper.close();
+        }
+    }
+
+    public void testMergeOnlyWritesChangedDays() {
+        ForecastWriter writer = openWriter();
+        long locationId;
+        try {
+            locationId = writeForecast(writer, 75);
+            assertEquals(DAYS, writer.commit().weatherRowsInserted);
+        } finally {
+            writer.close();
+        }
+
+        writer = openWriter();
+        try {
+            writeForecast(writer, 75);
+            ForecastWriter.Changes changes = writer.commit();
+            assertEquals(0, changes.weatherRowsInserted);
+            assertEquals(0, changes.weatherRowsUpdated);
+            assertEquals(DAYS, changes.weatherRowsUnchanged);
+            assertFalse("Error: an unchanged forecast shouldn't count as a change",
+                    changes.hasWeatherChanges());
+        } finally {
+            writer.close();
+        }
+
+        writer = openWriter();
+        try {
+            assertTrue("Error: a changed day should be written", writer.mergeWeather(locationId,
+                    FIRST_DATE, "Asteroids", 321, 65, 80, 1.2, 1.3, 5.5, 1.1));
+            ForecastWriter.Changes changes = writer.commit();
+            assertEquals(0, changes.weatherRowsInserted);
+            assertEquals(1, changes.weatherRowsUpdated);
+        } finally {
+            writer.close();
+        }
+        assertEquals(DAYS, count(mDb, WeatherEntry.TABLE_NAME));
+    }
+}
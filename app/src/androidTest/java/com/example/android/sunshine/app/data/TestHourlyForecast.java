@@ -0,0 +1,251 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks the hourly forecast table through the provider, and benchmarks writing and reading
+    it at the scale of an all-locations sync.  The benchmark logs its numbers under the
+    "HourlyBenchmark" tag.
+ */
+public class TestHourlyForecast extends AndroidTestCase {
+
+    static final int BENCHMARK_LOCATIONS = 50;
+    static final int STEPS = 40;
+    static final int BENCHMARK_ROUNDS = 5;
+    // A 3-hour step boundary, well in the future so retention never touches the test rows.
+    static final long FIRST_TIME = 4102444800L;
+
+    private ContentProviderClient mClient;
+    private WeatherProvider mProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        mProvider = (WeatherProvider) mClient.getLocalContentProvider();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(HourlyEntry.CONTENT_URI, null, null);
+        mClient.release();
+        super.tearDown();
+    }
+
+    private static String locationSetting(int i) {
+        return "hourly-" + i;
+    }
+
+    private long[] addLocations(int count) {
+        long[] locationIds = new long[count];
+        ForecastWriter writer = mProvider.openForecastWriter();
+        try {
+            for (int i = 0; i < count; i++) {
+                locationIds[i] = writer.addLocation(locationSetting(i), -1, "City " + i,
+                        64.7488, -147.353);
+            }
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        return locationIds;
+    }
+
+    private static void writeSteps(ForecastWriter writer, long locationId, long firstTime,
+                                   int steps) {
+        writer.clearHourly(locationId);
+        for (int i = 0; i < steps; i++) {
+            writer.writeHour(locationId, firstTime + i * HourlyEntry.STEP_SECONDS, 800 + i % 4,
+                    HourlyEntry.toTenths(-3.5 + i * 0.5), 70, HourlyEntry.toTenths(1013.2),
+                    HourlyEntry.toTenths(4.1), 270);
+        }
+    }
+
+    private int readSteps(String locationSetting, long startTime) {
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocationWithStartTime(locationSetting, startTime),
+                new String[]{HourlyEntry.COLUMN_TIME, HourlyEntry.COLUMN_TEMP}, null, null, null);
+        try {
+            long lastTime = 0;
+            while (cursor.moveToNext()) {
+                assertTrue("Error: hourly steps should come back in time order",
+                        cursor.getLong(0) > lastTime);
+                lastTime = cursor.getLong(0);
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testEncodingRoundTrips() {
+        assertEquals(-35, HourlyEntry.toTenths(-3.5));
+        assertEquals(10132, HourlyEntry.toTenths(1013.24));
+        assertEquals(1013.2, HourlyEntry.fromTenths(10132), 0.0001);
+    }
+
+    public void testRangeReadByLocation() {
+        long[] locationIds = addLocations(2);
+        ForecastWriter writer = mProvider.openForecastWriter();
+        try {
+            writeSteps(writer, locationIds[0], FIRST_TIME, STEPS);
+            writeSteps(writer, locationIds[1], FIRST_TIME, STEPS);
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+
+        assertEquals(STEPS, readSteps(locationSetting(0), 0));
+        long startTime = FIRST_TIME + 8 * HourlyEntry.STEP_SECONDS;
+        assertEquals("Error: steps before the start time should be left out",
+                STEPS - 8, readSteps(locationSetting(0), startTime));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                HourlyEntry.buildHourlyLocation(locationSetting(1)),
+                new String[]{HourlyEntry.COLUMN_TEMP, HourlyEntry.COLUMN_PRESSURE},
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(-3.5, HourlyEntry.fromTenths(cursor.getInt(0)), 0.0001);
+        assertEquals(1013.2, HourlyEntry.fromTenths(cursor.getInt(1)), 0.0001);
+        cursor.close();
+    }
+
+    public void testNewForecastReplacesOldSteps() {
+        long locationId = addLocations(1)[0];
+        ForecastWriter writer = mProvider.openForecastWriter();
+        try {
+            writeSteps(writer, locationId, FIRST_TIME, STEPS);
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        // The next sync's forecast is shorter; the steps it doesn't have must go.
+        writer = mProvider.openForecastWriter();
+        try {
+            writeSteps(writer, locationId, FIRST_TIME + HourlyEntry.STEP_SECONDS, 10);
+            ForecastWriter.Changes changes = writer.commit();
+            assertEquals(10, changes.hourlyRowsWritten);
+            assertEquals(STEPS, changes.hourlyRowsDeleted);
+        } finally {
+            writer.close();
+        }
+        assertEquals(10, readSteps(locationSetting(0), 0));
+    }
+
+    public void testPastStepsAreDeleted() {
+        long locationId = addLocations(1)[0];
+        ForecastWriter writer = mProvider.openForecastWriter();
+        try {
+            writeSteps(writer, locationId, FIRST_TIME, STEPS);
+            // Halfway into the 4th step: the first 3 have ended, the 4th hasn't.
+            long now = FIRST_TIME + 3 * HourlyEntry.STEP_SECONDS + HourlyEntry.STEP_SECONDS / 2;
+            assertEquals(3, writer.deleteHourlyBefore(now));
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+        assertEquals(STEPS - 3, readSteps(locationSetting(0), 0));
+    }
+
+    public void testHourlyChangesNotifyHourlyObservers() {
+        long locationId = addLocations(1)[0];
+        TestUtilities.TestContentObserver hourlyObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                HourlyEntry.CONTENT_URI, true, hourlyObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.CONTENT_URI, true, weatherObserver);
+        try {
+            ForecastWriter writer = mProvider.openForecastWriter();
+            try {
+                writeSteps(writer, locationId, FIRST_TIME, STEPS);
+                writer.commit();
+            } finally {
+                writer.close();
+            }
+            hourlyObserver.waitForNotificationOrFail();
+            weatherObserver.assertNoNotification(500);
+        } finally {
+            mContext.getContentResolver().unregisterContentObserver(hourlyObserver);
+            mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        }
+    }
+
+    /*
+        Not a pass/fail test beyond the row counts.  Writes 40 steps for each of 50 locations in
+        one transaction, the way an all-locations sync does, then reads every location's steps
+        back through the provider, and logs rows per second for both.  The bulkInsert path is
+        timed too, for comparison.
+     */
+    public void testBenchmarkFiftyLocations() {
+        long[] locationIds = addLocations(BENCHMARK_LOCATIONS);
+        int rows = BENCHMARK_LOCATIONS * STEPS;
+
+        long writeNanos = 0;
+        long readNanos = 0;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            long start = System.nanoTime();
+            ForecastWriter writer = mProvider.openForecastWriter();
+            try {
+                for (long locationId : locationIds) {
+                    writeSteps(writer, locationId, FIRST_TIME, STEPS);
+                }
+                writer.commit();
+            } finally {
+                writer.close();
+            }
+            writeNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int read = 0;
+            for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+                read += readSteps(locationSetting(i), FIRST_TIME);
+            }
+            readNanos += System.nanoTime() - start;
+            assertEquals(rows, read);
+        }
+
+        ContentValues[] values = new ContentValues[rows];
+        for (int i = 0; i < rows; i++) {
+            ContentValues value = new ContentValues();
+            value.put(HourlyEntry.COLUMN_LOC_KEY, locationIds[i / STEPS]);
+            value.put(HourlyEntry.COLUMN_TIME, FIRST_TIME + (i % STEPS) * HourlyEntry.STEP_SECONDS);
+            value.put(HourlyEntry.COLUMN_WEATHER_ID, 800);
+            value.put(HourlyEntry.COLUMN_TEMP, -35);
+            value.put(HourlyEntry.COLUMN_HUMIDITY, 70);
+            value.put(HourlyEntry.COLUMN_PRESSURE, 10132);
+            value.put(HourlyEntry.COLUMN_WIND_SPEED, 41);
+            value.put(HourlyEntry.COLUMN_DEGREES, 270);
+            values[i] = value;
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            assertEquals(rows,
+                    mContext.getContentResolver().bulkInsert(HourlyEntry.CONTENT_URI, values));
+        }
+        long bulkNanos = System.nanoTime() - start;
+
+        long totalRows = (long) rows * BENCHMARK_ROUNDS;
+        Log.i("HourlyBenchmark", BENCHMARK_LOCATIONS + " locations x " + STEPS + " steps: "
+                + "writer " + rowsPerSecond(totalRows, writeNanos) + " rows/s, "
+                + "bulkInsert " + rowsPerSecond(totalRows, bulkNanos) + " rows/s, "
+                + "range reads " + rowsPerSecond(totalRows, readNanos) + " rows/s ("
+                + (readNanos / BENCHMARK_ROUNDS / BENCHMARK_LOCATIONS / 1000) + "us per location)");
+    }
+
+    private static long rowsPerSecond(long rows, long nanos) {
+        return nanos > 0 ? rows * 1000000000L / nanos : 0;
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.util.TreeSet;
+
+/*
+    Checks that the migration steps take the oldest database we know of to exactly the schema
+    onCreate makes, without losing a row on the way, and times each step on a database the
+    size of a heavy user's.  The timings are logged under the "MigrationBenchmark" tag.
+ */
+public class TestMigrations extends AndroidTestCase {
+
+    static final int BENCHMARK_LOCATIONS = 1000;
+    static final int DAYS = 14;
+    static final long FIRST_DATE = 1419033600000L;
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    static final String BENCHMARK_DATABASE_NAME = "migration_benchmark.db";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(BENCHMARK_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    // The schema as version 2 shipped it, before any of the steps.  Never change this.
+    static void createVersion2(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE location (_id INTEGER PRIMARY KEY," +
+                "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, " +
+                "coord_lat REAL NOT NULL, coord_long REAL NOT NULL );");
+        db.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "location_id INTEGER NOT NULL, date INTEGER NOT NULL, short_desc TEXT NOT NULL, " +
+                "weather_id INTEGER NOT NULL, min REAL NOT NULL, max REAL NOT NULL, " +
+                "humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, " +
+                "degrees REAL NOT NULL, FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                "UNIQUE (date, location_id) ON CONFLICT REPLACE);");
+        db.setVersion(2);
+    }
+
+    // Fills a version 2 database with a forecast of DAYS days for each of the locations.
+    static void fillVersion2(SQLiteDatabase db, int locations) {
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < locations; i++) {
+                values.clear();
+                values.put("location_setting", "migration-" + i);
+                values.put("city_name", "City " + i);
+                values.put("coord_lat", 64.7488);
+                values.put("coord_long", -147.353);
+                long locationId = db.insert("location", null, values);
+                for (int day = 0; day < DAYS; day++) {
+                    values.clear();
+                    values.put("location_id", locationId);
+                    values.put("date", FIRST_DATE + day * DAY_IN_MILLIS);
+                    values.put("short_desc", "Asteroids");
+                    values.put("weather_id", 321);
+                    values.put("min", 65 + day);
+                    values.put("max", 75 + day);
+                    values.put("humidity", 1.2);
+                    values.put("pressure", 1.3);
+                    values.put("wind", 5.5);
+                    values.put("degrees", 1.1);
+                    db.insert("weather", null, values);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Every table, index and trigger, and every column with its type and constraints.
+    private static TreeSet<String> describeSchema(SQLiteDatabase db) {
+        TreeSet<String> schema = new TreeSet<String>();
+        TreeSet<String> tables = new TreeSet<String>();
+        Cursor cursor = db.rawQuery("SELECT type, name, tbl_name FROM sqlite_master " +
+                "WHERE name != 'android_metadata'", null);
+        try {
+            while (cursor.moveToNext()) {
+                schema.add(cursor.getString(0) + " " + cursor.getString(1) + " on " +
+                        cursor.getString(2));
+                if ("table".equals(cursor.getString(0))) {
+                    tables.add(cursor.getString(1));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        for (String table : tables) {
+            cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            try {
+                while (cursor.moveToNext()) {
+                    schema.add(table + "." + cursor.getString(cursor.getColumnIndex("name")) +
+                            " " + cursor.getString(cursor.getColumnIndex("type")) +
+                            " notnull=" + cursor.getInt(cursor.getColumnIndex("notnull")) +
+                            " default=" + cursor.getString(cursor.getColumnIndex("dflt_value")) +
+                            " pk=" + cursor.getInt(cursor.getColumnIndex("pk")));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return schema;
+    }
+
+    private static int count(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testStepsCoverEveryVersion() {
+        assertEquals("Error: every version after the oldest needs a step",
+                WeatherDbHelper.DATABASE_VERSION,
+                WeatherMigrations.OLDEST_MIGRATABLE_VERSION + WeatherMigrations.MIGRATIONS.length);
+        for (int i = 0; i < WeatherMigrations.MIGRATIONS.length; i++) {
+            assertEquals("Error: the steps must be in version order",
+                    WeatherMigrations.OLDEST_MIGRATABLE_VERSION + i + 1,
+                    WeatherMigrations.MIGRATIONS[i].toVersion);
+        }
+        for (int version = WeatherMigrations.OLDEST_MIGRATABLE_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            assertTrue(WeatherMigrations.canMigrate(version, WeatherDbHelper.DATABASE_VERSION));
+        }
+        assertFalse(WeatherMigrations.canMigrate(
+                WeatherMigrations.OLDEST_MIGRATABLE_VERSION - 1, WeatherDbHelper.DATABASE_VERSION));
+    }
+
+    public void testMigratedSchemaMatchesCreatedSchema() {
+        SQLiteDatabase created = SQLiteDatabase.create(null);
+        new WeatherDbHelper(mContext).onCreate(created);
+
+        SQLiteDatabase migrated = SQLiteDatabase.create(null);
+        createVersion2(migrated);
+        WeatherMigrations.migrate(migrated, 2, WeatherDbHelper.DATABASE_VERSION);
+
+        try {
+            assertEquals("Error: the steps and onCreate disagree about the schema",
+                    describeSchema(created), describeSchema(migrated));
+        } finally {
+            created.close();
+            migrated.close();
+        }
+    }
+
+    public void testUpgradeFromVersion2KeepsData() {
+        SQLiteDatabase oldDb = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME, 0, null);
+        createVersion2(oldDb);
+        fillVersion2(oldDb, 3);
+        oldDb.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        try {
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Error: upgrade lost locations", 3, count(db, LocationEntry.TABLE_NAME));
+            assertEquals("Error: upgrade lost forecast days",
+                    3 * DAYS, count(db, WeatherEntry.TABLE_NAME));
+
+            Cursor cursor = db.query(LocationEntry.TABLE_NAME, null,
+                    LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{"migration-1"},
+                    null, null, null);
+            assertTrue(cursor.moveToFirst());
+            assertEquals("City 1",
+                    cursor.getString(cursor.getColumnIndex(LocationEntry.COLUMN_CITY_NAME)));
+            assertTrue("Error: columns added by the steps should start out null",
+                    cursor.isNull(cursor.getColumnIndex(LocationEntry.COLUMN_LAST_SYNC)));
+            cursor.close();
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    public void testTooOldVersionIsRecreated() {
+        SQLiteDatabase oldDb = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME, 0, null);
+        createVersion2(oldDb);
+        fillVersion2(oldDb, 1);
+        oldDb.setVersion(WeatherMigrations.OLDEST_MIGRATABLE_VERSION - 1);
+        oldDb.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        try {
+            assertEquals(0, count(db, LocationEntry.TABLE_NAME));
+            assertEquals(0, count(db, WeatherEntry.TABLE_NAME));
+            // and it's at the current schema, hourly table included
+            assertEquals(0, count(db, WeatherContract.HourlyEntry.TABLE_NAME));
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    /*
+        Not a pass/fail test beyond the row counts.  Migrates a version 2 database holding
+        BENCHMARK_LOCATIONS locations with two weeks of forecast each, all the way up, and logs
+        how long each step took.  Adding a column is a schema change only, so those steps
+        shouldn't grow with the data; a step that rewrites a table will.
+     */
+    public void testBenchmarkLargeDatabase() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(BENCHMARK_DATABASE_NAME, 0, null);
+        try {
+            createVersion2(db);
+            fillVersion2(db, BENCHMARK_LOCATIONS);
+            File file = mContext.getDatabasePath(BENCHMARK_DATABASE_NAME);
+            long bytes = file.length();
+
+            long[] millis;
+            db.beginTransaction();
+            try {
+                millis = WeatherMigrations.migrate(db, 2, WeatherDbHelper.DATABASE_VERSION);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            assertEquals(BENCHMARK_LOCATIONS, count(db, LocationEntry.TABLE_NAME));
+            assertEquals(BENCHMARK_LOCATIONS * DAYS, count(db, WeatherEntry.TABLE_NAME));
+
+            StringBuilder timings = new StringBuilder();
+            long total = 0;
+            for (int i = 0; i < millis.length; i++) {
+                WeatherMigrations.Migration migration = WeatherMigrations.MIGRATIONS[i];
+                timings.append(", v").append(migration.toVersion).append(" (")
+                        .append(migration.description).append(") ").append(millis[i])
+                        .append("ms");
+                total += millis[i];
+            }
+            Log.i("MigrationBenchmark", BENCHMARK_LOCATIONS + " locations, "
+                    + BENCHMARK_LOCATIONS * DAYS + " days, " + bytes / 1024 + "KB: total "
+                    + total + "ms" + timings);
+        } finally {
+            db.close();
+        }
+    }
+}
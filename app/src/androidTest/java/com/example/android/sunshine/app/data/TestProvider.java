@@ -16,8 +16,12 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
@@ -27,8 +31,14 @@ import android.os.Build;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.sync.SyncCoordinator;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -160,6 +170,16 @@ public class TestProvider extends AndroidTestCase {
         // vnd.android.cursor.dir/com.example.android.sunshine.app/location
         assertEquals("Error: the LocationEntry CONTENT_URI should return LocationEntry.CONTENT_TYPE",
                 LocationEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/sync_metrics/
+        type = mContext.getContentResolver().getType(SyncMetricsEntry.CONTENT_URI);
+        assertEquals("Error: the SyncMetricsEntry CONTENT_URI should return SyncMetricsEntry.CONTENT_TYPE",
+                SyncMetricsEntry.CONTENT_TYPE, type);
+
+        // content://com.example.android.sunshine.app/hourly/94074
+        type = mContext.getContentResolver().getType(HourlyEntry.buildHourlyLocation(testLocation));
+        assertEquals("Error: the HourlyEntry CONTENT_URI with location should return HourlyEntry.CONTENT_TYPE",
+                HourlyEntry.CONTENT_TYPE, type);
     }
 
 
@@ -512,4 +532,456 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    private List<Long> queryWeatherRowIds() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        List<Long> ids = new ArrayList<Long>();
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return ids;
+    }
+
+    /*
+        A merging bulkInsert should only write, and only notify, when the rows actually differ
+        from what's stored.  Changed rows are updated in place rather than replaced.
+     */
+    public void testBulkInsertMerge() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] bulkInsertContentValues = createBulkInsertWeatherValues(locationRowId);
+        Uri mergeUri = WeatherEntry.buildWeatherMergeUri();
+
+        // Nothing stored yet, so everything is new.
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        int writeCount = mContext.getContentResolver().bulkInsert(mergeUri, bulkInsertContentValues);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, writeCount);
+        List<Long> firstIds = queryWeatherRowIds();
+
+        // The same forecast again changes nothing and tells nobody.
+        weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        writeCount = mContext.getContentResolver().bulkInsert(mergeUri, bulkInsertContentValues);
+        weatherObserver.assertNoNotification(1000);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals("Error: an identical forecast shouldn't write anything", 0, writeCount);
+        assertEquals(firstIds, queryWeatherRowIds());
+
+        // One changed day is one write, and it keeps its row.
+        bulkInsertContentValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 100.5);
+        weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        writeCount = mContext.getContentResolver().bulkInsert(mergeUri, bulkInsertContentValues);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals(1, writeCount);
+        assertEquals(firstIds, queryWeatherRowIds());
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null,
+                null, WeatherEntry.COLUMN_DATE + " ASC");
+        cursor.moveToFirst();
+        for (int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testBulkInsertMerge.  Error validating WeatherEntry " + i,
+                    cursor, bulkInsertContentValues[i]);
+        }
+        cursor.close();
+    }
+
+    /*
+        A merging bulkInsert needs every column.  A row missing one, or with a number that
+        isn't, fails the call with the column's name, and none of the rows before it stay.
+     */
+    public void testBulkInsertMergeRejectsIncompleteRows() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        Uri mergeUri = WeatherEntry.buildWeatherMergeUri();
+
+        ContentValues[] missing = createBulkInsertWeatherValues(locationRowId);
+        missing[5].remove(WeatherEntry.COLUMN_HUMIDITY);
+        try {
+            mContext.getContentResolver().bulkInsert(mergeUri, missing);
+            fail("Error: a row without humidity should have been rejected");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage(),
+                    expected.getMessage().contains(WeatherEntry.COLUMN_HUMIDITY));
+        }
+
+        ContentValues[] notANumber = createBulkInsertWeatherValues(locationRowId);
+        notANumber[5].put(WeatherEntry.COLUMN_MAX_TEMP, "warm");
+        try {
+            mContext.getContentResolver().bulkInsert(mergeUri, notANumber);
+            fail("Error: a row with a non-numeric max should have been rejected");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage(),
+                    expected.getMessage().contains(WeatherEntry.COLUMN_MAX_TEMP));
+        }
+
+        assertEquals("Error: a rejected merge should leave no weather behind",
+                0, queryWeatherRowIds().size());
+    }
+
+    /*
+        A batch is one transaction: a location update, inserts and a purge either all
+        land or none do, and weather observers hear about it once, after the commit.
+     */
+    public void testApplyBatchNotifiesOncePerUri() throws Exception {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] days = createBulkInsertWeatherValues(locationRowId);
+        // the day the batch purges
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, days[0]);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withSelection(LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationRowId)})
+                .withValue(LocationEntry.COLUMN_LAST_SYNC, System.currentTimeMillis())
+                .withExpectedCount(1)
+                .build());
+        for (int i = 1; i < days.length; i++) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(days[i]).build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{days[0].getAsString(WeatherEntry.COLUMN_DATE)})
+                .withExpectedCount(1)
+                .build());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        weatherObserver.assertNotificationCount(1, 1000);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testFailedApplyBatchChangesNothing() throws Exception {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] days = createBulkInsertWeatherValues(locationRowId);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues day : days) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(day).build());
+        }
+        // there is no such location, so this one fails after all the inserts went in
+        operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withSelection(LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationRowId + 1)})
+                .withValue(LocationEntry.COLUMN_LAST_SYNC, System.currentTimeMillis())
+                .withExpectedCount(1)
+                .build());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: the batch should have failed");
+        } catch (OperationApplicationException expected) {
+        }
+        weatherObserver.assertNoNotification(1000);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null,
+                null, null, null);
+        assertEquals("Error: a failed batch should leave no weather behind", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    // ContentProviderOperation has no bulk insert, so this passes an insert on a merge URI on
+    // to a merging bulkInsert, on the batch's own thread, the way a caller holding the
+    // provider might from inside a batch.
+    private static class MergeInBatchProvider extends WeatherProvider {
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            if (uri.getBooleanQueryParameter(WeatherEntry.PARAM_MERGE, false)) {
+                bulkInsert(uri, new ContentValues[]{values});
+                return uri;
+            }
+            return super.insert(uri, values);
+        }
+    }
+
+    /*
+        A merging bulkInsert inside a batch is part of the batch: its rows are notified with
+        the rest, once, after the commit, and a batch that fails takes them back without
+        anybody hearing about them.
+     */
+    public void testApplyBatchIncludesMergeInsert() throws Exception {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues[] days = createBulkInsertWeatherValues(locationRowId);
+        Uri mergeUri = WeatherEntry.buildWeatherMergeUri();
+        MergeInBatchProvider provider = new MergeInBatchProvider();
+        provider.attachInfo(mContext, null);
+        try {
+            // one merge per day, each of which would notify its own day's URI on its own
+            ArrayList<ContentProviderOperation> operations =
+                    new ArrayList<ContentProviderOperation>();
+            for (ContentValues day : days) {
+                operations.add(ContentProviderOperation.newInsert(mergeUri)
+                        .withValues(day).build());
+            }
+            // there is no such location, so the batch fails after all the merges went in
+            operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                    .withSelection(LocationEntry._ID + " = ?",
+                            new String[]{Long.toString(locationRowId + 1)})
+                    .withValue(LocationEntry.COLUMN_LAST_SYNC, System.currentTimeMillis())
+                    .withExpectedCount(1)
+                    .build());
+
+            TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+            mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+            try {
+                provider.applyBatch(operations);
+                fail("Error: the batch should have failed");
+            } catch (OperationApplicationException expected) {
+            }
+            weatherObserver.assertNoNotification(1000);
+            mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+            assertEquals("Error: a failed batch should take its merged rows back",
+                    0, queryWeatherRowIds().size());
+
+            // the same merges without the failing update
+            operations.remove(operations.size() - 1);
+            weatherObserver = TestUtilities.getTestContentObserver();
+            mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+            provider.applyBatch(operations);
+            weatherObserver.assertNotificationCount(1, 1000);
+            mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+            assertEquals(BULK_INSERT_RECORDS_TO_INSERT, queryWeatherRowIds().size());
+        } finally {
+            provider.shutdown();
+        }
+    }
+
+    /*
+        Weather changes are announced on the URI of the location that changed, so observers
+        of other locations, and of other days of the same location, don't requery.
+     */
+    public void testNotificationsAreScopedToLocation() {
+        long northPoleId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ContentValues otherLocation = TestUtilities.createNorthPoleLocationValues();
+        otherLocation.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        long otherId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, otherLocation));
+        ContentValues[] days = createBulkInsertWeatherValues(otherId);
+        long firstDate = WeatherContract.normalizeDate(days[0].getAsLong(WeatherEntry.COLUMN_DATE));
+        long secondDate = WeatherContract.normalizeDate(days[1].getAsLong(WeatherEntry.COLUMN_DATE));
+
+        // a whole forecast for one location
+        TestUtilities.TestContentObserver changedObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver otherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("94043"), true, changedObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, otherObserver);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+        changedObserver.waitForNotificationOrFail();
+        otherObserver.assertNoNotification(1000);
+        mContext.getContentResolver().unregisterContentObserver(changedObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherObserver);
+
+        // one day of it
+        changedObserver = TestUtilities.getTestContentObserver();
+        otherObserver = TestUtilities.getTestContentObserver();
+        TestUtilities.TestContentObserver locationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate("94043", firstDate), true, changedObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate("94043", secondDate), true, otherObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("94043"), true, locationObserver);
+        ContentValues maxTemp = new ContentValues();
+        maxTemp.put(WeatherEntry.COLUMN_MAX_TEMP, 100.5);
+        assertEquals(1, mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, maxTemp,
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(otherId), Long.toString(firstDate)}));
+        changedObserver.waitForNotificationOrFail();
+        locationObserver.waitForNotificationOrFail();
+        otherObserver.assertNoNotification(1000);
+        mContext.getContentResolver().unregisterContentObserver(changedObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherObserver);
+        mContext.getContentResolver().unregisterContentObserver(locationObserver);
+
+        // the sync's path, for the other location
+        changedObserver = TestUtilities.getTestContentObserver();
+        otherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, changedObserver);
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("94043"), true, otherObserver);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherMergeUri(),
+                createBulkInsertWeatherValues(northPoleId));
+        changedObserver.waitForNotificationOrFail();
+        otherObserver.assertNoNotification(1000);
+        mContext.getContentResolver().unregisterContentObserver(changedObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherObserver);
+    }
+
+    private static ContentValues createSyncMetricsValues(long totalMillis) {
+        ContentValues values = new ContentValues();
+        values.put(SyncMetricsEntry.COLUMN_START_TIME, System.currentTimeMillis());
+        values.put(SyncMetricsEntry.COLUMN_TOTAL_MS, totalMillis);
+        return values;
+    }
+
+    // Weather queries by location say how old the location's forecast is, whether or not the
+    // projection asks for it.
+    public void testWeatherQueriesReportDataAge() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+        Uri weatherUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+
+        Cursor cursor = mContext.getContentResolver().query(weatherUri,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        assertEquals(1, cursor.getCount());
+        assertEquals("Error: a location that never synced has no last sync",
+                0, WeatherContract.getLastSync(cursor));
+        assertTrue("Error: a location that never synced is stale", WeatherContract.isStale(cursor));
+        cursor.close();
+
+        long lastSync = System.currentTimeMillis() - 60 * 1000;
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LAST_SYNC, lastSync);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, values,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)});
+
+        cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE),
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        assertEquals(lastSync, WeatherContract.getLastSync(cursor));
+        assertFalse("Error: a minute old forecast is fresh by default",
+                WeatherContract.isStale(cursor));
+        cursor.close();
+
+        // Fresh by the revalidating URI's max age too, so no sync is asked for.
+        Uri revalidatingUri = WeatherEntry.buildRevalidatingUri(weatherUri, 60 * 60 * 1000);
+        assertEquals(60 * 60 * 1000, WeatherEntry.getMaxAgeFromUri(revalidatingUri));
+        assertEquals(-1, WeatherEntry.getMaxAgeFromUri(weatherUri));
+        cursor = mContext.getContentResolver().query(revalidatingUri,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        assertEquals(1, cursor.getCount());
+        assertFalse(WeatherContract.isStale(cursor));
+        cursor.close();
+    }
+
+    // What a 304 or an unchanged forecast does: only the last sync time moves.
+    private void confirmForecast(ContentProviderClient client) {
+        ForecastWriter writer =
+                ((WeatherProvider) client.getLocalContentProvider()).openForecastWriter();
+        try {
+            writer.setLastSync(TestUtilities.TEST_LOCATION, System.currentTimeMillis());
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+    }
+
+    /*
+        A sync that confirms a stale forecast without changing it tells the location's
+        observers, so a cursor that was flagged stale gets requeried and isn't any more.
+        Confirming a forecast that was still fresh stays quiet.
+     */
+    public void testConfirmingStaleForecastNotifies() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LAST_SYNC,
+                System.currentTimeMillis() - 2 * SyncCoordinator.FRESHNESS_WINDOW_MILLIS);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, values,
+                LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)});
+        Uri weatherUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+
+        Cursor cursor = mContext.getContentResolver().query(weatherUri,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        assertTrue(WeatherContract.isStale(cursor));
+        cursor.close();
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            TestUtilities.TestContentObserver weatherObserver =
+                    TestUtilities.getTestContentObserver();
+            mContext.getContentResolver().registerContentObserver(weatherUri, true,
+                    weatherObserver);
+            confirmForecast(client);
+            weatherObserver.waitForNotificationOrFail();
+            mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+            cursor = mContext.getContentResolver().query(weatherUri,
+                    new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+            assertFalse("Error: the requery should see the confirmed forecast as fresh",
+                    WeatherContract.isStale(cursor));
+            cursor.close();
+
+            weatherObserver = TestUtilities.getTestContentObserver();
+            mContext.getContentResolver().registerContentObserver(weatherUri, true,
+                    weatherObserver);
+            confirmForecast(client);
+            weatherObserver.assertNoNotification(1000);
+            mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        } finally {
+            client.release();
+        }
+    }
+
+    // The metrics table should only ever hold the latest MAX_ROWS syncs.
+    public void testSyncMetricsAreBounded() {
+        mContext.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI, null, null);
+
+        long lastId = -1;
+        for (int i = 0; i < SyncMetricsEntry.MAX_ROWS + 10; i++) {
+            Uri uri = mContext.getContentResolver().insert(SyncMetricsEntry.CONTENT_URI,
+                    createSyncMetricsValues(i));
+            lastId = ContentUris.parseId(uri);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(SyncMetricsEntry.CONTENT_URI,
+                new String[]{SyncMetricsEntry._ID}, null, null, SyncMetricsEntry._ID + " ASC");
+        assertEquals("Error: old sync metrics weren't trimmed",
+                SyncMetricsEntry.MAX_ROWS, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals("Error: the oldest sync metrics should be the ones trimmed",
+                lastId - SyncMetricsEntry.MAX_ROWS + 1, cursor.getLong(0));
+        cursor.close();
+    }
+
+    public void testSyncMetricsSummary() {
+        mContext.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI, null, null);
+
+        Cursor cursor = mContext.getContentResolver().query(SyncMetricsEntry.buildSummaryUri(),
+                null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(0, cursor.getInt(cursor.getColumnIndex(SyncMetricsEntry.COLUMN_COUNT)));
+        assertTrue(cursor.isNull(cursor.getColumnIndex(SyncMetricsEntry.COLUMN_P50_TOTAL_MS)));
+        cursor.close();
+
+        // 1..20 seconds, inserted out of order
+        for (int i = 20; i >= 1; i--) {
+            mContext.getContentResolver().insert(SyncMetricsEntry.CONTENT_URI,
+                    createSyncMetricsValues(i * 1000));
+        }
+
+        cursor = mContext.getContentResolver().query(SyncMetricsEntry.buildSummaryUri(),
+                null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(20, cursor.getInt(cursor.getColumnIndex(SyncMetricsEntry.COLUMN_COUNT)));
+        assertEquals(10000, cursor.getLong(cursor.getColumnIndex(SyncMetricsEntry.COLUMN_P50_TOTAL_MS)));
+        assertEquals(19000, cursor.getLong(cursor.getColumnIndex(SyncMetricsEntry.COLUMN_P95_TOTAL_MS)));
+        cursor.close();
+    }
 }
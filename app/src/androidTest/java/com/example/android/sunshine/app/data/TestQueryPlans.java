@@ -0,0 +1,155 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+/*
+    Asks SQLite how it would run the provider's hot queries, with the projections the app
+    really uses, and fails if any of them would scan a table or sort in a temp b-tree.  A schema
+    change that loses an index shows up here rather than as a slow forecast list.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    // Same as ForecastFragment.FORECAST_COLUMNS
+    static final String[] FORECAST_LIST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // Same as DetailWidgetRemoteViewsService.FORECAST_COLUMNS
+    static final String[] DETAIL_WIDGET_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    // Same as TodayWidgetIntentService.FORECAST_COLUMNS
+    static final String[] TODAY_WIDGET_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    // Same as WeatherSnapshot.SNAPSHOT_COLUMNS
+    static final String[] SNAPSHOT_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG,
+            LocationEntry.COLUMN_LAST_SYNC
+    };
+
+    static final String DATE_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDb = mDbHelper.getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    private ArrayList<String> explain(SQLiteQueryBuilder builder, String[] projection,
+                                      String selection, String[] selectionArgs,
+                                      String sortOrder) {
+        String sql = builder.buildQuery(projection, selection, null, null, sortOrder, null);
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        ArrayList<String> plan = new ArrayList<String>();
+        try {
+            int detailIndex = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    private ArrayList<String> explainWeatherFromDate(String[] projection) {
+        return explain(WeatherProvider.sWeatherByLocationSettingQueryBuilder, projection,
+                WeatherProvider.sLocationSettingWithStartDateSelection,
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)},
+                DATE_ORDER);
+    }
+
+    // No step of the plan may read a whole table or index, or sort the result itself.
+    private static void assertNoScanOrSort(String query, ArrayList<String> plan) {
+        assertFalse("Error: empty plan for " + query, plan.isEmpty());
+        for (String step : plan) {
+            assertFalse("Error: " + query + " scans: " + plan, step.startsWith("SCAN"));
+            assertFalse("Error: " + query + " sorts: " + plan, step.contains("TEMP B-TREE"));
+        }
+    }
+
+    private static void assertCoveredByLocationDateIndex(String query, ArrayList<String> plan) {
+        assertNoScanOrSort(query, plan);
+        String covering = WeatherEntry.TABLE_NAME + " USING COVERING INDEX " +
+                WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE;
+        for (String step : plan) {
+            if (step.contains(covering)) {
+                return;
+            }
+        }
+        fail("Error: " + query + " doesn't read weather from the covering index: " + plan);
+    }
+
+    public void testForecastListIsCovered() {
+        assertCoveredByLocationDateIndex("forecast list", explainWeatherFromDate(FORECAST_LIST_COLUMNS));
+    }
+
+    public void testWidgetsAreCovered() {
+        assertCoveredByLocationDateIndex("detail widget", explainWeatherFromDate(DETAIL_WIDGET_COLUMNS));
+        assertCoveredByLocationDateIndex("today widget", explainWeatherFromDate(TODAY_WIDGET_COLUMNS));
+    }
+
+    public void testSnapshotIsCovered() {
+        assertCoveredByLocationDateIndex("snapshot", explainWeatherFromDate(SNAPSHOT_COLUMNS));
+    }
+
+    public void testDetailUsesAnIndex() {
+        // Every column, so it can't be covered, but it is still one row found by index.
+        assertNoScanOrSort("detail", explain(WeatherProvider.sWeatherByLocationSettingQueryBuilder,
+                null, WeatherProvider.sLocationSettingAndDaySelection,
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)},
+                null));
+    }
+
+    public void testHourlyUsesAnIndex() {
+        assertNoScanOrSort("hourly", explain(WeatherProvider.sHourlyByLocationSettingQueryBuilder,
+                new String[]{HourlyEntry.COLUMN_TIME, HourlyEntry.COLUMN_TEMP},
+                WeatherProvider.sLocationSettingWithStartTimeSelection,
+                new String[]{TestUtilities.TEST_LOCATION, "0"},
+                HourlyEntry.COLUMN_TIME + " ASC"));
+    }
+}
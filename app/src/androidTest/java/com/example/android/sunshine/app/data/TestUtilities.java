@@ -23,6 +23,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
 
 import com.example.android.sunshine.app.utils.PollingCheck;
@@ -122,6 +123,7 @@ public class TestUtilities extends AndroidTestCase {
     static class TestContentObserver extends ContentObserver {
         final HandlerThread mHT;
         boolean mContentChanged;
+        int mChangeCount;
 
         static TestContentObserver getTestContentObserver() {
             HandlerThread ht = new HandlerThread("ContentObserverThread");
@@ -143,6 +145,7 @@ public class TestUtilities extends AndroidTestCase {
         @Override
         public void onChange(boolean selfChange, Uri uri) {
             mContentChanged = true;
+            mChangeCount++;
         }
 
         public void waitForNotificationOrFail() {
@@ -158,6 +161,20 @@ public class TestUtilities extends AndroidTestCase {
             }.run();
             mHT.quit();
         }
+
+        public void assertNoNotification(long waitMillis) {
+            // Notifications are delivered asynchronously, so give any stray one time to show up.
+            SystemClock.sleep(waitMillis);
+            mHT.quit();
+            assertFalse("Error: observer was notified", mContentChanged);
+        }
+
+        public void assertNotificationCount(int expected, long waitMillis) {
+            // Same as above: wait out any notification still on its way.
+            SystemClock.sleep(waitMillis);
+            mHT.quit();
+            assertEquals("Error: wrong number of notifications", expected, mChangeCount);
+        }
     }
 
     static TestContentObserver getTestContentObserver() {
@@ -0,0 +1,210 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+    One writer doing what a sync does, READERS threads doing what the forecast list, the
+    widgets and Muzei do, all on the same database for BENCHMARK_MILLIS.  Runs once with the
+    helper in WAL mode and once with a rollback journal, and logs the readers' latency under
+    the "ContentionBenchmark" tag.  Pass/fail only on the readers getting anywhere at all.
+ */
+public class TestWalContention extends AndroidTestCase {
+
+    static final String WAL_DATABASE_NAME = "contention_wal.db";
+    static final String ROLLBACK_DATABASE_NAME = "contention_rollback.db";
+
+    static final int READERS = 4;
+    static final long BENCHMARK_MILLIS = 3000;
+    static final int DAYS = 14;
+    static final long FIRST_DATE = 1419033600000L;
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // A sync keeps its transaction open while it is still downloading and parsing, so each
+    // day the writer writes is followed by a pause standing in for that.  Between syncs the
+    // writer rests, or the rollback readers would never get in at all.
+    static final long WRITER_MILLIS_PER_DAY = 5;
+    static final long WRITER_REST_MILLIS = 50;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WAL_DATABASE_NAME);
+        mContext.deleteDatabase(ROLLBACK_DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WAL_DATABASE_NAME);
+        mContext.deleteDatabase(ROLLBACK_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testBenchmarkReadersDuringSync() throws Exception {
+        String wal = run(WAL_DATABASE_NAME, true);
+        String rollback = run(ROLLBACK_DATABASE_NAME, false);
+        Log.i("ContentionBenchmark", "1 writer, " + READERS + " readers, " + BENCHMARK_MILLIS
+                + "ms: WAL " + wal + "; rollback journal " + rollback);
+    }
+
+    public void testWalIsEnabled() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, WAL_DATABASE_NAME, true);
+        try {
+            Cursor cursor = dbHelper.getWritableDatabase().rawQuery("PRAGMA journal_mode", null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertEquals("wal", cursor.getString(0).toLowerCase());
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    // Runs the writer and the readers against one database, and sums up the readers' latency.
+    private String run(String name, boolean writeAheadLogging) throws Exception {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, name, writeAheadLogging);
+        try {
+            final SQLiteDatabase db = dbHelper.getWritableDatabase();
+            final long locationId = fill(db);
+            final String[] selectionArgs = {TestUtilities.TEST_LOCATION, Long.toString(FIRST_DATE)};
+
+            final AtomicBoolean stop = new AtomicBoolean();
+            final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+            final ArrayList<Long> latencies = new ArrayList<Long>();
+            final int[] syncs = new int[1];
+
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    SQLiteStatement update = db.compileStatement("UPDATE " +
+                            WeatherEntry.TABLE_NAME + " SET " + WeatherEntry.COLUMN_MAX_TEMP +
+                            " = ? WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                            WeatherEntry.COLUMN_DATE + " = ?");
+                    try {
+                        while (!stop.get()) {
+                            db.beginTransaction();
+                            try {
+                                for (int day = 0; day < DAYS; day++) {
+                                    update.bindDouble(1, 75 + syncs[0] % 10);
+                                    update.bindLong(2, locationId);
+                                    update.bindLong(3, FIRST_DATE + day * DAY_IN_MILLIS);
+                                    update.executeUpdateDelete();
+                                    Thread.sleep(WRITER_MILLIS_PER_DAY);
+                                }
+                                db.setTransactionSuccessful();
+                            } finally {
+                                db.endTransaction();
+                            }
+                            WeatherDbHelper.checkpoint(db);
+                            syncs[0]++;
+                            Thread.sleep(WRITER_REST_MILLIS);
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        update.close();
+                    }
+                }
+            });
+
+            Thread[] readers = new Thread[READERS];
+            for (int i = 0; i < READERS; i++) {
+                readers[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        ArrayList<Long> mine = new ArrayList<Long>();
+                        try {
+                            while (!stop.get()) {
+                                long start = System.nanoTime();
+                                Cursor cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder
+                                        .query(db, TestQueryPlans.FORECAST_LIST_COLUMNS,
+                                                WeatherProvider.sLocationSettingWithStartDateSelection,
+                                                selectionArgs, null, null,
+                                                TestQueryPlans.DATE_ORDER);
+                                try {
+                                    if (cursor.getCount() != DAYS) {
+                                        throw new AssertionError("Read " + cursor.getCount()
+                                                + " days instead of " + DAYS);
+                                    }
+                                } finally {
+                                    cursor.close();
+                                }
+                                mine.add(System.nanoTime() - start);
+                            }
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        }
+                        synchronized (latencies) {
+                            latencies.addAll(mine);
+                        }
+                    }
+                });
+            }
+
+            writer.start();
+            for (Thread reader : readers) {
+                reader.start();
+            }
+            Thread.sleep(BENCHMARK_MILLIS);
+            stop.set(true);
+            writer.join();
+            for (Thread reader : readers) {
+                reader.join();
+            }
+
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+            assertFalse("Error: the readers never got a query through", latencies.isEmpty());
+
+            long[] sorted = new long[latencies.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = latencies.get(i);
+            }
+            Arrays.sort(sorted);
+            return sorted.length + " reads during " + syncs[0] + " syncs, p50 "
+                    + micros(sorted, 50) + "us, p95 " + micros(sorted, 95) + "us, max "
+                    + sorted[sorted.length - 1] / 1000 + "us";
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    // One location with DAYS days of forecast, the same as a single-location sync leaves.
+    private static long fill(SQLiteDatabase db) {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        long locationId = db.insert(LocationEntry.TABLE_NAME, null, locationValues);
+        db.beginTransaction();
+        try {
+            for (int day = 0; day < DAYS; day++) {
+                ContentValues weatherValues = TestUtilities.createWeatherValues(locationId);
+                weatherValues.put(WeatherEntry.COLUMN_DATE, FIRST_DATE + day * DAY_IN_MILLIS);
+                db.insert(WeatherEntry.TABLE_NAME, null, weatherValues);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return locationId;
+    }
+
+    // Nearest-rank percentile, like the provider's sync metrics summary.
+    private static long micros(long[] sorted, int percent) {
+        int rank = (percent * sorted.length + 99) / 100;
+        return sorted[Math.max(rank, 1) - 1] / 1000;
+    }
+}
@@ -0,0 +1,281 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+
+/**
+ * Serves forecasts recorded in files, so the whole sync pipeline can be run and timed without a
+ * network and get the same answers every time.
+ *
+ * Each location setting has one file in the recording directory holding the body OpenWeatherMap
+ * sent for it, and another for its hourly forecast; a location without one gets OWM's "city not
+ * found" answer.  The recordings are
+ * served like a server would: the headers only arrive after the configured latency, the body
+ * trickles in at the configured rate, and a request whose ETag matches the file gets a 304.
+ */
+class ReplayWeatherSource implements WeatherSource {
+
+    private static final byte[] NOT_FOUND_BODY =
+            "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}".getBytes();
+
+    // URLEncoder always escapes a '~', so no location setting can end up with the other's name.
+    private static final String DAILY_SUFFIX = ".json";
+    private static final String HOURLY_SUFFIX = "~hourly.json";
+
+    private final File mDirectory;
+    private volatile long mLatencyMillis;
+    private volatile long mBytesPerSecond;
+    private volatile boolean mHonorValidators = true;
+
+    /**
+     * @param directory where the recordings are.  It's created if it doesn't exist.
+     */
+    ReplayWeatherSource(File directory) {
+        mDirectory = directory;
+        mDirectory.mkdirs();
+    }
+
+    /**
+     * @param latencyMillis how long every request waits for its response headers
+     */
+    void setLatency(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * @param bytesPerSecond how fast bodies are served, 0 for as fast as they can be read
+     */
+    void setBandwidth(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * @param honorValidators false to always send the whole forecast, even to a conditional
+     *                        request, e.g. to time the full download, parse and write path
+     *                        over and over
+     */
+    void setHonorValidators(boolean honorValidators) {
+        mHonorValidators = honorValidators;
+    }
+
+    /**
+     * Stores the body to serve for a location, replacing any earlier recording.
+     */
+    void addRecording(String locationSetting, byte[] body) throws IOException {
+        writeRecording(getRecording(locationSetting, DAILY_SUFFIX), body);
+    }
+
+    /**
+     * Stores the hourly forecast body to serve for a location, replacing any earlier one.
+     */
+    void addHourlyRecording(String locationSetting, byte[] body) throws IOException {
+        writeRecording(getRecording(locationSetting, HOURLY_SUFFIX), body);
+    }
+
+    private static void writeRecording(File recording, byte[] body) throws IOException {
+        OutputStream out = new FileOutputStream(recording);
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Recordings are looked up by location setting only; the city id is ignored.
+     */
+    @Override
+    public Response fetchForecast(String locationSetting, long cityId, String[] validators)
+            throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        sleep(mLatencyMillis);
+
+        File recording = getRecording(locationSetting, DAILY_SUFFIX);
+        if (!recording.isFile()) {
+            return new ReplayResponse(HttpURLConnection.HTTP_OK, null, null, start);
+        }
+        String etag = "\"" + Long.toHexString(recording.length()) + "-"
+                + Long.toHexString(recording.lastModified()) + "\"";
+        if (mHonorValidators && etag.equals(validators[0])) {
+            return new ReplayResponse(HttpURLConnection.HTTP_NOT_MODIFIED, etag, null, start);
+        }
+        return new ReplayResponse(HttpURLConnection.HTTP_OK, etag, recording, start);
+    }
+
+    @Override
+    public int parseForecast(Response response, ForecastParser.Handler handler)
+            throws IOException, JSONException {
+        // The recordings are OpenWeatherMap's own responses.
+        return new ForecastParser().parse(response.getBody(), handler);
+    }
+
+    /**
+     * Served like the daily forecast, but never as a 304.
+     */
+    @Override
+    public Response fetchHourlyForecast(String locationSetting, long cityId) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        sleep(mLatencyMillis);
+
+        File recording = getRecording(locationSetting, HOURLY_SUFFIX);
+        return new ReplayResponse(HttpURLConnection.HTTP_OK, null,
+                recording.isFile() ? recording : null, start);
+    }
+
+    @Override
+    public int parseHourlyForecast(Response response, HourlyForecastParser.Handler handler)
+            throws IOException, JSONException {
+        return new HourlyForecastParser().parse(response.getBody(), handler);
+    }
+
+    private File getRecording(String locationSetting, String suffix) {
+        try {
+            return new File(mDirectory, URLEncoder.encode(locationSetting, "UTF-8") + suffix);
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always there
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Replay interrupted");
+        }
+    }
+
+    private class ReplayResponse implements WeatherSource.Response {
+        private final int mCode;
+        private final String mEtag;
+        // null to serve NOT_FOUND_BODY, or for a 304
+        private final File mRecording;
+        private final long mTimeToFirstByteMillis;
+
+        private ThrottledInputStream mBody;
+
+        ReplayResponse(int code, String etag, File recording, long startMillis) {
+            mCode = code;
+            mEtag = etag;
+            mRecording = recording;
+            mTimeToFirstByteMillis = SystemClock.elapsedRealtime() - startMillis;
+        }
+
+        @Override
+        public int getCode() {
+            return mCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return "ETag".equalsIgnoreCase(name) ? mEtag : null;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                throw new FileNotFoundException("No body in a 304");
+            }
+            if (mBody == null) {
+                InputStream in = mRecording != null
+                        ? new FileInputStream(mRecording)
+                        : new ByteArrayInputStream(NOT_FOUND_BODY);
+                mBody = new ThrottledInputStream(in, mBytesPerSecond);
+            }
+            return mBody;
+        }
+
+        @Override
+        public long getConnectMillis() {
+            return 0;
+        }
+
+        @Override
+        public long getTimeToFirstByteMillis() {
+            return mTimeToFirstByteMillis;
+        }
+
+        @Override
+        public long getBodyReadMillis() {
+            return mBody == null ? 0 : mBody.mReadNanos / 1000000;
+        }
+
+        @Override
+        public long getBytesOnWire() {
+            return mBody == null ? 0 : mBody.mCount;
+        }
+
+        @Override
+        public void abort() {
+            close();
+        }
+
+        @Override
+        public void close() {
+            if (mBody != null) {
+                try {
+                    mBody.close();
+                } catch (IOException e) {
+                    // nothing to lose, it's a local file
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves a stream no faster than a given rate, and counts what was read and the time spent
+     * reading it, like the HTTP client does for real responses.
+     */
+    private static class ThrottledInputStream extends FilterInputStream {
+        private final long mBytesPerSecond;
+        private final long mStartNanos = System.nanoTime();
+        private long mCount;
+        private long mReadNanos;
+
+        ThrottledInputStream(InputStream in, long bytesPerSecond) {
+            super(in);
+            mBytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCount += read;
+                if (mBytesPerSecond > 0) {
+                    // Hold the read back until the rate says these bytes could have arrived.
+                    long dueNanos = mStartNanos + mCount * 1000000000L / mBytesPerSecond;
+                    sleep((dueNanos - System.nanoTime()) / 1000000);
+                }
+            }
+            mReadNanos += System.nanoTime() - start;
+            return read;
+        }
+    }
+}
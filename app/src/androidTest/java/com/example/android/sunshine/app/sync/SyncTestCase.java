@@ -0,0 +1,73 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderClient;
+import android.content.SyncResult;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+/*
+    What the tests that run the sync adapter share.  Each one starts from an empty database with
+    no backoff and a provider client to sync into, and is free to change the preferred location
+    and the weather source; tearDown puts both back the way they were.
+ */
+public abstract class SyncTestCase extends AndroidTestCase {
+
+    protected ContentProviderClient mProviderClient;
+    private String mSavedLocation;
+    private WeatherSource mSavedWeatherSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteForecasts();
+        // A failing sync left over from another test mustn't hold this one back.
+        new SyncBackoff(mContext).onSuccess();
+
+        mSavedLocation = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(mContext.getString(R.string.pref_location_key), null);
+        // Whatever the app made, which is hedged rather than plain OpenWeatherMap when the
+        // build has a mirror.
+        mSavedWeatherSource = SunshineSyncAdapter.sWeatherSource;
+        mProviderClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mProviderClient.release();
+        SunshineSyncAdapter.sWeatherSource = mSavedWeatherSource;
+        setPreferredLocation(mSavedLocation);
+        super.tearDown();
+    }
+
+    void deleteForecasts() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    void setPreferredLocation(String locationSetting) {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), locationSetting)
+                .commit();
+    }
+
+    // Sends the sync's forecast requests to a local stand-in for OpenWeatherMap.
+    void useServer(LocalHttpServer server) {
+        SunshineSyncAdapter.sWeatherSource =
+                new OpenWeatherMapSource(server.getUrl("/data/2.5/forecast/daily?"));
+    }
+
+    SyncResult performSync(Bundle extras) {
+        SyncResult syncResult = new SyncResult();
+        new SunshineSyncAdapter(mContext, false).onPerformSync(null, extras,
+                WeatherContract.CONTENT_AUTHORITY, mProviderClient, syncResult);
+        return syncResult;
+    }
+}
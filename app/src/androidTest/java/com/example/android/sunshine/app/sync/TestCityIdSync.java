@@ -0,0 +1,146 @@
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Checks that the sync learns OpenWeatherMap's city id for each location, asks by id from then
+    on, and falls back to the location setting for just the city whose id stops working.
+ */
+public class TestCityIdSync extends SyncTestCase {
+
+    static final String FIRST_LOCATION = "99705";
+    static final String SECOND_LOCATION = "94043";
+
+    private LocalHttpServer mServer;
+
+    // What the stand-in server answers for each location setting, and which ids it knows.
+    private final Map<String, Long> mCityIds = new HashMap<String, Long>();
+    private final HashSet<Long> mRetiredCityIds = new HashSet<Long>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCityIds.put(FIRST_LOCATION, 1000L);
+        mCityIds.put(SECOND_LOCATION, 2000L);
+
+        mServer = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                Uri uri = Uri.parse("http://localhost" + request.path);
+                String id = uri.getQueryParameter("id");
+                long cityId;
+                if (id != null) {
+                    cityId = Long.parseLong(id);
+                    if (mRetiredCityIds.contains(cityId) || !mCityIds.containsValue(cityId)) {
+                        return new LocalHttpServer.Response(HttpURLConnection.HTTP_NOT_FOUND)
+                                .body("{\"cod\":\"404\",\"message\":\"Error: Not found city\"}");
+                    }
+                } else {
+                    cityId = mCityIds.get(uri.getQueryParameter("q"));
+                }
+                return new LocalHttpServer.Response(HttpURLConnection.HTTP_OK)
+                        .header("Content-Type", "application/json")
+                        .body(TestForecastParser.createForecastJson(14, cityId));
+            }
+        });
+        useServer(mServer);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private long queryCityId(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_CITY_ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{locationSetting}, null);
+        assertTrue("Error: location " + locationSetting + " wasn't added by the sync",
+                cursor.moveToFirst());
+        long cityId = cursor.isNull(0) ? -1 : cursor.getLong(0);
+        cursor.close();
+        return cityId;
+    }
+
+    private static Uri requestUri(LocalHttpServer.Request request) {
+        return Uri.parse("http://localhost" + request.path);
+    }
+
+    public void testSecondSyncAsksByCityId() {
+        setPreferredLocation(FIRST_LOCATION);
+        performSync(new Bundle());
+        assertEquals(1000L, queryCityId(FIRST_LOCATION));
+
+        performSync(new Bundle());
+
+        List<LocalHttpServer.Request> requests = mServer.getRequests();
+        assertEquals(2, requests.size());
+        assertEquals(FIRST_LOCATION, requestUri(requests.get(0)).getQueryParameter("q"));
+        assertEquals("1000", requestUri(requests.get(1)).getQueryParameter("id"));
+        assertNull("Error: a request by id shouldn't also search by name",
+                requestUri(requests.get(1)).getQueryParameter("q"));
+    }
+
+    public void testRetiredCityIdFallsBackToLocationSetting() {
+        setPreferredLocation(FIRST_LOCATION);
+        performSync(new Bundle());
+        assertEquals(1000L, queryCityId(FIRST_LOCATION));
+
+        // OWM renumbers the city.
+        mRetiredCityIds.add(1000L);
+        mCityIds.put(FIRST_LOCATION, 1001L);
+        performSync(new Bundle());
+
+        List<LocalHttpServer.Request> requests = mServer.getRequests();
+        assertEquals(3, requests.size());
+        assertEquals("1000", requestUri(requests.get(1)).getQueryParameter("id"));
+        assertEquals(FIRST_LOCATION, requestUri(requests.get(2)).getQueryParameter("q"));
+        assertEquals("Error: the new city id should replace the retired one",
+                1001L, queryCityId(FIRST_LOCATION));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+    }
+
+    public void testAllLocationsFallBackPerCity() {
+        // Get both locations and their ids into the database.
+        setPreferredLocation(SECOND_LOCATION);
+        performSync(new Bundle());
+        setPreferredLocation(FIRST_LOCATION);
+        performSync(new Bundle());
+        int before = mServer.getRequests().size();
+
+        mRetiredCityIds.add(2000L);
+        mCityIds.put(SECOND_LOCATION, 2001L);
+        Bundle extras = new Bundle();
+        extras.putBoolean(SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS, true);
+        performSync(extras);
+
+        List<LocalHttpServer.Request> requests = mServer.getRequests();
+        requests = requests.subList(before, requests.size());
+        HashSet<String> sent = new HashSet<String>();
+        for (LocalHttpServer.Request request : requests) {
+            Uri uri = requestUri(request);
+            sent.add(uri.getQueryParameter("id") != null
+                    ? "id=" + uri.getQueryParameter("id") : "q=" + uri.getQueryParameter("q"));
+        }
+        // The good id is used as is, only the retired one is asked for again by name.
+        assertEquals(3, requests.size());
+        assertTrue(sent.contains("id=1000"));
+        assertTrue(sent.contains("id=2000"));
+        assertTrue(sent.contains("q=" + SECOND_LOCATION));
+        assertEquals(1000L, queryCityId(FIRST_LOCATION));
+        assertEquals(2001L, queryCityId(SECOND_LOCATION));
+    }
+}
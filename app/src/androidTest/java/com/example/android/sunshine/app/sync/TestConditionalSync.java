@@ -0,0 +1,197 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs the sync adapter against a local stand-in for OpenWeatherMap to check the conditional
+    request path: validators are stored with the forecast, sent back on the next sync, and a
+    304 leaves the database completely alone.
+ */
+public class TestConditionalSync extends SyncTestCase {
+
+    static final String TEST_LOCATION = "99705";
+    static final String TEST_ETAG = "\"forecast-v1\"";
+    static final String TEST_LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+
+    private LocalHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI, null, null);
+        setPreferredLocation(TEST_LOCATION);
+
+        mServer = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                if (TEST_ETAG.equals(request.getHeader("If-None-Match"))) {
+                    return new LocalHttpServer.Response(HttpURLConnection.HTTP_NOT_MODIFIED)
+                            .header("ETag", TEST_ETAG);
+                }
+                return new LocalHttpServer.Response(HttpURLConnection.HTTP_OK)
+                        .header("Content-Type", "application/json")
+                        .header("ETag", TEST_ETAG)
+                        .header("Last-Modified", TEST_LAST_MODIFIED)
+                        .body(TestForecastParser.createForecastJson(14));
+            }
+        });
+        useServer(mServer);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private void performSync(SunshineSyncAdapter syncAdapter) {
+        syncAdapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY,
+                mProviderClient, new SyncResult());
+    }
+
+    private List<Long> queryWeatherRowIds() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry._ID + " ASC");
+        List<Long> ids = new ArrayList<Long>();
+        while (cursor.moveToNext()) {
+            ids.add(cursor.getLong(0));
+        }
+        cursor.close();
+        return ids;
+    }
+
+    public void testNotModifiedSkipsProviderWrites() {
+        SunshineSyncAdapter syncAdapter = new SunshineSyncAdapter(mContext, false);
+
+        // First sync is unconditional and stores the forecast along with its validators.
+        performSync(syncAdapter);
+        List<Long> firstIds = queryWeatherRowIds();
+        assertEquals("Error: first sync should have written the whole forecast", 14, firstIds.size());
+
+        Cursor location = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_ETAG, LocationEntry.COLUMN_LAST_MODIFIED},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{TEST_LOCATION}, null);
+        assertTrue("Error: location wasn't added by the sync", location.moveToFirst());
+        assertEquals(TEST_ETAG, location.getString(0));
+        assertEquals(TEST_LAST_MODIFIED, location.getString(1));
+        location.close();
+
+        // Watch everything under the provider while the second sync runs.
+        HandlerThread ht = new HandlerThread("ConditionalSyncObserver");
+        ht.start();
+        final boolean[] changed = new boolean[1];
+        ContentObserver observer = new ContentObserver(new Handler(ht.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                changed[0] = true;
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.BASE_CONTENT_URI, true, observer);
+
+        performSync(syncAdapter);
+
+        // Notifications are delivered asynchronously, so give any stray one time to show up.
+        SystemClock.sleep(1000);
+        mContext.getContentResolver().unregisterContentObserver(observer);
+        ht.quit();
+
+        List<LocalHttpServer.Request> requests = mServer.getRequests();
+        assertEquals(2, requests.size());
+        assertNull("Error: first sync had nothing to validate against",
+                requests.get(0).getHeader("If-None-Match"));
+        assertEquals(TEST_ETAG, requests.get(1).getHeader("If-None-Match"));
+        assertEquals(TEST_LAST_MODIFIED, requests.get(1).getHeader("If-Modified-Since"));
+
+        assertFalse("Error: a 304 should not notify any provider observers", changed[0]);
+        // REPLACE would have handed out new row ids, so unchanged ids mean nothing was rewritten.
+        assertEquals("Error: a 304 should not rewrite any weather rows", firstIds, queryWeatherRowIds());
+    }
+
+    public void testSyncRecordsMetrics() {
+        SunshineSyncAdapter syncAdapter = new SunshineSyncAdapter(mContext, false);
+        performSync(syncAdapter);
+        performSync(syncAdapter);
+
+        Cursor metrics = mContext.getContentResolver().query(SyncMetricsEntry.CONTENT_URI, null,
+                null, null, SyncMetricsEntry._ID + " ASC");
+        assertEquals("Error: each sync should record one row of metrics", 2, metrics.getCount());
+
+        metrics.moveToFirst();
+        assertEquals(HttpURLConnection.HTTP_OK,
+                metrics.getInt(metrics.getColumnIndex(SyncMetricsEntry.COLUMN_HTTP_STATUS)));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK,
+                metrics.getInt(metrics.getColumnIndex(SyncMetricsEntry.COLUMN_STATUS)));
+        assertEquals(1, metrics.getInt(metrics.getColumnIndex(SyncMetricsEntry.COLUMN_LOCATIONS)));
+        assertEquals(14, metrics.getInt(metrics.getColumnIndex(SyncMetricsEntry.COLUMN_ROWS_RECEIVED)));
+        assertEquals(14, metrics.getInt(metrics.getColumnIndex(SyncMetricsEntry.COLUMN_ROWS_WRITTEN)));
+        assertTrue("Error: the forecast body wasn't counted",
+                metrics.getLong(metrics.getColumnIndex(SyncMetricsEntry.COLUMN_BYTES)) > 0);
+        long total = metrics.getLong(metrics.getColumnIndex(SyncMetricsEntry.COLUMN_TOTAL_MS));
+        assertTrue("Error: a phase took longer than the whole sync",
+                metrics.getLong(metrics.getColumnIndex(SyncMetricsEntry.COLUMN_TTFB_MS)) <= total);
+
+        metrics.moveToNext();
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED,
+                metrics.getInt(metrics.getColumnIndex(SyncMetricsEntry.COLUMN_HTTP_STATUS)));
+        assertEquals(0, metrics.getInt(metrics.getColumnIndex(SyncMetricsEntry.COLUMN_ROWS_WRITTEN)));
+        assertTrue("Error: nothing changed, so there was no fan-out to time",
+                metrics.isNull(metrics.getColumnIndex(SyncMetricsEntry.COLUMN_FAN_OUT_MS)));
+        metrics.close();
+    }
+
+    private long queryLastSync() {
+        Cursor location = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[]{LocationEntry.COLUMN_LAST_SYNC},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{TEST_LOCATION}, null);
+        assertTrue("Error: location wasn't added by the sync", location.moveToFirst());
+        long lastSync = location.isNull(0) ? 0 : location.getLong(0);
+        location.close();
+        return lastSync;
+    }
+
+    public void testFreshForecastSkipsNetwork() {
+        SunshineSyncAdapter syncAdapter = new SunshineSyncAdapter(mContext, false);
+        long before = System.currentTimeMillis();
+        performSync(syncAdapter);
+        long firstSync = queryLastSync();
+        assertTrue("Error: the sync didn't note when it ran", firstSync >= before);
+        List<Long> ids = queryWeatherRowIds();
+
+        // What a launch asks for: anything synced within the window is left alone.
+        Bundle extras = new Bundle();
+        extras.putLong(SunshineSyncAdapter.SYNC_EXTRAS_MAX_AGE, SyncCoordinator.FRESHNESS_WINDOW_MILLIS);
+        for (int i = 0; i < 3; i++) {
+            syncAdapter.onPerformSync(null, extras, WeatherContract.CONTENT_AUTHORITY,
+                    mProviderClient, new SyncResult());
+        }
+        assertEquals("Error: a fresh forecast shouldn't be fetched again",
+                1, mServer.getRequests().size());
+        assertEquals(ids, queryWeatherRowIds());
+
+        // Once it's older than asked for, it's checked, and the 304 counts as synced.
+        SystemClock.sleep(10);
+        extras.putLong(SunshineSyncAdapter.SYNC_EXTRAS_MAX_AGE, 1);
+        syncAdapter.onPerformSync(null, extras, WeatherContract.CONTENT_AUTHORITY,
+                mProviderClient, new SyncResult());
+        assertEquals(2, mServer.getRequests().size());
+        assertTrue("Error: a 304 should update the last sync time", queryLastSync() > firstSync);
+        assertEquals(ids, queryWeatherRowIds());
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderClient;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.ForecastWriter;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.data.WeatherProvider;
+
+import java.io.IOException;
+
+/*
+    Feeds ForecastIngester days by hand and checks where they land: each day's position in the
+    list maps to a date counted from the start day, days that come before the city are held
+    back until it arrives, and a sync that has to stop writes nothing more.
+ */
+public class TestForecastIngester extends AndroidTestCase {
+
+    static final String TEST_LOCATION = "99705";
+    static final int DAYS = 3;
+
+    private ContentProviderClient mClient;
+    private ForecastWriter mWriter;
+    private SyncDeadline mDeadline;
+    private int mJulianStartDay;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        mWriter = ((WeatherProvider) mClient.getLocalContentProvider()).openForecastWriter();
+        mDeadline = new SyncDeadline(SyncDeadline.SYNC_TIMEOUT_MILLIS);
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mWriter.close();
+        mDeadline.finish();
+        mClient.release();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private ForecastIngester createIngester() {
+        return new ForecastIngester(mWriter, TEST_LOCATION, mJulianStartDay, mDeadline);
+    }
+
+    private static ForecastParser.Day createDay(int index) {
+        ForecastParser.Day day = new ForecastParser.Day();
+        day.reset(index);
+        day.description = "Clear";
+        day.weatherId = 800;
+        day.low = 5 + index;
+        day.high = 18 + index;
+        day.humidity = 40;
+        day.pressure = 1010.5;
+        day.windSpeed = 1.5;
+        day.windDirection = 180;
+        return day;
+    }
+
+    // The date the ingester should have given day index, the same way it works it out.
+    private long expectedDate(int index) {
+        return WeatherContract.normalizeDate(new Time().setJulianDay(mJulianStartDay + index));
+    }
+
+    private void assertDays(long locationId, int days) {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE,
+                        WeatherEntry.COLUMN_MAX_TEMP},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertEquals(days, cursor.getCount());
+            for (int i = 0; cursor.moveToNext(); i++) {
+                assertEquals(locationId, cursor.getLong(0));
+                assertEquals("Error: day " + i + " has the wrong date",
+                        expectedDate(i), cursor.getLong(1));
+                assertEquals("Error: day " + i + " has another day's forecast",
+                        18.0 + i, cursor.getDouble(2));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testDaysAreDatedByTheirPosition() throws IOException {
+        ForecastIngester ingester = createIngester();
+        ingester.onCity(5375480L, "Mountain View", 37.386051, -122.083847);
+        for (int i = 0; i < DAYS; i++) {
+            ingester.onDay(createDay(i));
+        }
+        mWriter.commit();
+
+        assertEquals(DAYS, ingester.getDaysReceived());
+        assertEquals(DAYS, ingester.getDaysWritten());
+        assertDays(ingester.getLocationId(), DAYS);
+        assertEquals("Error: yesterday should be the day before day 0",
+                new Time().setJulianDay(mJulianStartDay - 1), ingester.getYesterday());
+    }
+
+    // The hourly endpoint sends the city after the list.
+    public void testDaysBeforeTheCityAreHeldBack() throws IOException {
+        ForecastIngester ingester = createIngester();
+        assertEquals(-1, ingester.getLocationId());
+
+        // The parser reuses its Day, so the ingester has to keep copies.
+        ForecastParser.Day day = createDay(0);
+        ingester.onDay(day);
+        day.reset(1);
+        day.description = "Clear";
+        day.weatherId = 800;
+        day.high = 19;
+        ingester.onDay(day);
+        assertEquals("Error: nothing can be written without a location",
+                0, ingester.getDaysReceived());
+
+        ingester.onCity(5375480L, "Mountain View", 37.386051, -122.083847);
+        assertTrue(ingester.getLocationId() != -1);
+        assertEquals(2, ingester.getDaysReceived());
+        mWriter.commit();
+        assertDays(ingester.getLocationId(), 2);
+    }
+
+    public void testDaysOfAStoppedSyncAreNotWritten() throws IOException {
+        ForecastIngester ingester = createIngester();
+        ingester.onCity(5375480L, "Mountain View", 37.386051, -122.083847);
+        ingester.onDay(createDay(0));
+
+        mDeadline.cancel();
+        try {
+            ingester.onDay(createDay(1));
+            fail("Error: a cancelled sync should stop at the next day");
+        } catch (SyncDeadline.CancelledException expected) {
+        }
+        assertEquals(1, ingester.getDaysReceived());
+
+        // What the sync adapter does on the way out: the whole forecast is rolled back.
+        mWriter.close();
+        assertDays(-1, 0);
+    }
+}
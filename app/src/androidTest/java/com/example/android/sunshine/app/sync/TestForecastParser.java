@@ -0,0 +1,236 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/*
+    Checks that the streaming ForecastParser pulls out the same values the old
+    StringBuffer + JSONObject path did, and logs how the two compare on allocations and time.
+ */
+public class TestForecastParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastParser.class.getSimpleName();
+
+    private static final int BENCHMARK_ITERATIONS = 50;
+
+    /*
+        Builds a response shaped like the forecast/daily endpoint, including the fields we skip.
+     */
+    static String createForecastJson(int numDays) {
+        return createForecastJson(numDays, 5375480L);
+    }
+
+    static String createForecastJson(int numDays, long cityId) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"city\":{\"id\":").append(cityId).append(",\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},")
+                .append("\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0123,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"dt\":").append(1419120000L + i * 86400L)
+                    .append(",\"temp\":{\"day\":15.5,\"min\":").append(5 + i * 0.25)
+                    .append(",\"max\":").append(18 + i * 0.5)
+                    .append(",\"night\":6.1,\"eve\":12.3,\"morn\":7.2},")
+                    .append("\"pressure\":").append(1010.5 + i)
+                    .append(",\"humidity\":").append(40 + i)
+                    .append(",\"weather\":[{\"id\":").append(800 + (i % 4))
+                    .append(",\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}],")
+                    .append("\"speed\":").append(1.5 + i * 0.1)
+                    .append(",\"deg\":").append(180 + i)
+                    .append(",\"clouds\":0}");
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+
+    /*
+        Builds a response shaped like the 5 day / 3 hour endpoint, which sends the city last.
+     */
+    static String createHourlyForecastJson(int numSteps, long firstTime) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"cod\":\"200\",\"message\":0.0036,\"cnt\":").append(numSteps)
+                .append(",\"list\":[");
+        for (int i = 0; i < numSteps; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"dt\":").append(firstTime + i * 3 * 3600L)
+                    .append(",\"main\":{\"temp\":").append(10.25 + i * 0.5)
+                    .append(",\"temp_min\":9.8,\"temp_max\":11.2,\"pressure\":").append(1012.34 + i)
+                    .append(",\"sea_level\":1020.1,\"humidity\":").append(60 + (i % 30))
+                    .append("},\"weather\":[{\"id\":").append(500 + (i % 4))
+                    .append(",\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}],")
+                    .append("\"clouds\":{\"all\":75},\"wind\":{\"speed\":").append(2.15 + i * 0.1)
+                    .append(",\"deg\":").append(200.6 + i)
+                    .append("},\"dt_txt\":\"2014-12-21 00:00:00\"}");
+        }
+        sb.append("],\"city\":{\"id\":5375480,\"name\":\"Mountain View\",")
+                .append("\"coord\":{\"lat\":37.386051,\"lon\":-122.083847},\"country\":\"US\"}}");
+        return sb.toString();
+    }
+
+    private static InputStream toStream(String json) {
+        return new ByteArrayInputStream(json.getBytes());
+    }
+
+    /*
+        What SunshineSyncAdapter used to do: read the body line by line into a StringBuffer,
+        then build the whole JSONObject tree.  Returns a checksum of the fields we keep.
+     */
+    private static double parseWithJsonObject(InputStream in) throws IOException, JSONException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        StringBuffer buffer = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line + "\n");
+        }
+        JSONObject forecastJson = new JSONObject(buffer.toString());
+        JSONObject cityJson = forecastJson.getJSONObject("city");
+        double checksum = cityJson.getJSONObject("coord").getDouble("lat")
+                + cityJson.getString("name").length();
+        JSONArray weatherArray = forecastJson.getJSONArray("list");
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject weatherObject = dayForecast.getJSONArray("weather").getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject("temp");
+            checksum += dayForecast.getDouble("pressure") + dayForecast.getInt("humidity")
+                    + dayForecast.getDouble("speed") + dayForecast.getDouble("deg")
+                    + temperatureObject.getDouble("max") + temperatureObject.getDouble("min")
+                    + weatherObject.getString("main").length() + weatherObject.getInt("id");
+        }
+        return checksum;
+    }
+
+    private static double parseWithStream(InputStream in) throws IOException, JSONException {
+        final double[] checksum = new double[1];
+        int code = new ForecastParser().parse(in, new ForecastParser.Handler() {
+            @Override
+            public void onCity(long cityId, String cityName, double lat, double lon) {
+                assertEquals(5375480L, cityId);
+                checksum[0] += lat + cityName.length();
+            }
+
+            @Override
+            public void onDay(ForecastParser.Day day) {
+                checksum[0] += day.pressure + day.humidity + day.windSpeed + day.windDirection
+                        + day.high + day.low + day.description.length() + day.weatherId;
+            }
+        });
+        assertEquals(HttpURLConnection.HTTP_OK, code);
+        return checksum[0];
+    }
+
+    public void testStreamMatchesJsonObject() throws Throwable {
+        String json = createForecastJson(14);
+        assertEquals("Error: streaming parser disagrees with the JSONObject parser",
+                parseWithJsonObject(toStream(json)), parseWithStream(toStream(json)), 0.0001);
+    }
+
+    public void testHourlyParser() throws Throwable {
+        final long firstTime = 1419120000L;
+        final int[] steps = new int[1];
+        int code = new HourlyForecastParser().parse(toStream(createHourlyForecastJson(40, firstTime)),
+                new HourlyForecastParser.Handler() {
+                    @Override
+                    public void onHour(HourlyForecastParser.Hour hour) {
+                        int i = steps[0]++;
+                        assertEquals(firstTime + i * 3 * 3600L, hour.time);
+                        assertEquals(10.25 + i * 0.5, hour.temperature, 0.0001);
+                        assertEquals(1012.34 + i, hour.pressure, 0.0001);
+                        assertEquals(60 + (i % 30), hour.humidity);
+                        assertEquals(500 + (i % 4), hour.weatherId);
+                        assertEquals(2.15 + i * 0.1, hour.windSpeed, 0.0001);
+                        assertEquals(200.6 + i, hour.windDirection, 0.0001);
+                    }
+                });
+        assertEquals(HttpURLConnection.HTTP_OK, code);
+        assertEquals(40, steps[0]);
+    }
+
+    public void testErrorCodeStopsParsing() throws Throwable {
+        int code = new ForecastParser().parse(
+                toStream("{\"cod\":\"404\",\"message\":\"Error: Not found city\"}"),
+                new ForecastParser.Handler() {
+                    @Override
+                    public void onCity(long cityId, String cityName, double lat, double lon) {
+                        fail("Error: no city expected in an error response");
+                    }
+
+                    @Override
+                    public void onDay(ForecastParser.Day day) {
+                        fail("Error: no days expected in an error response");
+                    }
+                });
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, code);
+    }
+
+    public void testMalformedResponseIsJsonException() throws Throwable {
+        try {
+            parseWithStream(toStream("{\"city\":{\"name\":\"Mountain View\"},\"list\":[{]}"));
+            fail("Error: malformed forecast should not parse");
+        } catch (JSONException expected) {
+        }
+    }
+
+    public void testEmptyResponseIsIOException() throws Throwable {
+        try {
+            parseWithStream(toStream(""));
+            fail("Error: empty forecast should not parse");
+        } catch (JSONException e) {
+            fail("Error: empty forecast should look like a network failure, not a bad server");
+        } catch (IOException expected) {
+        }
+    }
+
+    /*
+        Not a pass/fail test.  Logs allocation count, allocated bytes and time per parse for the
+        old and new paths, for the normal 14 day request and for a much larger payload.
+     */
+    @SuppressWarnings("deprecation")
+    public void testBenchmarkParsers() throws Throwable {
+        for (int numDays : new int[] {14, 500}) {
+            byte[] json = createForecastJson(numDays).getBytes();
+
+            for (int pass = 0; pass < 2; pass++) {
+                boolean streaming = (pass == 1);
+                // warm up
+                for (int i = 0; i < 5; i++) {
+                    runParser(streaming, json);
+                }
+
+                Debug.resetThreadAllocCount();
+                Debug.resetThreadAllocSize();
+                Debug.startAllocCounting();
+                long start = System.nanoTime();
+                for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                    runParser(streaming, json);
+                }
+                long elapsed = System.nanoTime() - start;
+                Debug.stopAllocCounting();
+
+                Log.i(LOG_TAG, (streaming ? "JsonReader" : "JSONObject") + " " + numDays + " days: "
+                        + (elapsed / BENCHMARK_ITERATIONS / 1000) + "us, "
+                        + (Debug.getThreadAllocCount() / BENCHMARK_ITERATIONS) + " allocs, "
+                        + (Debug.getThreadAllocSize() / BENCHMARK_ITERATIONS) + " bytes per parse");
+            }
+        }
+    }
+
+    private static double runParser(boolean streaming, byte[] json)
+            throws IOException, JSONException {
+        InputStream in = new ByteArrayInputStream(json);
+        return streaming ? parseWithStream(in) : parseWithJsonObject(in);
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.net.HttpURLConnection;
+
+/*
+    Races two local stand-in servers with injected delays against each other through a
+    HedgedWeatherSource.  Each server answers with its own city id, so we can tell whose
+    forecast won.
+ */
+public class TestHedgedWeatherSource extends AndroidTestCase {
+
+    static final String TEST_LOCATION = "99705";
+    static final long PRIMARY_CITY_ID = 1L;
+    static final long MIRROR_CITY_ID = 2L;
+    static final long HEDGE_DELAY_MILLIS = 200;
+    static final long SLOW_MILLIS = 3000;
+
+    private LocalHttpServer mPrimary;
+    private LocalHttpServer mMirror;
+    private volatile long mPrimaryDelay;
+    private volatile int mPrimaryCode = HttpURLConnection.HTTP_OK;
+    private HedgedWeatherSource mSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrimary = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                if (mPrimaryCode != HttpURLConnection.HTTP_OK) {
+                    return new LocalHttpServer.Response(mPrimaryCode);
+                }
+                return new LocalHttpServer.Response(HttpURLConnection.HTTP_OK)
+                        .header("Content-Type", "application/json")
+                        .body(TestForecastParser.createForecastJson(14, PRIMARY_CITY_ID))
+                        .delay(mPrimaryDelay);
+            }
+        });
+        mMirror = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                return new LocalHttpServer.Response(HttpURLConnection.HTTP_OK)
+                        .header("Content-Type", "application/json")
+                        .body(TestForecastParser.createForecastJson(14, MIRROR_CITY_ID));
+            }
+        });
+        mSource = new HedgedWeatherSource(
+                new OpenWeatherMapSource(mPrimary.getUrl("/data/2.5/forecast/daily?")),
+                new OpenWeatherMapSource(mMirror.getUrl("/data/2.5/forecast/daily?")),
+                HEDGE_DELAY_MILLIS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrimary.shutdown();
+        mMirror.shutdown();
+        super.tearDown();
+    }
+
+    private long fetchCityId() throws Exception {
+        WeatherSource.Response response = mSource.fetchForecast(TEST_LOCATION, -1, new String[2]);
+        final long[] cityId = {-1};
+        try {
+            mSource.parseForecast(response, new ForecastParser.Handler() {
+                @Override
+                public void onCity(long id, String cityName, double lat, double lon) {
+                    cityId[0] = id;
+                }
+
+                @Override
+                public void onDay(ForecastParser.Day day) {
+                }
+            });
+        } finally {
+            response.close();
+        }
+        return cityId[0];
+    }
+
+    public void testFastPrimaryIsNotHedged() throws Exception {
+        assertEquals(PRIMARY_CITY_ID, fetchCityId());
+        assertEquals(1, mPrimary.getRequests().size());
+        assertEquals("Error: the mirror shouldn't be asked when the primary is quick",
+                0, mMirror.getRequests().size());
+    }
+
+    public void testSlowPrimaryIsHedged() throws Exception {
+        mPrimaryDelay = SLOW_MILLIS;
+        long start = SystemClock.elapsedRealtime();
+        assertEquals(MIRROR_CITY_ID, fetchCityId());
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        assertTrue("Error: the hedge took " + elapsed + "ms", elapsed < SLOW_MILLIS);
+        assertTrue(elapsed >= HEDGE_DELAY_MILLIS);
+        assertEquals(1, mMirror.getRequests().size());
+    }
+
+    public void testFailingPrimaryIsHedgedRightAway() throws Exception {
+        mPrimaryCode = HttpURLConnection.HTTP_UNAVAILABLE;
+        assertEquals(MIRROR_CITY_ID, fetchCityId());
+        assertEquals(1, mMirror.getRequests().size());
+    }
+
+    public void testBudgetFollowsPrimaryLatency() throws Exception {
+        assertEquals(HEDGE_DELAY_MILLIS, mSource.getHedgeDelayMillis());
+        for (int i = 0; i < HedgedWeatherSource.MIN_LATENCY_SAMPLES; i++) {
+            fetchCityId();
+        }
+        // A local server answers well under the default, but never below the floor.
+        long budget = mSource.getHedgeDelayMillis();
+        assertTrue(budget < HEDGE_DELAY_MILLIS);
+        assertTrue(budget >= HedgedWeatherSource.MIN_HEDGE_DELAY_MILLIS);
+    }
+}
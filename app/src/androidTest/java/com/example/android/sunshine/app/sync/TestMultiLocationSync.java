@@ -0,0 +1,115 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+
+/*
+    Times an all-locations sync of 1, 4 and 16 saved locations against the replay source, with
+    a fixed latency on every request, and logs the wall time under the "MultiLocationBenchmark"
+    tag next to what fetching the same locations one after the other would cost.  Pass/fail on
+    every location ending up with its forecast, and on the biggest run beating a serial fetch.
+ */
+public class TestMultiLocationSync extends SyncTestCase {
+
+    static final int[] BENCHMARK_LOCATIONS = {1, 4, 16};
+    static final int DAYS = 14;
+    static final long LATENCY_MILLIS = 200;
+    static final long FIRST_CITY_ID = 1000;
+
+    private File mRecordings;
+    private ReplayWeatherSource mSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRecordings = new File(mContext.getCacheDir(), "replay");
+        mSource = new ReplayWeatherSource(mRecordings);
+        int maxLocations = BENCHMARK_LOCATIONS[BENCHMARK_LOCATIONS.length - 1];
+        for (int i = 0; i < maxLocations; i++) {
+            mSource.addRecording(locationSetting(i),
+                    TestForecastParser.createForecastJson(DAYS, FIRST_CITY_ID + i).getBytes());
+        }
+        mSource.setLatency(LATENCY_MILLIS);
+        // Every run has to download, parse and write everything.
+        mSource.setHonorValidators(false);
+        SunshineSyncAdapter.sWeatherSource = mSource;
+        setPreferredLocation(locationSetting(0));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : mRecordings.listFiles()) {
+            file.delete();
+        }
+        deleteForecasts();
+        super.tearDown();
+    }
+
+    private static String locationSetting(int i) {
+        return Integer.toString(90000 + i);
+    }
+
+    // The preferred location, 0, is left for the sync to add, like a freshly picked one.
+    private void saveLocations(int locations) {
+        deleteForecasts();
+        for (int i = 1; i < locations; i++) {
+            ContentValues values = new ContentValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting(i));
+            values.put(LocationEntry.COLUMN_CITY_NAME, "City " + i);
+            values.put(LocationEntry.COLUMN_COORD_LAT, 37.386051);
+            values.put(LocationEntry.COLUMN_COORD_LONG, -122.083847);
+            mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, values);
+        }
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testBenchmarkAllLocationsSync() {
+        StringBuilder results = new StringBuilder();
+        long lastMillis = 0;
+        for (int locations : BENCHMARK_LOCATIONS) {
+            saveLocations(locations);
+            new SyncBackoff(mContext).onSuccess();
+            Bundle extras = new Bundle();
+            extras.putBoolean(SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS, true);
+
+            long start = System.nanoTime();
+            SyncResult syncResult = performSync(extras);
+            lastMillis = (System.nanoTime() - start) / 1000000;
+
+            assertFalse("Error: the sync of " + locations + " locations failed",
+                    syncResult.hasError());
+            assertEquals("Error: every location should have been synced",
+                    locations, countRows(LocationEntry.CONTENT_URI));
+            assertEquals("Error: every location should have its whole forecast",
+                    locations * DAYS, countRows(WeatherEntry.CONTENT_URI));
+
+            results.append(results.length() == 0 ? "" : "; ").append(locations)
+                    .append(" locations ").append(lastMillis)
+                    .append("ms (serial fetches alone ").append(locations * LATENCY_MILLIS)
+                    .append("ms)");
+        }
+        Log.i("MultiLocationBenchmark", LATENCY_MILLIS + "ms latency: " + results);
+
+        int locations = BENCHMARK_LOCATIONS[BENCHMARK_LOCATIONS.length - 1];
+        assertTrue("Error: " + locations + " locations took " + lastMillis
+                        + "ms, no faster than fetching them one by one",
+                lastMillis < locations * LATENCY_MILLIS);
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+import java.io.File;
+import java.net.HttpURLConnection;
+
+/*
+    Checks that the replay source serves its recordings like a server would, and uses it to
+    benchmark the whole sync pipeline offline.  The benchmark logs its numbers under the
+    "SyncBenchmark" tag.
+ */
+public class TestReplayWeatherSource extends SyncTestCase {
+
+    static final String TEST_LOCATION = "99705";
+    static final int BENCHMARK_SYNCS = 20;
+
+    private File mRecordings;
+    private ReplayWeatherSource mSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRecordings = new File(mContext.getCacheDir(), "replay");
+        mSource = new ReplayWeatherSource(mRecordings);
+        mSource.addRecording(TEST_LOCATION, TestForecastParser.createForecastJson(14).getBytes());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : mRecordings.listFiles()) {
+            file.delete();
+        }
+        super.tearDown();
+    }
+
+    private int countDays(WeatherSource.Response response) throws Exception {
+        final int[] days = new int[1];
+        int code = mSource.parseForecast(response, new ForecastParser.Handler() {
+            @Override
+            public void onCity(long cityId, String cityName, double lat, double lon) {
+            }
+
+            @Override
+            public void onDay(ForecastParser.Day day) {
+                days[0]++;
+            }
+        });
+        return code == HttpURLConnection.HTTP_OK ? days[0] : -code;
+    }
+
+    public void testReplayServesRecordings() throws Exception {
+        WeatherSource.Response response =
+                mSource.fetchForecast(TEST_LOCATION, -1, new String[2]);
+        assertEquals(HttpURLConnection.HTTP_OK, response.getCode());
+        assertEquals(14, countDays(response));
+        response.close();
+        assertTrue(response.getBytesOnWire() > 0);
+        String etag = response.getHeader("ETag");
+        assertNotNull(etag);
+
+        response = mSource.fetchForecast(TEST_LOCATION, -1, new String[]{etag, null});
+        assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, response.getCode());
+        response.close();
+
+        mSource.setHonorValidators(false);
+        response = mSource.fetchForecast(TEST_LOCATION, -1, new String[]{etag, null});
+        assertEquals(HttpURLConnection.HTTP_OK, response.getCode());
+        response.close();
+
+        response = mSource.fetchForecast("nowhere", -1, new String[2]);
+        assertEquals("Error: a location without a recording should be an unknown city",
+                -HttpURLConnection.HTTP_NOT_FOUND, countDays(response));
+        response.close();
+    }
+
+    public void testLatencyAndBandwidthAreApplied() throws Exception {
+        mSource.setLatency(200);
+        mSource.setBandwidth(8 * 1024);
+        WeatherSource.Response response =
+                mSource.fetchForecast(TEST_LOCATION, -1, new String[2]);
+        assertTrue(response.getTimeToFirstByteMillis() >= 200);
+        countDays(response);
+        response.close();
+        long expectedMillis = response.getBytesOnWire() * 1000 / (8 * 1024);
+        assertTrue("Error: the body came in faster than the bandwidth allows",
+                response.getBodyReadMillis() >= expectedMillis - 50);
+    }
+
+    /*
+        Runs the full sync, download, parse and write, BENCHMARK_SYNCS times against the
+        recording with a fixed latency, and checks the metrics table saw every one of them.
+     */
+    public void testSyncPipelineBenchmark() throws Exception {
+        mContext.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI, null, null);
+        setPreferredLocation(TEST_LOCATION);
+
+        mSource.setLatency(50);
+        mSource.setHonorValidators(false);
+        SunshineSyncAdapter.sWeatherSource = mSource;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_SYNCS; i++) {
+            assertFalse("Error: replayed sync " + i + " failed",
+                    performSync(new Bundle()).hasError());
+        }
+        long totalMillis = (System.nanoTime() - start) / 1000000;
+
+        Cursor summary = mContext.getContentResolver().query(
+                SyncMetricsEntry.buildSummaryUri(), null, null, null, null);
+        assertTrue(summary.moveToFirst());
+        assertEquals(BENCHMARK_SYNCS,
+                summary.getInt(summary.getColumnIndex(SyncMetricsEntry.COLUMN_COUNT)));
+        Log.i("SyncBenchmark", BENCHMARK_SYNCS + " syncs in " + totalMillis + "ms, "
+                + (BENCHMARK_SYNCS * 1000L / Math.max(1, totalMillis)) + " syncs/s, p50="
+                + summary.getLong(summary.getColumnIndex(SyncMetricsEntry.COLUMN_P50_TOTAL_MS))
+                + "ms p95="
+                + summary.getLong(summary.getColumnIndex(SyncMetricsEntry.COLUMN_P95_TOTAL_MS))
+                + "ms");
+        summary.close();
+    }
+}
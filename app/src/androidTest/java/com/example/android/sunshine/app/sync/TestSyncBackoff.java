@@ -0,0 +1,146 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.SyncResult;
+import android.net.Uri;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.net.HttpURLConnection;
+import java.util.Random;
+
+/*
+    Checks the backoff schedule and circuit breaker on their own, and that a failing sync reports
+    itself to the sync framework and then stays off the network.
+ */
+public class TestSyncBackoff extends SyncTestCase {
+
+    static final String TEST_LOCATION = "99705";
+    static final String OTHER_LOCATION = "94043";
+    static final long OTHER_CITY_ID = 5375480L + 1;
+
+    private LocalHttpServer mServer;
+    private int mResponseCode = HttpURLConnection.HTTP_INTERNAL_ERROR;
+    // Only the other location's requests fail.
+    private volatile boolean mOtherLocationFails;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        setPreferredLocation(TEST_LOCATION);
+        // Start out as if the location had been validated before, so it isn't let through as
+        // a fresh one.
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putInt(mContext.getString(R.string.pref_location_status_key),
+                        SunshineSyncAdapter.LOCATION_STATUS_OK).commit();
+
+        mServer = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                if (mResponseCode != HttpURLConnection.HTTP_OK) {
+                    return new LocalHttpServer.Response(mResponseCode);
+                }
+                Uri uri = Uri.parse("http://localhost" + request.path);
+                boolean other = OTHER_LOCATION.equals(uri.getQueryParameter("q"))
+                        || Long.toString(OTHER_CITY_ID).equals(uri.getQueryParameter("id"));
+                if (other && mOtherLocationFails) {
+                    return new LocalHttpServer.Response(HttpURLConnection.HTTP_INTERNAL_ERROR);
+                }
+                return new LocalHttpServer.Response(HttpURLConnection.HTTP_OK)
+                        .header("Content-Type", "application/json")
+                        .body(other ? TestForecastParser.createForecastJson(14, OTHER_CITY_ID)
+                                : TestForecastParser.createForecastJson(14));
+            }
+        });
+        useServer(mServer);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        // Don't leave the next test, or the app, backed off.
+        new SyncBackoff(mContext).onSuccess();
+        super.tearDown();
+    }
+
+    public void testBackoffGrowsAndOpensCircuit() {
+        SyncBackoff backoff = new SyncBackoff(mContext, new Random(42));
+        long previousMax = 0;
+        for (int failure = 1; failure < SyncBackoff.CIRCUIT_BREAKER_THRESHOLD; failure++) {
+            long now = System.currentTimeMillis();
+            long wait = backoff.onFailure() - now;
+            long delay = SyncBackoff.BASE_BACKOFF_MILLIS << (failure - 1);
+            assertTrue("Error: backoff " + wait + "ms after " + failure + " failures is off",
+                    wait >= delay / 2 && wait <= delay + 1000);
+            assertTrue(delay > previousMax);
+            previousMax = delay;
+            assertFalse(backoff.canSyncNow(false));
+            assertTrue("Error: a new location should get through a plain backoff",
+                    backoff.canSyncNow(true));
+            assertFalse(backoff.isCircuitOpen());
+        }
+
+        long now = System.currentTimeMillis();
+        long wait = backoff.onFailure() - now;
+        assertTrue(wait >= SyncBackoff.CIRCUIT_OPEN_MILLIS / 2);
+        assertTrue(backoff.isCircuitOpen());
+        assertFalse("Error: nothing should get through an open circuit", backoff.canSyncNow(true));
+
+        backoff.onSuccess();
+        assertEquals(0, backoff.getFailureCount());
+        assertTrue(backoff.canSyncNow(false));
+    }
+
+    public void testFailingSyncReportsAndBacksOff() {
+        SyncResult result = performSync(new Bundle());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN,
+                Utility.getLocationStatus(mContext));
+        assertEquals(1, result.stats.numIoExceptions);
+        assertTrue("Error: a failed sync should be a soft error", result.hasSoftError());
+        assertTrue("Error: the framework wasn't told to hold off",
+                result.delayUntil * 1000 > System.currentTimeMillis());
+        assertEquals(1, mServer.getRequests().size());
+
+        // Another sync right away, manual or not, stays off the network.
+        Bundle manual = new Bundle();
+        manual.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        result = performSync(manual);
+        assertEquals(1, mServer.getRequests().size());
+        assertTrue(result.delayUntil * 1000 > System.currentTimeMillis());
+
+        // Unless the backoff is explicitly overridden, and then success resets it.
+        mResponseCode = HttpURLConnection.HTTP_OK;
+        Bundle ignoreBackoff = new Bundle();
+        ignoreBackoff.putBoolean(ContentResolver.SYNC_EXTRAS_IGNORE_BACKOFF, true);
+        result = performSync(ignoreBackoff);
+        assertEquals(2, mServer.getRequests().size());
+        assertFalse(result.hasError());
+        assertEquals(14, result.stats.numInserts);
+        assertEquals(0, new SyncBackoff(mContext).getFailureCount());
+    }
+
+    public void testFailingOtherLocationBacksOff() {
+        // Get both locations into the database.
+        mResponseCode = HttpURLConnection.HTTP_OK;
+        setPreferredLocation(OTHER_LOCATION);
+        assertFalse(performSync(new Bundle()).hasError());
+        setPreferredLocation(TEST_LOCATION);
+        assertFalse(performSync(new Bundle()).hasError());
+
+        // The preferred location still syncs fine, so the stored status says OK, but the
+        // server failed this sync all the same.
+        mOtherLocationFails = true;
+        Bundle extras = new Bundle();
+        extras.putBoolean(SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS, true);
+        SyncResult result = performSync(extras);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, Utility.getLocationStatus(mContext));
+        assertEquals(1, result.stats.numIoExceptions);
+        assertTrue("Error: the framework wasn't told to hold off",
+                result.delayUntil * 1000 > System.currentTimeMillis());
+        assertEquals(1, new SyncBackoff(mContext).getFailureCount());
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.IOException;
+
+/*
+    Checks that a sync stops when it is cancelled or runs out of time, and that it leaves
+    nothing behind when it does.  The forecast is served slowly from a recording, so the sync is
+    guaranteed to be in the middle of it when it's stopped.
+ */
+public class TestSyncCancellation extends SyncTestCase {
+
+    static final String TEST_LOCATION = "99705";
+    // Slow enough that the forecast takes a few seconds to arrive.
+    static final long BYTES_PER_SECOND = 1024;
+    static final long CANCEL_AFTER_MILLIS = 500;
+
+    private File mRecordings;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        setPreferredLocation(TEST_LOCATION);
+
+        mRecordings = new File(mContext.getCacheDir(), "replay");
+        ReplayWeatherSource source = new ReplayWeatherSource(mRecordings);
+        source.addRecording(TEST_LOCATION, TestForecastParser.createForecastJson(14).getBytes());
+        source.setBandwidth(BYTES_PER_SECOND);
+        SunshineSyncAdapter.sWeatherSource = source;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File file : mRecordings.listFiles()) {
+            file.delete();
+        }
+        super.tearDown();
+    }
+
+    private int countRows(Uri uri) {
+        Cursor cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testCancelledSyncRollsBack() throws Exception {
+        final SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false);
+        final SyncResult syncResult = new SyncResult();
+        Thread syncThread = new Thread("TestSync") {
+            @Override
+            public void run() {
+                adapter.onPerformSync(null, new Bundle(), WeatherContract.CONTENT_AUTHORITY,
+                        mProviderClient, syncResult);
+            }
+        };
+
+        long start = SystemClock.elapsedRealtime();
+        syncThread.start();
+        Thread.sleep(CANCEL_AFTER_MILLIS);
+        adapter.onSyncCanceled();
+        syncThread.join(5000);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        assertFalse("Error: the sync didn't stop", syncThread.isAlive());
+        assertTrue("Error: the sync took " + elapsed + "ms to notice it was cancelled",
+                elapsed < 2000);
+        assertEquals("Error: a cancelled sync left forecast rows behind",
+                0, countRows(WeatherEntry.CONTENT_URI));
+        assertEquals("Error: a cancelled sync left a location behind",
+                0, countRows(LocationEntry.CONTENT_URI));
+        assertFalse("Error: a cancelled sync isn't an error", syncResult.hasError());
+    }
+
+    public void testDeadlineExpires() throws Exception {
+        SyncDeadline deadline = new SyncDeadline(100);
+        deadline.check("starting");
+        Thread.sleep(150);
+        assertTrue(deadline.isExpired());
+        assertFalse(deadline.isCancelled());
+        try {
+            deadline.check("fetching");
+            fail("Error: an expired deadline should stop the sync");
+        } catch (SyncDeadline.CancelledException expected) {
+        } finally {
+            deadline.finish();
+        }
+    }
+
+    public void testRegisteredResponseIsAbortedOnCancel() throws Exception {
+        SyncDeadline deadline = new SyncDeadline(SyncDeadline.SYNC_TIMEOUT_MILLIS);
+        WeatherSource.Response response = SunshineSyncAdapter.sWeatherSource
+                .fetchForecast(TEST_LOCATION, -1, new String[2]);
+        deadline.register(response);
+        response.getBody().read();
+        deadline.cancel();
+        try {
+            response.getBody().read(new byte[64], 0, 64);
+            fail("Error: reading an aborted response should fail");
+        } catch (IOException expected) {
+        } finally {
+            deadline.finish();
+        }
+    }
+}
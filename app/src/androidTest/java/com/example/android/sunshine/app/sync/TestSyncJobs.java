@@ -0,0 +1,141 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.Context;
+import android.content.SyncResult;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.PersistableBundle;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.net.HttpURLConnection;
+
+/*
+    Checks the constraints the sync jobs are scheduled with, and that a job runs the same sync
+    pipeline as the sync adapter.  Nothing to check before Lollipop, where there are no jobs.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class TestSyncJobs extends SyncTestCase {
+
+    static final String TEST_LOCATION = "99705";
+
+    private JobScheduler mScheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        if (!SyncJobs.isAvailable()) {
+            return;
+        }
+        mScheduler = (JobScheduler) mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (SyncJobs.isAvailable()) {
+            mScheduler.cancel(SyncJobs.JOB_ID_IMMEDIATE);
+            mScheduler.cancel(SyncJobs.JOB_ID_ALL_LOCATIONS);
+            // Put the app's own periodic sync back the way it was.
+            int interval = SyncScheduler.getSyncInterval(mContext);
+            SyncJobs.schedulePeriodic(mContext, interval);
+        }
+        super.tearDown();
+    }
+
+    private JobInfo getPendingJob(int jobId) {
+        for (JobInfo job : mScheduler.getAllPendingJobs()) {
+            if (job.getId() == jobId) {
+                return job;
+            }
+        }
+        return null;
+    }
+
+    public void testPeriodicJobNeedsNetwork() {
+        if (!SyncJobs.isAvailable()) {
+            return;
+        }
+        SyncJobs.schedulePeriodic(mContext, SunshineSyncAdapter.SYNC_INTERVAL);
+        assertTrue(SyncJobs.isPeriodicScheduled(mContext));
+        JobInfo job = getPendingJob(SyncJobs.JOB_ID_PERIODIC);
+        assertTrue(job.isPeriodic());
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL * 1000L, job.getIntervalMillis());
+        assertEquals(JobInfo.NETWORK_TYPE_ANY, job.getNetworkType());
+        assertFalse(job.isRequireCharging());
+        assertTrue(job.isPersisted());
+        assertFalse("Error: the 3-hour forecast mustn't be fetched on a metered network",
+                SyncJobs.toSyncExtras(job.getExtras())
+                        .getBoolean(SunshineSyncAdapter.SYNC_EXTRAS_HOURLY));
+    }
+
+    public void testHourlyJobWaitsForChargingOnWifi() {
+        if (!SyncJobs.isAvailable()) {
+            return;
+        }
+        SyncJobs.schedulePeriodic(mContext, SunshineSyncAdapter.SYNC_INTERVAL);
+        JobInfo job = getPendingJob(SyncJobs.JOB_ID_HOURLY);
+        assertNotNull("Error: the hourly job wasn't scheduled", job);
+        assertTrue(job.isPeriodic());
+        assertEquals(SunshineSyncAdapter.SYNC_INTERVAL * 1000L, job.getIntervalMillis());
+        assertEquals(JobInfo.NETWORK_TYPE_UNMETERED, job.getNetworkType());
+        assertTrue(job.isRequireCharging());
+        assertTrue(job.isPersisted());
+        assertTrue(SyncJobs.toSyncExtras(job.getExtras())
+                .getBoolean(SunshineSyncAdapter.SYNC_EXTRAS_HOURLY));
+    }
+
+    public void testAllLocationsWaitForChargingOnWifi() {
+        if (!SyncJobs.isAvailable()) {
+            return;
+        }
+        SyncJobs.syncAllLocations(mContext);
+        JobInfo job = getPendingJob(SyncJobs.JOB_ID_ALL_LOCATIONS);
+        assertNotNull("Error: the all-locations job wasn't scheduled", job);
+        assertEquals(JobInfo.NETWORK_TYPE_UNMETERED, job.getNetworkType());
+        assertTrue(job.isRequireCharging());
+        assertTrue(SyncJobs.toSyncExtras(job.getExtras())
+                .getBoolean(SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS));
+    }
+
+    public void testJobExtrasBecomeSyncExtras() {
+        if (!SyncJobs.isAvailable()) {
+            return;
+        }
+        PersistableBundle jobExtras = new PersistableBundle();
+        jobExtras.putLong(SyncJobs.EXTRA_MAX_AGE, SyncCoordinator.FRESHNESS_WINDOW_MILLIS);
+        Bundle extras = SyncJobs.toSyncExtras(jobExtras);
+        assertEquals(SyncCoordinator.FRESHNESS_WINDOW_MILLIS,
+                extras.getLong(SunshineSyncAdapter.SYNC_EXTRAS_MAX_AGE));
+        assertFalse(extras.getBoolean(SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS));
+        assertEquals(0, SyncJobs.toSyncExtras(null).getLong(SunshineSyncAdapter.SYNC_EXTRAS_MAX_AGE));
+    }
+
+    public void testJobRunsTheSyncPipeline() throws Exception {
+        if (!SyncJobs.isAvailable()) {
+            return;
+        }
+        setPreferredLocation(TEST_LOCATION);
+
+        LocalHttpServer server = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                return new LocalHttpServer.Response(HttpURLConnection.HTTP_OK)
+                        .header("Content-Type", "application/json")
+                        .body(TestForecastParser.createForecastJson(14));
+            }
+        });
+        useServer(server);
+        try {
+            SyncResult result = SyncJobs.runSync(mContext,
+                    new SunshineSyncAdapter(mContext, false), new PersistableBundle());
+            assertFalse(result.hasError());
+            assertEquals(14, result.stats.numInserts);
+            assertEquals(1, server.getRequests().size());
+        } finally {
+            server.shutdown();
+        }
+    }
+}
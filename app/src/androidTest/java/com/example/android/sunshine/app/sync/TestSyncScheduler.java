@@ -0,0 +1,66 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+/*
+    Checks how the adaptive scheduler weighs its inputs, and that it reads the change ratio out
+    of the sync metrics.
+ */
+public class TestSyncScheduler extends AndroidTestCase {
+
+    static final int NOON = 12;
+    static final int THREE_AM = 3;
+
+    public void testVolatileWeatherSyncsMoreOften() {
+        int volatileInterval = SyncScheduler.computeSyncInterval(0.5, NOON, true, false);
+        int normalInterval = SyncScheduler.computeSyncInterval(0.2, NOON, true, false);
+        int calmInterval = SyncScheduler.computeSyncInterval(0.0, NOON, true, false);
+        assertTrue(volatileInterval < normalInterval);
+        assertTrue(normalInterval < calmInterval);
+        assertEquals("Error: without any history we should sync as we always did",
+                SunshineSyncAdapter.SYNC_INTERVAL,
+                SyncScheduler.computeSyncInterval(-1, NOON, true, false));
+    }
+
+    public void testNightsAndNobodyWatchingSyncLess() {
+        int day = SyncScheduler.computeSyncInterval(0.2, NOON, true, false);
+        assertTrue(SyncScheduler.computeSyncInterval(0.2, THREE_AM, true, false) > day);
+        assertTrue(SyncScheduler.computeSyncInterval(0.2, NOON, false, false) > day);
+        assertTrue("Error: charging on wifi should make syncs cheaper, so more frequent",
+                SyncScheduler.computeSyncInterval(0.2, NOON, true, true) < day);
+    }
+
+    public void testIntervalIsBounded() {
+        assertEquals(SyncScheduler.MAX_SYNC_INTERVAL,
+                SyncScheduler.computeSyncInterval(0.0, THREE_AM, false, false));
+        assertEquals(SyncScheduler.MIN_SYNC_INTERVAL,
+                SyncScheduler.computeSyncInterval(1.0, NOON, true, true));
+    }
+
+    public void testChangeRatioComesFromRecentSyncs() {
+        mContext.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI, null, null);
+        assertEquals(-1.0, SyncScheduler.queryChangeRatio(mContext));
+
+        // An old volatile stretch, then RECENT_SYNCS syncs that changed one day in fourteen.
+        for (int i = 0; i < 10; i++) {
+            insertSyncMetrics(14, 14);
+        }
+        for (int i = 0; i < SyncScheduler.RECENT_SYNCS; i++) {
+            insertSyncMetrics(14, 1);
+            // A 304 in between doesn't count.
+            insertSyncMetrics(0, 0);
+        }
+        assertEquals(1.0 / 14, SyncScheduler.queryChangeRatio(mContext), 1e-9);
+    }
+
+    private void insertSyncMetrics(int received, int written) {
+        ContentValues values = new ContentValues();
+        values.put(SyncMetricsEntry.COLUMN_START_TIME, System.currentTimeMillis());
+        values.put(SyncMetricsEntry.COLUMN_ROWS_RECEIVED, received);
+        values.put(SyncMetricsEntry.COLUMN_ROWS_WRITTEN, written);
+        mContext.getContentResolver().insert(SyncMetricsEntry.CONTENT_URI, values);
+    }
+}
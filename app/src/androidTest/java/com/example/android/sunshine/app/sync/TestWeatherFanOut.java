@@ -0,0 +1,194 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks the snapshot the fan-out hands to consumers, that back-to-back requests are
+    collapsed into a single fan-out, and that a fan-out the process didn't live to run is
+    picked up again.
+ */
+public class TestWeatherFanOut extends AndroidTestCase {
+
+    static final String TEST_LOCATION = "99705";
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private String mSavedLocation;
+    private boolean mSavedNotifications;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        // Keep the test from posting a real notification.
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        String notificationsKey = mContext.getString(R.string.pref_enable_notifications_key);
+        mSavedLocation = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(locationKey, null);
+        mSavedNotifications = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getBoolean(notificationsKey, true);
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(locationKey, TEST_LOCATION)
+                .putBoolean(notificationsKey, false)
+                .commit();
+
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        locationValues.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        locationValues.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        long locationId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, locationValues));
+        // Never synced, as far as the snapshot file's check knows too.
+        WeatherSnapshotFile.setLastSync(mContext, TEST_LOCATION, 0);
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] days = new ContentValues[5];
+        // yesterday first, which the snapshot should leave out
+        for (int i = 0; i < days.length; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, today + (i - 1) * DAY_IN_MILLIS);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 20 + i);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 10 + i);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Day " + i);
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 800 + i);
+            days[i] = weatherValues;
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), mSavedLocation)
+                .putBoolean(mContext.getString(R.string.pref_enable_notifications_key),
+                        mSavedNotifications)
+                .commit();
+        super.tearDown();
+    }
+
+    public void testSnapshotStartsToday() {
+        WeatherSnapshot snapshot = WeatherSnapshot.query(mContext);
+        assertEquals(TEST_LOCATION, snapshot.getLocationSetting());
+        assertEquals("Error: snapshot should hold today and the days after it",
+                4, snapshot.getDayCount());
+
+        WeatherSnapshot.Day today = snapshot.getToday();
+        assertNotNull("Error: snapshot has no today", today);
+        assertEquals(WeatherContract.normalizeDate(System.currentTimeMillis()), today.date);
+        assertEquals(801, today.weatherId);
+        assertEquals("Day 1", today.shortDesc);
+        assertEquals(21.0, today.high);
+        assertEquals(11.0, today.low);
+        for (int i = 1; i < snapshot.getDayCount(); i++) {
+            assertTrue(snapshot.getDay(i).date > snapshot.getDay(i - 1).date);
+        }
+        assertTrue(snapshot.isCurrent(TEST_LOCATION, 60 * 1000));
+        assertFalse(snapshot.isCurrent("94043", 60 * 1000));
+    }
+
+    public void testBackToBackChangesCoalesce() {
+        WeatherFanOut fanOut = WeatherFanOut.getInstance(mContext);
+        // Let anything left over from another test run first.
+        SystemClock.sleep(WeatherFanOut.MAX_DEBOUNCE_MILLIS);
+        int before = fanOut.getFanOutCount();
+
+        for (int i = 0; i < 5; i++) {
+            fanOut.dataChanged();
+            SystemClock.sleep(100);
+        }
+        assertEquals("Error: fan-out should wait for the changes to settle",
+                before, fanOut.getFanOutCount());
+
+        SystemClock.sleep(WeatherFanOut.DEBOUNCE_MILLIS + 2000);
+        assertEquals("Error: back-to-back changes should produce one fan-out",
+                before + 1, fanOut.getFanOutCount());
+
+        WeatherSnapshot snapshot = WeatherFanOut.getCurrentSnapshot(mContext);
+        assertNotNull("Error: consumers should be able to reuse the fan-out's snapshot", snapshot);
+        assertEquals(4, snapshot.getDayCount());
+    }
+
+    public void testFanOutOfDeadProcessIsResumed() {
+        WeatherFanOut fanOut = WeatherFanOut.getInstance(mContext);
+        SystemClock.sleep(WeatherFanOut.MAX_DEBOUNCE_MILLIS);
+        String pendingKey = mContext.getString(R.string.pref_fan_out_pending_key);
+        assertFalse("Error: a fan-out that ran should clear its flag",
+                PreferenceManager.getDefaultSharedPreferences(mContext).getBoolean(pendingKey, false));
+        int before = fanOut.getFanOutCount();
+
+        // What a process killed between a sync and its fan-out leaves behind.
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putBoolean(pendingKey, true).commit();
+        fanOut.resumePendingFanOut();
+        SystemClock.sleep(WeatherFanOut.DEBOUNCE_MILLIS + 2000);
+        assertEquals("Error: the pending fan-out should have run", before + 1,
+                fanOut.getFanOutCount());
+        assertFalse(PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getBoolean(pendingKey, false));
+
+        // Nothing pending, nothing to do.
+        fanOut.resumePendingFanOut();
+        SystemClock.sleep(WeatherFanOut.DEBOUNCE_MILLIS + 2000);
+        assertEquals(before + 1, fanOut.getFanOutCount());
+    }
+
+    // What a sync does to the last sync time, on both sides of the snapshot file's check.
+    private long noteSync() {
+        long now = System.currentTimeMillis();
+        WeatherSnapshotFile.setLastSync(mContext, TEST_LOCATION, now);
+        ContentValues lastSync = new ContentValues();
+        lastSync.put(LocationEntry.COLUMN_LAST_SYNC, now);
+        mContext.getContentResolver().update(LocationEntry.CONTENT_URI, lastSync,
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", new String[]{TEST_LOCATION});
+        return now;
+    }
+
+    public void testSnapshotFileMustMatchLatestSync() {
+        assertTrue(WeatherSnapshotFile.write(mContext, WeatherSnapshot.query(mContext)));
+        try {
+            WeatherSnapshot snapshot = WeatherFanOut.readSnapshotFile(mContext, TEST_LOCATION);
+            assertNotNull("Error: a file as current as the database should be used", snapshot);
+            assertEquals(4, snapshot.getDayCount());
+
+            // A sync the fan-out never caught up with.
+            noteSync();
+            assertNull("Error: a file behind the latest sync should be ignored",
+                    WeatherFanOut.readSnapshotFile(mContext, TEST_LOCATION));
+        } finally {
+            WeatherSnapshotFile.getFile(mContext).delete();
+        }
+    }
+
+    public void testUnchangedSyncKeepsSnapshotFileCurrent() {
+        WeatherFanOut fanOut = WeatherFanOut.getInstance(mContext);
+        assertTrue(WeatherSnapshotFile.write(mContext, WeatherSnapshot.query(mContext)));
+        try {
+            // A sync that found nothing new still moves the sync time on.
+            long lastSync = noteSync();
+            fanOut.syncConfirmed();
+            SystemClock.sleep(2000);
+
+            WeatherSnapshot snapshot = WeatherFanOut.readSnapshotFile(mContext, TEST_LOCATION);
+            assertNotNull("Error: the file should have caught up with the sync", snapshot);
+            assertEquals(lastSync, snapshot.getLastSync());
+        } finally {
+            WeatherSnapshotFile.getFile(mContext).delete();
+        }
+    }
+}
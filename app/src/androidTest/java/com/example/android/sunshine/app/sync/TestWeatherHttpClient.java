@@ -0,0 +1,169 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.LocalHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Runs WeatherHttpClient against a local stand-in server: gzip bodies come back decoded but
+    are counted as they were on the wire, back-to-back requests share one connection, a server
+    that doesn't answer in time gives a SocketTimeoutException, and the time to first byte
+    covers a slow server's wait.
+ */
+public class TestWeatherHttpClient extends AndroidTestCase {
+
+    static final String TEST_BODY = createBody();
+    static final long SLOW_SERVER_MILLIS = 500;
+    static final int SHORT_READ_TIMEOUT_MILLIS = 200;
+
+    private LocalHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new LocalHttpServer(new LocalHttpServer.Dispatcher() {
+            @Override
+            public LocalHttpServer.Response dispatch(LocalHttpServer.Request request) {
+                LocalHttpServer.Response response =
+                        new LocalHttpServer.Response(HttpURLConnection.HTTP_OK);
+                if (request.path.startsWith("/gzip")) {
+                    response.header("Content-Encoding", "gzip").body(gzip(TEST_BODY));
+                } else {
+                    response.body(TEST_BODY);
+                }
+                if (request.path.startsWith("/slow")) {
+                    response.delay(SLOW_SERVER_MILLIS);
+                }
+                return response;
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    // Repetitive enough that gzip makes a real difference to the size.
+    private static String createBody() {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            body.append("{\"dt\":").append(1419033600 + i * 86400)
+                    .append(",\"temp\":{\"min\":65,\"max\":75}},");
+        }
+        return body.toString();
+    }
+
+    static byte[] gzip(String body) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(bytes);
+            out.write(body.getBytes("UTF-8"));
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toString("UTF-8");
+    }
+
+    private WeatherHttpClient.Response get(WeatherHttpClient client, String path)
+            throws IOException {
+        return client.get(new URL(mServer.getUrl(path)), null);
+    }
+
+    public void testGzipRoundTrip() throws IOException {
+        WeatherHttpClient.Response response = get(WeatherHttpClient.getInstance(), "/gzip");
+        try {
+            assertEquals(HttpURLConnection.HTTP_OK, response.getCode());
+            assertEquals("Error: the body should come back decoded",
+                    TEST_BODY, readFully(response.getBody()));
+            assertEquals("Error: the compressed bytes should be counted, not the decoded ones",
+                    gzip(TEST_BODY).length, response.getBytesOnWire());
+            assertTrue(response.getBytesOnWire() < TEST_BODY.length());
+        } finally {
+            response.close();
+        }
+        assertEquals("gzip", mServer.getRequests().get(0).getHeader("Accept-Encoding"));
+    }
+
+    public void testPlainBodyIsCountedAsIs() throws IOException {
+        WeatherHttpClient.Response response = get(WeatherHttpClient.getInstance(), "/plain");
+        try {
+            assertEquals(TEST_BODY, readFully(response.getBody()));
+            assertEquals(TEST_BODY.length(), response.getBytesOnWire());
+        } finally {
+            response.close();
+        }
+    }
+
+    // The second response is closed without reading it, so close() has to drain it for the
+    // third request to get the connection back.
+    public void testBackToBackRequestsShareAConnection() throws IOException {
+        WeatherHttpClient client = WeatherHttpClient.getInstance();
+        WeatherHttpClient.Response response = get(client, "/gzip?id=1");
+        readFully(response.getBody());
+        response.close();
+
+        response = get(client, "/plain?id=2");
+        response.close();
+
+        response = get(client, "/gzip?id=3");
+        try {
+            assertEquals(TEST_BODY, readFully(response.getBody()));
+        } finally {
+            response.close();
+        }
+
+        assertEquals(3, mServer.getRequests().size());
+        assertEquals("Error: the requests should have shared one connection",
+                1, mServer.getConnectionCount());
+    }
+
+    public void testReadTimeout() throws IOException {
+        WeatherHttpClient client = new WeatherHttpClient(
+                WeatherHttpClient.CONNECT_TIMEOUT_MILLIS, SHORT_READ_TIMEOUT_MILLIS);
+        long start = SystemClock.elapsedRealtime();
+        try {
+            get(client, "/slow").close();
+            fail("Error: a server slower than the read timeout should time out");
+        } catch (SocketTimeoutException expected) {
+        }
+        assertTrue("Error: the client waited for the server instead of timing out",
+                SystemClock.elapsedRealtime() - start < SLOW_SERVER_MILLIS);
+    }
+
+    public void testTimeToFirstByteCoversTheWait() throws IOException {
+        WeatherHttpClient.Response response = get(WeatherHttpClient.getInstance(), "/slow");
+        try {
+            assertEquals(TEST_BODY, readFully(response.getBody()));
+            assertTrue("Error: TTFB " + response.getTimeToFirstByteMillis()
+                            + "ms is shorter than the server's wait",
+                    response.getTimeToFirstByteMillis() >= SLOW_SERVER_MILLIS);
+            assertTrue(response.getConnectMillis() <= response.getTimeToFirstByteMillis());
+            assertTrue("Error: the server's wait should not count as body read time",
+                    response.getBodyReadMillis() < SLOW_SERVER_MILLIS);
+        } finally {
+            response.close();
+        }
+    }
+}
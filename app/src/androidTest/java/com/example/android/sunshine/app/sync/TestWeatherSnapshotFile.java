@@ -0,0 +1,210 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+/*
+    Checks that the snapshot file reads back what was written, and that a damaged or foreign
+    file is ignored rather than shown.  The benchmark compares reading the file, alone and the
+    way the widgets, Muzei and wear get it, with querying the provider, which is what
+    time-to-first-content comes down to, and logs its numbers under the "SnapshotBenchmark" tag.
+ */
+public class TestWeatherSnapshotFile extends AndroidTestCase {
+
+    static final String TEST_LOCATION = "99705";
+    static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    static final int DAYS = 14;
+    static final int BENCHMARK_ROUNDS = 50;
+    static final long LAST_SYNC = 1419033600000L;
+
+    private File mFile;
+    private String mSavedLocation;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+
+        String locationKey = mContext.getString(R.string.pref_location_key);
+        mSavedLocation = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(locationKey, null);
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(locationKey, TEST_LOCATION).commit();
+
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, "North Pole");
+        locationValues.put(LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        locationValues.put(LocationEntry.COLUMN_COORD_LONG, -147.353);
+        locationValues.put(LocationEntry.COLUMN_LAST_SYNC, LAST_SYNC);
+        long locationId = ContentUris.parseId(mContext.getContentResolver()
+                .insert(LocationEntry.CONTENT_URI, locationValues));
+        WeatherSnapshotFile.setLastSync(mContext, TEST_LOCATION, LAST_SYNC);
+
+        // yesterday first, which neither the snapshot nor the file should hold
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] days = new ContentValues[DAYS + 1];
+        for (int i = 0; i < days.length; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, today + (i - 1) * DAY_IN_MILLIS);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 20.25 + i);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, -10.5 + i);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, i % 2 == 0 ? "Clear" : "Snow \u2744");
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 800 + i);
+            days[i] = weatherValues;
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+
+        mFile = new File(mContext.getCacheDir(), "test_" + WeatherSnapshotFile.FILE_NAME);
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_location_key), mSavedLocation)
+                .commit();
+        super.tearDown();
+    }
+
+    public void testRoundTrip() {
+        WeatherSnapshot written = WeatherSnapshot.query(mContext);
+        assertEquals(DAYS, written.getDayCount());
+        assertTrue(WeatherSnapshotFile.write(mFile, written));
+
+        WeatherSnapshot read = WeatherSnapshotFile.read(mFile);
+        assertNotNull("Error: couldn't read back the snapshot file", read);
+        assertEquals(TEST_LOCATION, read.getLocationSetting());
+        assertEquals(64.7488, read.getCoordLat());
+        assertEquals(-147.353, read.getCoordLong());
+        assertEquals(LAST_SYNC, read.getLastSync());
+        assertTrue(read.isStale(60 * 60 * 1000));
+        assertEquals(written.getDayCount(), read.getDayCount());
+        for (int i = 0; i < read.getDayCount(); i++) {
+            WeatherSnapshot.Day expected = written.getDay(i);
+            WeatherSnapshot.Day actual = read.getDay(i);
+            assertEquals(expected.date, actual.date);
+            assertEquals(expected.weatherId, actual.weatherId);
+            assertEquals(expected.shortDesc, actual.shortDesc);
+            assertEquals(expected.high, actual.high);
+            assertEquals(expected.low, actual.low);
+        }
+        assertNotNull("Error: the file should have today", read.getToday());
+        assertFalse("Error: the temp file should be gone",
+                new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    public void testFileForAnotherLocationIsIgnored() {
+        assertTrue(WeatherSnapshotFile.write(WeatherSnapshotFile.getFile(mContext),
+                WeatherSnapshot.query(mContext)));
+        assertNotNull(WeatherSnapshotFile.read(mContext, TEST_LOCATION));
+        assertNull("Error: a snapshot of another location must not be shown",
+                WeatherSnapshotFile.read(mContext, "94043"));
+    }
+
+    public void testCorruptFileIsIgnored() throws Exception {
+        assertTrue(WeatherSnapshotFile.write(mFile, WeatherSnapshot.query(mContext)));
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.seek(raf.length() - 3);
+            int b = raf.read();
+            raf.seek(raf.length() - 3);
+            raf.write(b ^ 0x01);
+        } finally {
+            raf.close();
+        }
+        assertNull("Error: a flipped bit should fail the checksum",
+                WeatherSnapshotFile.read(mFile));
+    }
+
+    public void testTruncatedFileIsIgnored() throws Exception {
+        assertTrue(WeatherSnapshotFile.write(mFile, WeatherSnapshot.query(mContext)));
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.setLength(raf.length() / 2);
+        } finally {
+            raf.close();
+        }
+        assertNull(WeatherSnapshotFile.read(mFile));
+
+        raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.setLength(3);
+        } finally {
+            raf.close();
+        }
+        assertNull(WeatherSnapshotFile.read(mFile));
+    }
+
+    public void testOtherVersionIsIgnored() throws Exception {
+        assertTrue(WeatherSnapshotFile.write(mFile, WeatherSnapshot.query(mContext)));
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.seek(4);
+            raf.writeInt(WeatherSnapshotFile.VERSION + 1);
+        } finally {
+            raf.close();
+        }
+        assertNull("Error: a file from another version should be ignored",
+                WeatherSnapshotFile.read(mFile));
+    }
+
+    /*
+        Not a pass/fail test.  Reading the file stands in for the first frame of a cold start,
+        the provider query for what the loader does; logs the average of each.  The widget
+        path is what the widgets, Muzei and wear do on a cold start: the preferred location,
+        the file and its check against the latest sync.  The provider is warm here, so on a
+        real cold start the difference is bigger than what this shows.
+     */
+    public void testBenchmarkFileAgainstQuery() {
+        assertTrue(WeatherSnapshotFile.write(mFile, WeatherSnapshot.query(mContext)));
+        File file = WeatherSnapshotFile.getFile(mContext);
+        assertTrue(WeatherSnapshotFile.write(file, WeatherSnapshot.query(mContext)));
+        long fileNanos = 0;
+        long widgetNanos = 0;
+        long queryNanos = 0;
+        try {
+            for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+                long start = System.nanoTime();
+                assertEquals(DAYS, WeatherSnapshotFile.read(mFile).getDayCount());
+                fileNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                WeatherSnapshot snapshot = WeatherFanOut.readSnapshotFile(mContext,
+                        Utility.getPreferredLocation(mContext));
+                widgetNanos += System.nanoTime() - start;
+                assertNotNull("Error: the widget path should take the file", snapshot);
+                assertEquals(DAYS, snapshot.getDayCount());
+
+                start = System.nanoTime();
+                assertEquals(DAYS, WeatherSnapshot.query(mContext).getDayCount());
+                queryNanos += System.nanoTime() - start;
+            }
+        } finally {
+            file.delete();
+        }
+        Log.i("SnapshotBenchmark", DAYS + " days, " + mFile.length() + " bytes: "
+                + "file " + (fileNanos / BENCHMARK_ROUNDS / 1000) + "us, "
+                + "widget path " + (widgetNanos / BENCHMARK_ROUNDS / 1000) + "us, "
+                + "provider query " + (queryNanos / BENCHMARK_ROUNDS / 1000) + "us");
+    }
+}
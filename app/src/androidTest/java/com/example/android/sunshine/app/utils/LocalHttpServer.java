@@ -0,0 +1,218 @@
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    A tiny HTTP/1.1 server on the loopback interface, standing in for OpenWeatherMap in tests.
+    Every request is recorded and answered by a Dispatcher.  Connections are kept alive, so
+    tests can also see how many sockets the client actually opened.
+ */
+public class LocalHttpServer {
+
+    public static class Request {
+        public final String method;
+        public final String path;
+        // header names are lower case
+        public final Map<String, String> headers;
+
+        Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase());
+        }
+    }
+
+    public static class Response {
+        final int code;
+        final Map<String, String> headers = new HashMap<String, String>();
+        byte[] body = new byte[0];
+        long delayMillis;
+
+        public Response(int code) {
+            this.code = code;
+        }
+
+        public Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        public Response body(byte[] body) {
+            this.body = body;
+            return this;
+        }
+
+        public Response body(String body) {
+            return body(body.getBytes());
+        }
+
+        // Holds the response back, to simulate a slow server.
+        public Response delay(long delayMillis) {
+            this.delayMillis = delayMillis;
+            return this;
+        }
+    }
+
+    public interface Dispatcher {
+        Response dispatch(Request request);
+    }
+
+    private final Dispatcher mDispatcher;
+    private final ServerSocket mServerSocket;
+    private final List<Request> mRequests = Collections.synchronizedList(new ArrayList<Request>());
+    private final List<Socket> mSockets = Collections.synchronizedList(new ArrayList<Socket>());
+    private final AtomicInteger mConnectionCount = new AtomicInteger();
+
+    public LocalHttpServer(Dispatcher dispatcher) throws IOException {
+        mDispatcher = dispatcher;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread("LocalHttpServer") {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        };
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    public List<Request> getRequests() {
+        synchronized (mRequests) {
+            return new ArrayList<Request>(mRequests);
+        }
+    }
+
+    public int getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException ignored) {
+        }
+        synchronized (mSockets) {
+            for (Socket socket : mSockets) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void acceptConnections() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mConnectionCount.incrementAndGet();
+            mSockets.add(socket);
+            Thread connectionThread = new Thread("LocalHttpServer connection") {
+                @Override
+                public void run() {
+                    try {
+                        serveConnection(socket);
+                    } catch (IOException ignored) {
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException ignored) {
+                        }
+                    }
+                }
+            };
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serveConnection(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        while (true) {
+            String requestLine = readLine(in);
+            if (requestLine == null || requestLine.length() == 0) {
+                return;
+            }
+            String[] parts = requestLine.split(" ");
+            Map<String, String> headers = new HashMap<String, String>();
+            String line;
+            while ((line = readLine(in)) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(),
+                            line.substring(colon + 1).trim());
+                }
+            }
+            Request request = new Request(parts[0], parts.length > 1 ? parts[1] : "/", headers);
+            mRequests.add(request);
+
+            Response response = mDispatcher.dispatch(request);
+            if (response.delayMillis > 0) {
+                try {
+                    Thread.sleep(response.delayMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(response.code).append(" Stand-in\r\n");
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            head.append("Content-Length: ").append(response.body.length).append("\r\n\r\n");
+            try {
+                out.write(head.toString().getBytes("US-ASCII"));
+                out.write(response.body);
+                out.flush();
+            } catch (SocketException e) {
+                // The client gave up on us (a cancelled request), nothing more to do.
+                return;
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                break;
+            }
+            if (c != '\r') {
+                line.write(c);
+            }
+        }
+        if (c == -1 && line.size() == 0) {
+            return null;
+        }
+        return line.toString("US-ASCII");
+    }
+}
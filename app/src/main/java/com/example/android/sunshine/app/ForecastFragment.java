@@ -21,9 +21,11 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
@@ -47,6 +49,9 @@ import android.widget.TextView;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncCoordinator;
+import com.example.android.sunshine.app.sync.WeatherSnapshot;
+import com.example.android.sunshine.app.sync.WeatherSnapshotFile;
 
 /**
  * Encapsulates fetching the forecast and displaying it as a {@link android.support.v7.widget.RecyclerView} layout.
@@ -59,6 +64,9 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     private int mChoiceMode;
     private boolean mHoldForTransition;
     private long mInitialSelectedDate = -1;
+    // For logging how long the list takes to show something, from the snapshot file or the loader.
+    private long mCreatedMillis;
+    private boolean mShowingSnapshot;
 
     private static final String SELECTED_KEY = "selected_position";
 
@@ -115,6 +123,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         super.onCreate(savedInstanceState);
         // Add this line in order for this fragment to handle menu events.
         setHasOptionsMenu(true);
+        mCreatedMillis = SystemClock.elapsedRealtime();
     }
 
     @Override
@@ -259,10 +268,43 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if ( mHoldForTransition ) {
             getActivity().supportPostponeEnterTransition();
         }
+        // On a cold start the loader has to open the database before it has anything for us,
+        // so show what the last sync left in the snapshot file until it's done.
+        if (null == mForecastAdapter.getCursor()) {
+            showSnapshot();
+        }
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
         super.onActivityCreated(savedInstanceState);
     }
 
+    private void showSnapshot() {
+        WeatherSnapshot snapshot = WeatherSnapshotFile.read(getActivity(),
+                Utility.getPreferredLocation(getActivity()));
+        if (null == snapshot || 0 == snapshot.getDayCount()) {
+            return;
+        }
+        // Same columns the loader returns, so the adapter can't tell the difference.
+        MatrixCursor cursor = new MatrixCursor(FORECAST_COLUMNS, snapshot.getDayCount());
+        for (int i = 0; i < snapshot.getDayCount(); i++) {
+            WeatherSnapshot.Day day = snapshot.getDay(i);
+            cursor.addRow(new Object[]{
+                    day.date,
+                    day.date,
+                    day.shortDesc,
+                    day.high,
+                    day.low,
+                    snapshot.getLocationSetting(),
+                    day.weatherId,
+                    snapshot.getCoordLat(),
+                    snapshot.getCoordLong()
+            });
+        }
+        mShowingSnapshot = true;
+        mForecastAdapter.swapCursor(cursor);
+        Log.d(LOG_TAG, "First content from snapshot file after "
+                + (SystemClock.elapsedRealtime() - mCreatedMillis) + "ms");
+    }
+
     // since we read the location when we create the loader, all we need to do is restart things
     void onLocationChanged() {
         getLoaderManager().restartLoader(FORECAST_LOADER, null, this);
@@ -312,9 +354,13 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // Sort order:  Ascending, by date.
         String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
 
+        // Whatever we have is shown right away; if it's older than the freshness window, the
+        // provider asks for a sync in the background and the loader picks up its rows.
         String locationSetting = Utility.getPreferredLocation(getActivity());
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                locationSetting, System.currentTimeMillis());
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildRevalidatingUri(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                SyncCoordinator.FRESHNESS_WINDOW_MILLIS);
 
         return new CursorLoader(getActivity(),
                 weatherForLocationUri,
@@ -326,7 +372,22 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        if (mCreatedMillis != 0) {
+            Log.d(LOG_TAG, (mShowingSnapshot ? "Loader replaced snapshot" : "First content from loader")
+                    + " after " + (SystemClock.elapsedRealtime() - mCreatedMillis) + "ms"
+                    + (WeatherContract.isStale(data) ? ", stale since "
+                            + WeatherContract.getLastSync(data) : ""));
+            mCreatedMillis = 0;
+        }
+        // The loader's cursor replaces the snapshot, which was only ours to close.
+        Cursor previous = mForecastAdapter.getCursor();
         mForecastAdapter.swapCursor(data);
+        if (mShowingSnapshot) {
+            mShowingSnapshot = false;
+            if (null != previous) {
+                previous.close();
+            }
+        }
         updateEmptyView();
         if ( data.getCount() == 0 ) {
             getActivity().supportStartPostponedEnterTransition();
@@ -384,6 +445,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        mShowingSnapshot = false;
         mForecastAdapter.swapCursor(null);
     }
 
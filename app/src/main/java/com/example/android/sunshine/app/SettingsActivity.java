@@ -27,6 +27,8 @@ import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncCoordinator;
+import com.example.android.sunshine.app.sync.WeatherFanOut;
 
 /**
  * A {@link PreferenceActivity} that presents a set of application settings.
@@ -96,11 +98,6 @@ public class SettingsActivity extends PreferenceActivity
             if (prefIndex >= 0) {
                 preference.setSummary(listPreference.getEntries()[prefIndex]);
             }
-
-            //And force an update for android wear (units may have changed)...
-            SunshineSyncAdapter.mbUpdateOnce = true;
-            SunshineSyncAdapter.syncImmediately(getApplicationContext());
-
         } else if (key.equals(getString(R.string.pref_location_key))) {
             @SunshineSyncAdapter.LocationStatus int status = Utility.getLocationStatus(this);
             switch (status) {
@@ -140,10 +137,14 @@ public class SettingsActivity extends PreferenceActivity
             // we've changed the location
             // first clear locationStatus
             Utility.resetLocationStatus(this);
-            SunshineSyncAdapter.syncImmediately(this);
+            SyncCoordinator.requestSyncNow(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            //And force an update for android wear. Straight to the fan-out rather than through a
+            //sync, which could be coalesced away or already be past its wear check.
+            SunshineSyncAdapter.mbUpdateOnce = true;
+            WeatherFanOut.getInstance(this).updateWear();
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
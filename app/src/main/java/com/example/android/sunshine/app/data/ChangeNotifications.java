@@ -0,0 +1,246 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Collects which locations a write changed, so the change can be announced on
+ * weather/&lt;location_setting&gt; and hourly/&lt;location_setting&gt; rather than on the
+ * table's root URI.  A notification on the root wakes up every loader, cursor and observer of
+ * every location; these only wake up the ones showing a location that actually changed.
+ *
+ * A location with a single changed day is announced on that day's URI, so a detail screen of
+ * another day stays quiet.  Observers of the whole location still hear it, since cursors
+ * register for descendants.  Anything that can't be pinned on a known location, or that
+ * touches more than {@link #MAX_LOCATIONS} of them, falls back to the root URI.
+ *
+ * Not thread safe; the provider and ForecastWriter each keep their own.
+ */
+final class ChangeNotifications {
+
+    // Past this many locations one root notification is cheaper than a URI for each.
+    static final int MAX_LOCATIONS = 20;
+
+    // Stands in for the date when more than one day of a location changed.
+    private static final long MANY_DAYS = Long.MIN_VALUE;
+
+    // location row ID -> the one day of it that changed, or MANY_DAYS
+    private final HashMap<Long, Long> mWeather = new HashMap<Long, Long>();
+    private boolean mAllWeather;
+    private final HashSet<Long> mHourly = new HashSet<Long>();
+    private boolean mAllHourly;
+    // Notified as they are, like the location table's.
+    private final LinkedHashSet<Uri> mUris = new LinkedHashSet<Uri>();
+
+    /**
+     * @param date normalized, the way it is stored
+     */
+    void addWeather(long locationId, long date) {
+        Long stored = mWeather.get(locationId);
+        if (stored == null) {
+            mWeather.put(locationId, date);
+        } else if (stored != date) {
+            mWeather.put(locationId, MANY_DAYS);
+        }
+    }
+
+    // The whole location, e.g. because how fresh it is changed rather than any one day.
+    void addWeatherLocation(long locationId) {
+        mWeather.put(locationId, MANY_DAYS);
+    }
+
+    void addAllWeather() {
+        mAllWeather = true;
+    }
+
+    // The location and date of a row as it is being inserted, normalized already.
+    void addWeather(ContentValues values) {
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (locationId == null) {
+            mAllWeather = true;
+        } else if (date == null) {
+            mWeather.put(locationId, MANY_DAYS);
+        } else {
+            addWeather(locationId, date);
+        }
+    }
+
+    /**
+     * Adds the weather rows a selection matches.  Call before they are updated or deleted.
+     */
+    void addWeatherWhere(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        if (mAllWeather) {
+            return;
+        }
+        if (selection == null || "1".equals(selection)) {
+            mAllWeather = true;
+            return;
+        }
+        Cursor cursor = db.query(true, WeatherEntry.TABLE_NAME,
+                new String[]{WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                addWeather(cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    void addHourly(long locationId) {
+        mHourly.add(locationId);
+    }
+
+    void addAllHourly() {
+        mAllHourly = true;
+    }
+
+    void addHourly(ContentValues values) {
+        Long locationId = values.getAsLong(HourlyEntry.COLUMN_LOC_KEY);
+        if (locationId == null) {
+            mAllHourly = true;
+        } else {
+            mHourly.add(locationId);
+        }
+    }
+
+    /**
+     * Adds the locations of the hourly rows a selection matches.  Call before they are updated
+     * or deleted.
+     */
+    void addHourlyWhere(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        if (mAllHourly) {
+            return;
+        }
+        if (selection == null || "1".equals(selection)) {
+            mAllHourly = true;
+            return;
+        }
+        Cursor cursor = db.query(true, HourlyEntry.TABLE_NAME,
+                new String[]{HourlyEntry.COLUMN_LOC_KEY},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                mHourly.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    void addUri(Uri uri) {
+        mUris.add(uri);
+    }
+
+    void addAll(ChangeNotifications other) {
+        for (Map.Entry<Long, Long> entry : other.mWeather.entrySet()) {
+            if (entry.getValue() == MANY_DAYS) {
+                mWeather.put(entry.getKey(), MANY_DAYS);
+            } else {
+                addWeather(entry.getKey(), entry.getValue());
+            }
+        }
+        mAllWeather |= other.mAllWeather;
+        mHourly.addAll(other.mHourly);
+        mAllHourly |= other.mAllHourly;
+        mUris.addAll(other.mUris);
+    }
+
+    boolean isEmpty() {
+        return mWeather.isEmpty() && !mAllWeather && mHourly.isEmpty() && !mAllHourly
+                && mUris.isEmpty();
+    }
+
+    void clear() {
+        mWeather.clear();
+        mAllWeather = false;
+        mHourly.clear();
+        mAllHourly = false;
+        mUris.clear();
+    }
+
+    /**
+     * Sends one notification per changed location and table, then forgets them.  Call once the
+     * changes are committed; it looks up the location settings in db.
+     */
+    void send(ContentResolver contentResolver, SQLiteDatabase db) {
+        if (mWeather.size() > MAX_LOCATIONS) {
+            mAllWeather = true;
+        }
+        if (mHourly.size() > MAX_LOCATIONS) {
+            mAllHourly = true;
+        }
+        HashSet<Long> locationIds = new HashSet<Long>();
+        if (!mAllWeather) {
+            locationIds.addAll(mWeather.keySet());
+        }
+        if (!mAllHourly) {
+            locationIds.addAll(mHourly);
+        }
+        HashMap<Long, String> settings = getLocationSettings(db, locationIds);
+
+        LinkedHashSet<Uri> uris = new LinkedHashSet<Uri>(mUris);
+        if (!mAllWeather && settings.keySet().containsAll(mWeather.keySet())) {
+            for (Map.Entry<Long, Long> entry : mWeather.entrySet()) {
+                String locationSetting = settings.get(entry.getKey());
+                uris.add(entry.getValue() == MANY_DAYS
+                        ? WeatherEntry.buildWeatherLocation(locationSetting)
+                        : WeatherEntry.buildWeatherLocationWithDate(locationSetting,
+                                entry.getValue()));
+            }
+        } else if (mAllWeather || !mWeather.isEmpty()) {
+            uris.add(WeatherEntry.CONTENT_URI);
+        }
+        if (!mAllHourly && settings.keySet().containsAll(mHourly)) {
+            for (long locationId : mHourly) {
+                uris.add(HourlyEntry.buildHourlyLocation(settings.get(locationId)));
+            }
+        } else if (mAllHourly || !mHourly.isEmpty()) {
+            uris.add(HourlyEntry.CONTENT_URI);
+        }
+        clear();
+
+        for (Uri uri : uris) {
+            contentResolver.notifyChange(uri, null);
+        }
+    }
+
+    // Rows that don't have a location (any more) are simply missing from the result.
+    private static HashMap<Long, String> getLocationSettings(SQLiteDatabase db,
+                                                            Set<Long> locationIds) {
+        HashMap<Long, String> settings = new HashMap<Long, String>();
+        if (locationIds.isEmpty()) {
+            return settings;
+        }
+        StringBuilder in = new StringBuilder();
+        for (long locationId : locationIds) {
+            in.append(in.length() == 0 ? "" : ",").append(locationId);
+        }
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_LOCATION_SETTING},
+                LocationEntry._ID + " IN (" + in + ")", null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                settings.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return settings;
+    }
+}
@@ -0,0 +1,695 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.sync.SyncCoordinator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Streams forecast rows into the weather database inside a single transaction.
+ *
+ * The sync adapter gets one of these from {@link WeatherProvider#openForecastWriter()} and
+ * writes each day as soon as it has been parsed, rather than collecting ContentValues and
+ * handing them to bulkInsert at the end.  Memory use therefore doesn't depend on how many rows
+ * the server sends, and the database writes overlap with the download.
+ *
+ * Days are merged rather than blindly replaced: each one is compared with the row already
+ * stored for that location and date, and only new or changed days are written.  A forecast that
+ * hasn't moved since the last sync therefore costs a read and no writes, and doesn't wake up
+ * anybody observing the weather table.
+ *
+ * Nothing is visible to readers until {@link #commit()}, which also sends the change
+ * notifications.  {@link #close()} must always be called; if commit() wasn't, everything
+ * written so far is rolled back.  A writer must only be used from the thread that opened it.
+ */
+public class ForecastWriter {
+
+    // The columns of SQL_INSERT_WEATHER, in bind order.  WeatherProvider's bulkInsert binds
+    // its ContentValues by these too.
+    static final String[] INSERT_WEATHER_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    static final String SQL_INSERT_WEATHER =
+            buildInsert(WeatherEntry.TABLE_NAME, INSERT_WEATHER_COLUMNS);
+
+    private static final String SQL_UPDATE_WEATHER = "UPDATE " + WeatherEntry.TABLE_NAME + " SET " +
+            WeatherEntry.COLUMN_SHORT_DESC + " = ?, " +
+            WeatherEntry.COLUMN_WEATHER_ID + " = ?, " +
+            WeatherEntry.COLUMN_MIN_TEMP + " = ?, " +
+            WeatherEntry.COLUMN_MAX_TEMP + " = ?, " +
+            WeatherEntry.COLUMN_HUMIDITY + " = ?, " +
+            WeatherEntry.COLUMN_PRESSURE + " = ?, " +
+            WeatherEntry.COLUMN_WIND_SPEED + " = ?, " +
+            WeatherEntry.COLUMN_DEGREES + " = ? " +
+            "WHERE " + WeatherEntry._ID + " = ?";
+
+    // REPLACE on the (location_id, time) constraint, so a step that is already stored is
+    // overwritten rather than duplicated.
+    static final String[] INSERT_HOUR_COLUMNS = {
+            HourlyEntry.COLUMN_LOC_KEY,
+            HourlyEntry.COLUMN_TIME,
+            HourlyEntry.COLUMN_WEATHER_ID,
+            HourlyEntry.COLUMN_TEMP,
+            HourlyEntry.COLUMN_HUMIDITY,
+            HourlyEntry.COLUMN_PRESSURE,
+            HourlyEntry.COLUMN_WIND_SPEED,
+            HourlyEntry.COLUMN_DEGREES
+    };
+    static final String SQL_INSERT_HOUR = buildInsert(HourlyEntry.TABLE_NAME, INSERT_HOUR_COLUMNS);
+
+    // Must match the order of the fields in StoredDay.
+    private static final String[] STORED_DAY_COLUMNS = {
+            WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    /**
+     * What a commit changed.  The sync uses this to decide whether anything downstream (widgets,
+     * Muzei, wear, the notification) needs to hear about it.
+     */
+    public static final class Changes {
+        public final int weatherRowsInserted;
+        public final int weatherRowsUpdated;
+        public final int weatherRowsUnchanged;
+        public final int weatherRowsDeleted;
+        public final boolean locationsChanged;
+        // The hourly forecast is replaced wholesale, so there's no unchanged count for it.
+        public final int hourlyRowsWritten;
+        public final int hourlyRowsDeleted;
+
+        Changes(int weatherRowsInserted, int weatherRowsUpdated, int weatherRowsUnchanged,
+                int weatherRowsDeleted, boolean locationsChanged, int hourlyRowsWritten,
+                int hourlyRowsDeleted) {
+            this.weatherRowsInserted = weatherRowsInserted;
+            this.weatherRowsUpdated = weatherRowsUpdated;
+            this.weatherRowsUnchanged = weatherRowsUnchanged;
+            this.weatherRowsDeleted = weatherRowsDeleted;
+            this.locationsChanged = locationsChanged;
+            this.hourlyRowsWritten = hourlyRowsWritten;
+            this.hourlyRowsDeleted = hourlyRowsDeleted;
+        }
+
+        public boolean hasHourlyChanges() {
+            return hourlyRowsWritten > 0 || hourlyRowsDeleted > 0;
+        }
+
+        public boolean hasWeatherChanges() {
+            return weatherRowsInserted > 0 || weatherRowsUpdated > 0 || weatherRowsDeleted > 0;
+        }
+
+        @Override
+        public String toString() {
+            return weatherRowsInserted + " inserted, " + weatherRowsUpdated + " updated, "
+                    + weatherRowsUnchanged + " unchanged, " + weatherRowsDeleted + " deleted";
+        }
+    }
+
+    // INSERT INTO table (columns...) VALUES (?, ...), with the placeholders in column order.
+    private static String buildInsert(String table, String[] columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "" : ", ").append(columns[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < columns.length; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.append(")").toString();
+    }
+
+    // One day as it is currently stored, to compare the incoming forecast against.
+    private static final class StoredDay {
+        long id;
+        String shortDesc;
+        int weatherId;
+        double minTemp;
+        double maxTemp;
+        double humidity;
+        double pressure;
+        double windSpeed;
+        double degrees;
+    }
+
+    private final ContentResolver mContentResolver;
+    private final SQLiteDatabase mDb;
+
+    private SQLiteStatement mInsertWeather;
+    private SQLiteStatement mUpdateWeather;
+    private SQLiteStatement mInsertHour;
+    private boolean mInTransaction;
+    private boolean mCommitted;
+    private boolean mClosed;
+
+    // The stored days of the location we're currently merging into, by normalized date.
+    private long mStoredLocationId = -1;
+    private final HashMap<Long, StoredDay> mStoredDays = new HashMap<Long, StoredDay>();
+
+    // Which locations to notify about at the commit.
+    private final ChangeNotifications mNotifications = new ChangeNotifications();
+    // When the writer is nested in a provider batch, the batch's pending notifications, which
+    // ours are handed to at the commit.  Null otherwise.
+    private final ChangeNotifications mBatchNotifications;
+
+    private int mWeatherRowsInserted;
+    private int mWeatherRowsUpdated;
+    private int mWeatherRowsUnchanged;
+    private int mWeatherRowsDeleted;
+    private boolean mLocationsChanged;
+    private int mHourlyRowsWritten;
+    private int mHourlyRowsDeleted;
+    private long mWriteNanos;
+
+    ForecastWriter(ContentResolver contentResolver, SQLiteDatabase db) {
+        this(contentResolver, db, null);
+    }
+
+    /**
+     * @param batchNotifications if not null, the writer runs inside a batch's transaction and
+     *                           its commit is only nested in that one.  The notifications are
+     *                           then added to these, for the batch to send once it has really
+     *                           committed, and the log isn't checkpointed.
+     */
+    ForecastWriter(ContentResolver contentResolver, SQLiteDatabase db,
+                   ChangeNotifications batchNotifications) {
+        mContentResolver = contentResolver;
+        mDb = db;
+        mBatchNotifications = batchNotifications;
+    }
+
+    // The transaction is only started by the first write, so the database isn't tied up while
+    // we're still waiting on the server to answer.
+    private void ensureTransaction() {
+        if (mClosed) {
+            throw new IllegalStateException("ForecastWriter already closed");
+        }
+        if (!mInTransaction) {
+            mDb.beginTransaction();
+            mInTransaction = true;
+        }
+    }
+
+    /**
+     * @return the row ID of the location with this setting, or -1 if there isn't one yet.
+     */
+    public long getLocationId(String locationSetting) {
+        Cursor cursor = mDb.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the location setting of every location in the database.
+     */
+    public ArrayList<String> getLocationSettings() {
+        Cursor cursor = mDb.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null, null, null, null);
+        try {
+            ArrayList<String> locationSettings = new ArrayList<String>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                locationSettings.add(cursor.getString(0));
+            }
+            return locationSettings;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the ETag and Last-Modified validators stored for the location with this setting,
+     * in that order.  Either may be null, and both are null if there is no such location.
+     */
+    public String[] getCacheValidators(String locationSetting) {
+        Cursor cursor = mDb.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_ETAG, LocationEntry.COLUMN_LAST_MODIFIED},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return new String[]{cursor.getString(0), cursor.getString(1)};
+            }
+            return new String[2];
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Stores the validators of the response the forecast was written from.  They only stick if
+     * the rest of the forecast is committed along with them.
+     */
+    public void setCacheValidators(long locationId, String etag, String lastModified) {
+        ensureTransaction();
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_ETAG, etag);
+        values.put(LocationEntry.COLUMN_LAST_MODIFIED, lastModified);
+        mDb.update(LocationEntry.TABLE_NAME, values, LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)});
+    }
+
+    /**
+     * @return when the forecast of the location with this setting was last synced, in
+     * milliseconds since the epoch, or 0 if it never was.
+     */
+    public long getLastSync(String locationSetting) {
+        Cursor cursor = mDb.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_LAST_SYNC},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Records that the stored forecast for the location with this setting was confirmed
+     * current at the given time.  Like the validators, this only sticks if the writer is
+     * committed, and it doesn't count as a change.
+     *
+     * Observers of the location's weather are only told if it had gone stale, i.e. was last
+     * synced longer than {@link SyncCoordinator#FRESHNESS_WINDOW_MILLIS} ago, so cursors
+     * flagged stale get requeried and see it's fresh again.  Confirming a fresh forecast
+     * stays silent.
+     */
+    public void setLastSync(String locationSetting, long time) {
+        long locationId = -1;
+        long previous = 0;
+        Cursor cursor = mDb.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_LAST_SYNC},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                locationId = cursor.getLong(0);
+                previous = cursor.isNull(1) ? 0 : cursor.getLong(1);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (locationId == -1) {
+            return;
+        }
+
+        ensureTransaction();
+        ContentValues values = new ContentValues();
+        values.put(LocationEntry.COLUMN_LAST_SYNC, time);
+        mDb.update(LocationEntry.TABLE_NAME, values, LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)});
+        if (previous == 0 || time - previous > SyncCoordinator.FRESHNESS_WINDOW_MILLIS) {
+            mNotifications.addWeatherLocation(locationId);
+        }
+    }
+
+    /**
+     * @return OpenWeatherMap's id for the city of the location with this setting, or -1 if we
+     * don't know it yet.
+     */
+    public long getCityId(String locationSetting) {
+        Cursor cursor = mDb.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_CITY_ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Looks up the location with this setting, adding it if it doesn't exist yet.  If the
+     * location exists but its city id is missing or different, the id is updated.
+     *
+     * @param cityId OpenWeatherMap's id for the city, or -1 if the server didn't send one
+     * @return the row ID of the location.
+     */
+    public long addLocation(String locationSetting, long cityId, String cityName,
+                            double lat, double lon) {
+        Cursor cursor = mDb.query(LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry._ID, LocationEntry.COLUMN_CITY_ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                long locationId = cursor.getLong(0);
+                long storedCityId = cursor.isNull(1) ? -1 : cursor.getLong(1);
+                if (cityId != -1 && cityId != storedCityId) {
+                    ensureTransaction();
+                    ContentValues cityIdValues = new ContentValues();
+                    cityIdValues.put(LocationEntry.COLUMN_CITY_ID, cityId);
+                    mDb.update(LocationEntry.TABLE_NAME, cityIdValues, LocationEntry._ID + " = ?",
+                            new String[]{Long.toString(locationId)});
+                }
+                return locationId;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ensureTransaction();
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(LocationEntry.COLUMN_COORD_LONG, lon);
+        if (cityId != -1) {
+            locationValues.put(LocationEntry.COLUMN_CITY_ID, cityId);
+        }
+        long locationId = mDb.insert(LocationEntry.TABLE_NAME, null, locationValues);
+        if (locationId == -1) {
+            throw new android.database.SQLException("Failed to insert location " + locationSetting);
+        }
+        mLocationsChanged = true;
+        mNotifications.addUri(LocationEntry.CONTENT_URI);
+        return locationId;
+    }
+
+    /**
+     * Merges one day of weather for a location into the database.  If a row for the same
+     * location and day is already stored with exactly these values nothing is written; if it
+     * differs it is updated in place, keeping its row ID.
+     *
+     * @return true if the database was changed.
+     */
+    public boolean mergeWeather(long locationId, long date, String shortDesc, int weatherId,
+                                double minTemp, double maxTemp, double humidity, double pressure,
+                                double windSpeed, double degrees) {
+        long start = System.nanoTime();
+        try {
+            return mergeDay(locationId, date, shortDesc, weatherId, minTemp, maxTemp, humidity,
+                    pressure, windSpeed, degrees);
+        } finally {
+            mWriteNanos += System.nanoTime() - start;
+        }
+    }
+
+    private boolean mergeDay(long locationId, long date, String shortDesc, int weatherId,
+                             double minTemp, double maxTemp, double humidity, double pressure,
+                             double windSpeed, double degrees) {
+        ensureTransaction();
+        long normalizedDate = WeatherContract.normalizeDate(date);
+        if (locationId != mStoredLocationId) {
+            loadStoredDays(locationId);
+        }
+
+        StoredDay stored = mStoredDays.get(normalizedDate);
+        if (stored == null) {
+            if (mInsertWeather == null) {
+                mInsertWeather = mDb.compileStatement(SQL_INSERT_WEATHER);
+            }
+            SQLiteStatement insert = mInsertWeather;
+            insert.bindLong(1, locationId);
+            insert.bindLong(2, normalizedDate);
+            insert.bindString(3, shortDesc);
+            insert.bindLong(4, weatherId);
+            insert.bindDouble(5, minTemp);
+            insert.bindDouble(6, maxTemp);
+            insert.bindDouble(7, humidity);
+            insert.bindDouble(8, pressure);
+            insert.bindDouble(9, windSpeed);
+            insert.bindDouble(10, degrees);
+            long rowId = insert.executeInsert();
+            if (rowId == -1) {
+                return false;
+            }
+            stored = new StoredDay();
+            stored.id = rowId;
+            mStoredDays.put(normalizedDate, stored);
+            mWeatherRowsInserted++;
+            mNotifications.addWeather(locationId, normalizedDate);
+        } else if (stored.weatherId == weatherId
+                && stored.minTemp == minTemp
+                && stored.maxTemp == maxTemp
+                && stored.humidity == humidity
+                && stored.pressure == pressure
+                && stored.windSpeed == windSpeed
+                && stored.degrees == degrees
+                && shortDesc.equals(stored.shortDesc)) {
+            mWeatherRowsUnchanged++;
+            return false;
+        } else {
+            if (mUpdateWeather == null) {
+                mUpdateWeather = mDb.compileStatement(SQL_UPDATE_WEATHER);
+            }
+            SQLiteStatement update = mUpdateWeather;
+            update.bindString(1, shortDesc);
+            update.bindLong(2, weatherId);
+            update.bindDouble(3, minTemp);
+            update.bindDouble(4, maxTemp);
+            update.bindDouble(5, humidity);
+            update.bindDouble(6, pressure);
+            update.bindDouble(7, windSpeed);
+            update.bindDouble(8, degrees);
+            update.bindLong(9, stored.id);
+            update.executeUpdateDelete();
+            mWeatherRowsUpdated++;
+            mNotifications.addWeather(locationId, normalizedDate);
+        }
+
+        stored.shortDesc = shortDesc;
+        stored.weatherId = weatherId;
+        stored.minTemp = minTemp;
+        stored.maxTemp = maxTemp;
+        stored.humidity = humidity;
+        stored.pressure = pressure;
+        stored.windSpeed = windSpeed;
+        stored.degrees = degrees;
+        return true;
+    }
+
+    private void loadStoredDays(long locationId) {
+        mStoredDays.clear();
+        mStoredLocationId = locationId;
+        Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME, STORED_DAY_COLUMNS,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)},
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                StoredDay stored = new StoredDay();
+                stored.id = cursor.getLong(0);
+                stored.shortDesc = cursor.getString(2);
+                stored.weatherId = cursor.getInt(3);
+                stored.minTemp = cursor.getDouble(4);
+                stored.maxTemp = cursor.getDouble(5);
+                stored.humidity = cursor.getDouble(6);
+                stored.pressure = cursor.getDouble(7);
+                stored.windSpeed = cursor.getDouble(8);
+                stored.degrees = cursor.getDouble(9);
+                mStoredDays.put(cursor.getLong(1), stored);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Deletes weather rows for every location on or before the given date, so we don't build
+     * up an endless history.
+     */
+    public int deleteWeatherOnOrBefore(long date) {
+        ensureTransaction();
+        String selection = WeatherEntry.COLUMN_DATE + " <= ?";
+        String[] selectionArgs = {Long.toString(date)};
+        // Served by the UNIQUE (date, location_id) index alone, so it's cheap.
+        mNotifications.addWeatherWhere(mDb, selection, selectionArgs);
+        int deleted = mDb.delete(WeatherEntry.TABLE_NAME, selection, selectionArgs);
+        mWeatherRowsDeleted += deleted;
+        if (deleted > 0) {
+            // Whatever we had cached may be gone now.
+            mStoredLocationId = -1;
+            mStoredDays.clear();
+        }
+        return deleted;
+    }
+
+    /**
+     * Drops the hourly forecast stored for a location, before a new one is written with
+     * {@link #writeHour}.  Steps the new forecast no longer has would otherwise linger.
+     */
+    public int clearHourly(long locationId) {
+        ensureTransaction();
+        int deleted = mDb.delete(HourlyEntry.TABLE_NAME, HourlyEntry.COLUMN_LOC_KEY + " = ?",
+                new String[]{Long.toString(locationId)});
+        mHourlyRowsDeleted += deleted;
+        if (deleted > 0) {
+            mNotifications.addHourly(locationId);
+        }
+        return deleted;
+    }
+
+    /**
+     * Writes one 3-hour step of a location's hourly forecast, replacing the stored one.  Values
+     * are already encoded the way {@link HourlyEntry} describes.
+     *
+     * @param time start of the step, in seconds since the epoch
+     */
+    public void writeHour(long locationId, long time, int weatherId, int tempTenths,
+                          int humidity, int pressureTenths, int windSpeedTenths, int degrees) {
+        long start = System.nanoTime();
+        ensureTransaction();
+        if (mInsertHour == null) {
+            mInsertHour = mDb.compileStatement(SQL_INSERT_HOUR);
+        }
+        SQLiteStatement insert = mInsertHour;
+        insert.bindLong(1, locationId);
+        insert.bindLong(2, time);
+        insert.bindLong(3, weatherId);
+        insert.bindLong(4, tempTenths);
+        insert.bindLong(5, humidity);
+        insert.bindLong(6, pressureTenths);
+        insert.bindLong(7, windSpeedTenths);
+        insert.bindLong(8, degrees);
+        if (insert.executeInsert() != -1) {
+            mHourlyRowsWritten++;
+            mNotifications.addHourly(locationId);
+        }
+        mWriteNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Deletes the hourly steps of every location that ended before the given time.
+     *
+     * @param time seconds since the epoch
+     */
+    public int deleteHourlyBefore(long time) {
+        ensureTransaction();
+        String selection = HourlyEntry.COLUMN_TIME + " < ?";
+        String[] selectionArgs = {Long.toString(time - HourlyEntry.STEP_SECONDS)};
+        mNotifications.addHourlyWhere(mDb, selection, selectionArgs);
+        int deleted = mDb.delete(HourlyEntry.TABLE_NAME, selection, selectionArgs);
+        mHourlyRowsDeleted += deleted;
+        return deleted;
+    }
+
+    /**
+     * @return the number of weather rows inserted or updated so far.
+     */
+    public int getWeatherRowsWritten() {
+        return mWeatherRowsInserted + mWeatherRowsUpdated;
+    }
+
+    /**
+     * @return time spent merging weather rows and committing them, so far.
+     */
+    public long getWriteMillis() {
+        return mWriteNanos / 1000000;
+    }
+
+    /**
+     * Makes everything written so far visible and notifies observers, once per table and
+     * location, on weather/&lt;location_setting&gt; and hourly/&lt;location_setting&gt;.
+     * Locations and tables that weren't actually changed aren't notified.  Then checkpoints the
+     * write-ahead log, see {@link WeatherDbHelper#checkpoint}.  Inside a batch, the
+     * notifications and the checkpoint are left to the batch.
+     *
+     * @return what was changed.
+     */
+    public Changes commit() {
+        if (mClosed) {
+            throw new IllegalStateException("ForecastWriter already closed");
+        }
+        boolean wrote = mInTransaction;
+        if (mInTransaction) {
+            mDb.setTransactionSuccessful();
+        }
+        mCommitted = true;
+        close();
+
+        Changes changes = new Changes(mWeatherRowsInserted, mWeatherRowsUpdated,
+                mWeatherRowsUnchanged, mWeatherRowsDeleted, mLocationsChanged,
+                mHourlyRowsWritten, mHourlyRowsDeleted);
+        if (mBatchNotifications != null) {
+            // Nothing is on disk until the batch commits, and it may still roll us back.
+            mBatchNotifications.addAll(mNotifications);
+            mNotifications.clear();
+            return changes;
+        }
+        mNotifications.send(mContentResolver, mDb);
+        // After the notifications, so the readers they wake aren't kept waiting on it.
+        if (wrote) {
+            WeatherDbHelper.checkpoint(mDb);
+        }
+        return changes;
+    }
+
+    /**
+     * Ends the transaction.  Anything not committed is rolled back.
+     */
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        if (mInsertWeather != null) {
+            mInsertWeather.close();
+            mInsertWeather = null;
+        }
+        if (mUpdateWeather != null) {
+            mUpdateWeather.close();
+            mUpdateWeather = null;
+        }
+        if (mInsertHour != null) {
+            mInsertHour.close();
+            mInsertHour = null;
+        }
+        mStoredDays.clear();
+        if (mInTransaction) {
+            mInTransaction = false;
+            // This is where a commit actually hits the disk.
+            long start = System.nanoTime();
+            mDb.endTransaction();
+            mWriteNanos += System.nanoTime() - start;
+        }
+        if (!mCommitted) {
+            mNotifications.clear();
+            mLocationsChanged = false;
+            mWeatherRowsInserted = 0;
+            mWeatherRowsUpdated = 0;
+            mWeatherRowsUnchanged = 0;
+            mWeatherRowsDeleted = 0;
+            mHourlyRowsWritten = 0;
+            mHourlyRowsDeleted = 0;
+        }
+    }
+}
@@ -17,7 +17,9 @@ package com.example.android.sunshine.app.data;
 
 import android.content.ContentResolver;
 import android.content.ContentUris;
+import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
 import android.provider.BaseColumns;
 import android.text.format.Time;
 
@@ -43,6 +45,34 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_SYNC_METRICS = "sync_metrics";
+    public static final String PATH_HOURLY = "hourly";
+
+    // Every weather query by location setting comes back with these in Cursor.getExtras(), so
+    // consumers can tell how old the rows are without keeping track themselves.
+    // EXTRA_LAST_SYNC is when a sync last confirmed the location's forecast, in milliseconds
+    // since the epoch, 0 if it never has.  EXTRA_STALE is true if that is longer ago than the
+    // query's max age (see WeatherEntry.buildRevalidatingUri), or the default freshness window.
+    public static final String EXTRA_LAST_SYNC = "last_sync";
+    public static final String EXTRA_STALE = "stale";
+
+    /**
+     * @return when the location of the rows in the cursor was last synced, or 0 if it never was
+     * or the cursor doesn't say.
+     */
+    public static long getLastSync(Cursor cursor) {
+        Bundle extras = cursor.getExtras();
+        return extras != null ? extras.getLong(EXTRA_LAST_SYNC, 0) : 0;
+    }
+
+    /**
+     * @return true if the rows in the cursor were served past their max age.  A cursor that
+     * doesn't say is taken to be fresh.
+     */
+    public static boolean isStale(Cursor cursor) {
+        Bundle extras = cursor.getExtras();
+        return extras != null && extras.getBoolean(EXTRA_STALE, false);
+    }
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
@@ -81,6 +111,22 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // HTTP validators from the last forecast response for this location, so the next sync
+        // can send a conditional request and skip everything on a 304 Not Modified.  Either may
+        // be null if the server didn't send it.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+
+        // OpenWeatherMap's own id for the city, learned from the first forecast we get for the
+        // location setting.  Once we have it, requests go by id, which OWM resolves exactly and
+        // without a search.  Null until the first sync.
+        public static final String COLUMN_CITY_ID = "city_id";
+
+        // When a sync last confirmed the stored forecast for this location was current, either
+        // by fetching it or by getting a 304 for it, in milliseconds since the epoch.  Null if
+        // it never has.
+        public static final String COLUMN_LAST_SYNC = "last_sync";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -126,6 +172,32 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter that puts a bulkInsert on CONTENT_URI into merge mode: rows that
+        // match what is already stored for their location and date are left alone, changed ones
+        // are updated in place, and observers are only notified if something actually changed.
+        // The returned count is then the number of rows that were inserted or updated.
+        public static final String PARAM_MERGE = "merge";
+
+        public static Uri buildWeatherMergeUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_MERGE, "true").build();
+        }
+
+        // Query parameter that puts a query by location setting into stale-while-revalidate
+        // mode: the stored rows are returned right away, as always, and if the location was
+        // last synced longer ago than this many milliseconds, a sync is requested in the
+        // background.  Observers of the URI hear about the new rows when it is done.
+        public static final String PARAM_MAX_AGE = "max_age";
+
+        /**
+         * @param weatherUri a weather URI built from a location setting
+         * @param maxAge how old, in milliseconds, the location's forecast may get before a
+         *               background refresh is asked for
+         */
+        public static Uri buildRevalidatingUri(Uri weatherUri, long maxAge) {
+            return weatherUri.buildUpon()
+                    .appendQueryParameter(PARAM_MAX_AGE, Long.toString(maxAge)).build();
+        }
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -164,5 +236,160 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        /**
+         * @return the max age of a revalidating URI, or -1 if it isn't one.
+         */
+        public static long getMaxAgeFromUri(Uri uri) {
+            String maxAgeString = uri.getQueryParameter(PARAM_MAX_AGE);
+            if (null != maxAgeString && maxAgeString.length() > 0)
+                return Long.parseLong(maxAgeString);
+            else
+                return -1;
+        }
+    }
+
+    /* Inner class that defines the table contents of the hourly forecast table */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        // One row per location per 3-hour step of the 5 day forecast, so 40 rows per location.
+        // Every column is a small integer, which SQLite stores in 1 to 4 bytes, instead of the
+        // 8 byte REALs and the TEXT description of the daily table.  Use toTenths and
+        // fromTenths to get at the scaled values.
+        public static final String TABLE_NAME = "hourly";
+
+        // Steps that have passed are dropped on every sync, and a location never keeps more
+        // than this many.
+        public static final int MAX_ROWS_PER_LOCATION = 48;
+        public static final long STEP_SECONDS = 3 * 60 * 60;
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the 3-hour step, in seconds (not milliseconds) since the epoch
+        public static final String COLUMN_TIME = "time";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        // Temperature in tenths of a degree Celsius
+        public static final String COLUMN_TEMP = "temp";
+        // Humidity in whole percent
+        public static final String COLUMN_HUMIDITY = "humidity";
+        // Pressure in tenths of a hPa
+        public static final String COLUMN_PRESSURE = "pressure";
+        // Wind speed in tenths of a meter per second
+        public static final String COLUMN_WIND_SPEED = "wind";
+        // Meteorological degrees (e.g, 0 is north, 180 is south), whole degrees
+        public static final String COLUMN_DEGREES = "degrees";
+
+        public static Uri buildHourlyUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        /**
+         * @param startTime seconds since the epoch.  Steps that start before it are left out.
+         */
+        public static Uri buildHourlyLocationWithStartTime(String locationSetting, long startTime) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_TIME, Long.toString(startTime)).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartTimeFromUri(Uri uri) {
+            String timeString = uri.getQueryParameter(COLUMN_TIME);
+            if (null != timeString && timeString.length() > 0)
+                return Long.parseLong(timeString);
+            else
+                return 0;
+        }
+
+        public static int toTenths(double value) {
+            return (int) Math.round(value * 10);
+        }
+
+        public static double fromTenths(int tenths) {
+            return tenths / 10.0;
+        }
+    }
+
+    /* Inner class that defines the table contents of the sync metrics table */
+    public static final class SyncMetricsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_METRICS;
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_METRICS;
+
+        // One row per sync.  The table only keeps the most recent MAX_ROWS of them, older rows
+        // are dropped as new ones come in.
+        public static final String TABLE_NAME = "sync_metrics";
+        public static final int MAX_ROWS = 200;
+
+        // Wall clock time the sync started, in milliseconds since the epoch
+        public static final String COLUMN_START_TIME = "start_time";
+        // How many locations the sync fetched
+        public static final String COLUMN_LOCATIONS = "locations";
+        // The location status the sync ended with, one of SunshineSyncAdapter.LOCATION_STATUS_*
+        public static final String COLUMN_STATUS = "status";
+        // HTTP status of the last forecast response, or null if we never got one
+        public static final String COLUMN_HTTP_STATUS = "http_status";
+
+        // Time spent in each phase, in milliseconds.  Connect covers DNS, TCP and TLS setup and is
+        // close to 0 when a kept-alive connection is reused.  TTFB runs from the start of the
+        // request to the response headers, so it includes connect.  Download is the time spent
+        // waiting on the response body, parse the rest of the streaming read, and db_write the
+        // time spent writing the forecast and committing it.  When several locations are
+        // fetched in parallel the network and parse times are summed over them, so they can add
+        // up to more than total_ms.
+        public static final String COLUMN_CONNECT_MS = "connect_ms";
+        public static final String COLUMN_TTFB_MS = "ttfb_ms";
+        public static final String COLUMN_DOWNLOAD_MS = "download_ms";
+        public static final String COLUMN_PARSE_MS = "parse_ms";
+        public static final String COLUMN_DB_WRITE_MS = "db_write_ms";
+        public static final String COLUMN_DELETE_OLD_MS = "delete_old_ms";
+        // Time the widgets, Muzei, wear and the notification took to pick up the new data.
+        // Filled in after the fact by the fan-out, and null if the sync didn't change anything.
+        public static final String COLUMN_FAN_OUT_MS = "fan_out_ms";
+        // Wall time of the whole sync, not counting the fan-out
+        public static final String COLUMN_TOTAL_MS = "total_ms";
+
+        // Bytes received off the network (compressed, if the server gzipped the body)
+        public static final String COLUMN_BYTES = "bytes";
+        // Forecast days received, days inserted or changed, and old days deleted
+        public static final String COLUMN_ROWS_RECEIVED = "rows_received";
+        public static final String COLUMN_ROWS_WRITTEN = "rows_written";
+        public static final String COLUMN_ROWS_DELETED = "rows_deleted";
+
+        // Columns of the single row returned by the summary URI: how many syncs are in the table
+        // and the median and 95th percentile of their total_ms.
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_P50_TOTAL_MS = "p50_total_ms";
+        public static final String COLUMN_P95_TOTAL_MS = "p95_total_ms";
+
+        public static final String PATH_SUMMARY = "summary";
+
+        public static Uri buildSyncMetricsUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        public static Uri buildSummaryUri() {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SUMMARY).build();
+        }
     }
 }
@@ -15,37 +15,109 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
  * Manages a local database for weather data.
+ *
+ * The database runs in write-ahead logging mode.  The sync writes inside one transaction that
+ * stays open while the forecast is still downloading (see {@link ForecastWriter}), and with a
+ * rollback journal every loader, widget and Muzei read had to wait that out.  With WAL the
+ * readers get connections of their own and keep seeing the last committed forecast until the
+ * sync commits.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add the
+    // step that gets an existing database there to WeatherMigrations.
+    static final int DATABASE_VERSION = 8;
 
     static final String DATABASE_NAME = "weather.db";
 
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date";
+
+    private final boolean mWriteAheadLogging;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, true);
+    }
+
+    // Lets TestWalContention compare against a rollback journal, on a database of its own.
+    WeatherDbHelper(Context context, String name, boolean writeAheadLogging) {
+        super(context, name, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging;
+        if (writeAheadLogging && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            useWriteAheadLogging();
+        }
+    }
+
+    // From Jelly Bean on this also gives readers a pool of connections of their own.
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void useWriteAheadLogging() {
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Before Jelly Bean the helper can't do it for us, and it has to be done on every open.
+        if (mWriteAheadLogging && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN
+                && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    /**
+     * Copies what the write-ahead log holds back into the database, so the log can start over
+     * from the beginning with the next write.  The writer calls this after each burst.
+     *
+     * SQLite's own automatic checkpoint waits for the log to grow past a set number of pages,
+     * a hundred or a thousand depending on the device, and a sync only writes a few dozen.
+     * Without this the log would hold many syncs' worth of pages, and every reader would have
+     * to look through it.  The checkpoint is a passive one: it copies whatever no reader still
+     * needs and never waits for a reader to finish.  A no-op if the database isn't in WAL mode.
+     */
+    static void checkpoint(SQLiteDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(PASSIVE)", null);
+        try {
+            // busy, frames in the log, frames copied back
+            if (cursor.moveToFirst() && cursor.getInt(1) > 0) {
+                Log.d(LOG_TAG, "Checkpointed " + cursor.getInt(2) + " of " + cursor.getInt(1)
+                        + " WAL frames");
+            }
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
-        // location setting, the city name, and the latitude and longitude
+        // location setting, the city name, the latitude and longitude, the HTTP validators
+        // of the last forecast we fetched for it, OpenWeatherMap's id for the city and when
+        // its forecast was last synced
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
                 LocationEntry._ID + " INTEGER PRIMARY KEY," +
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_ETAG + " TEXT, " +
+                LocationEntry.COLUMN_LAST_MODIFIED + " TEXT, " +
+                LocationEntry.COLUMN_CITY_ID + " INTEGER, " +
+                LocationEntry.COLUMN_LAST_SYNC + " INTEGER " +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -81,18 +153,102 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        createWeatherLocationDateIndex(sqLiteDatabase);
+        createSyncMetricsTable(sqLiteDatabase);
+        createHourlyTable(sqLiteDatabase);
+    }
+
+    static void createWeatherLocationDateIndex(SQLiteDatabase sqLiteDatabase) {
+        // Every forecast read is "this location from this date on", and the UNIQUE constraint's
+        // index has the date first, so it can't serve those.  This one has the location first,
+        // and carries every weather column the forecast list, the widgets, Muzei and the
+        // snapshot ask for, so their reads never touch the table itself.  The detail screen
+        // needs the rest and reads one row through it.  TestQueryPlans keeps this honest.
+        sqLiteDatabase.execSQL("CREATE INDEX " + INDEX_WEATHER_LOCATION_DATE + " ON " +
+                WeatherEntry.TABLE_NAME + " (" +
+                WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherEntry.COLUMN_DATE + ", " +
+                WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherEntry.COLUMN_MIN_TEMP + ");");
+    }
+
+    static void createHourlyTable(SQLiteDatabase sqLiteDatabase) {
+        // Integers only, see HourlyEntry.  Every read is "this location from this time on", so
+        // the UNIQUE constraint puts the location first: its index is then the one range scan
+        // those reads need, and the one the REPLACE on conflict uses.  It isn't made covering;
+        // WITHOUT ROWID needs API 21, and a second index repeating every column would double
+        // the writes for rows that are only a few bytes anyway.
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY," +
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TEMP + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_HUMIDITY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_PRESSURE + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_WIND_SPEED + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_DEGREES + " INTEGER NOT NULL, " +
+
+                " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+    }
+
+    static void createSyncMetricsTable(SQLiteDatabase sqLiteDatabase) {
+        // The phase timings of each sync.  Everything but the start time is nullable, since a
+        // sync that fails early never gets to most of the phases.
+        final String SQL_CREATE_SYNC_METRICS_TABLE = "CREATE TABLE " + SyncMetricsEntry.TABLE_NAME + " (" +
+                // AUTOINCREMENT so ids are never reused, which the trimming below relies on.
+                SyncMetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                SyncMetricsEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                SyncMetricsEntry.COLUMN_LOCATIONS + " INTEGER, " +
+                SyncMetricsEntry.COLUMN_STATUS + " INTEGER, " +
+                SyncMetricsEntry.COLUMN_HTTP_STATUS + " INTEGER, " +
+                SyncMetricsEntry.COLUMN_CONNECT_MS + " INTEGER, " +
+                SyncMetricsEntry.COLUMN_TTFB_MS + " INTEGER, " +
+                SyncMetricsEntry.COLUMN_DOWNLOAD_MS + " INTEGER, " +
+                SyncMetricsEntry.COLUMN_PARSE_MS + " INTEGER, " +
+                SyncMetricsEntry.COLUMN_DB_WRITE_MS + " INTEGER, " +
+                SyncMetricsEntry.COLUMN_DELETE_OLD_MS + " INTEGER, " +
+                SyncMetricsEntry.COLUMN_FAN_OUT_MS + " INTEGER, " +
+                SyncMetricsEntry.COLUMN_TOTAL_MS + " INTEGER, " +
+                SyncMetricsEntry.COLUMN_BYTES + " INTEGER, " +
+                SyncMetricsEntry.COLUMN_ROWS_RECEIVED + " INTEGER, " +
+                SyncMetricsEntry.COLUMN_ROWS_WRITTEN + " INTEGER, " +
+                SyncMetricsEntry.COLUMN_ROWS_DELETED + " INTEGER " +
+                " );";
+
+        // Keep the table a ring buffer: every insert drops whatever fell out of the last MAX_ROWS.
+        final String SQL_CREATE_SYNC_METRICS_TRIM_TRIGGER =
+                "CREATE TRIGGER " + SyncMetricsEntry.TABLE_NAME + "_trim AFTER INSERT ON " +
+                SyncMetricsEntry.TABLE_NAME + " BEGIN DELETE FROM " + SyncMetricsEntry.TABLE_NAME +
+                " WHERE " + SyncMetricsEntry._ID + " <= NEW." + SyncMetricsEntry._ID + " - " +
+                SyncMetricsEntry.MAX_ROWS + "; END;";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TRIM_TRIGGER);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (WeatherMigrations.canMigrate(oldVersion, newVersion)) {
+            WeatherMigrations.migrate(sqLiteDatabase, oldVersion, newVersion);
+            return;
+        }
+
+        // Too old for the migrations to know about.  This database is only a cache for online
+        // data, so for those we discard the data and start over.
+        Log.w(LOG_TAG, "No migration from version " + oldVersion + ", recreating the database");
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncMetricsEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
     }
 }
@@ -0,0 +1,134 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+
+/**
+ * The schema's history, one step per database version, so an upgrade keeps the user's
+ * locations and the stored forecast instead of dropping everything.
+ *
+ * Each {@link Migration} takes the database from the version before its own to its own.  An
+ * upgrade runs every step between the old version and the new one in order, inside the
+ * transaction SQLiteOpenHelper already holds, so a step that throws leaves the database at the
+ * old version.  Bumping {@link WeatherDbHelper#DATABASE_VERSION} means adding a step here for
+ * the new version; TestMigrations checks that the steps end up at the same schema as onCreate.
+ *
+ * Steps that create a whole table share the create method with onCreate.  That only holds
+ * while the table stays as it was created: once a later version changes the table, the older
+ * step has to keep its own copy of the original statement.
+ */
+final class WeatherMigrations {
+    private static final String LOG_TAG = WeatherMigrations.class.getSimpleName();
+
+    // Databases older than this predate any of the steps.  They were only ever on
+    // development builds, and get dropped and recreated.
+    static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    abstract static class Migration {
+        final int toVersion;
+        final String description;
+
+        Migration(int toVersion, String description) {
+            this.toVersion = toVersion;
+            this.description = description;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // In version order, one per version after OLDEST_MIGRATABLE_VERSION.
+    static final Migration[] MIGRATIONS = {
+            new Migration(3, "HTTP validators on locations") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Null validators just make the next request unconditional.
+                    addColumn(db, LocationEntry.TABLE_NAME, LocationEntry.COLUMN_ETAG, "TEXT");
+                    addColumn(db, LocationEntry.TABLE_NAME, LocationEntry.COLUMN_LAST_MODIFIED,
+                            "TEXT");
+                }
+            },
+            new Migration(4, "OpenWeatherMap city ids") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // The next sync fills it in by itself.
+                    addColumn(db, LocationEntry.TABLE_NAME, LocationEntry.COLUMN_CITY_ID,
+                            "INTEGER");
+                }
+            },
+            new Migration(5, "sync metrics") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Starts out empty anyway.
+                    WeatherDbHelper.createSyncMetricsTable(db);
+                }
+            },
+            new Migration(6, "last sync time") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Leaving it null just means the next sync won't consider the stored
+                    // forecast fresh.
+                    addColumn(db, LocationEntry.TABLE_NAME, LocationEntry.COLUMN_LAST_SYNC,
+                            "INTEGER");
+                }
+            },
+            new Migration(7, "hourly forecast") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // The next scheduled sync fills it in.
+                    WeatherDbHelper.createHourlyTable(db);
+                }
+            },
+            new Migration(8, "location-first covering index on weather") {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    // Builds the index from the rows already there, so unlike the steps before
+                    // it this one grows with the data.  TestMigrations times it.
+                    WeatherDbHelper.createWeatherLocationDateIndex(db);
+                }
+            },
+    };
+
+    private WeatherMigrations() {
+    }
+
+    /**
+     * @return true if there are steps for every version from oldVersion to newVersion.
+     */
+    static boolean canMigrate(int oldVersion, int newVersion) {
+        return oldVersion >= OLDEST_MIGRATABLE_VERSION
+                && newVersion <= OLDEST_MIGRATABLE_VERSION + MIGRATIONS.length
+                && oldVersion <= newVersion;
+    }
+
+    /**
+     * Runs the steps from oldVersion to newVersion in order, on the calling thread.  The
+     * caller owns the transaction.
+     *
+     * @return how long each step took, in milliseconds, in the order they ran.
+     * @throws IllegalArgumentException if {@link #canMigrate} says no.
+     */
+    static long[] migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (!canMigrate(oldVersion, newVersion)) {
+            throw new IllegalArgumentException(
+                    "No migration from version " + oldVersion + " to " + newVersion);
+        }
+        long[] millis = new long[newVersion - oldVersion];
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            Migration migration = MIGRATIONS[version - OLDEST_MIGRATABLE_VERSION - 1];
+            long start = SystemClock.elapsedRealtime();
+            migration.migrate(db);
+            long elapsed = SystemClock.elapsedRealtime() - start;
+            millis[version - oldVersion - 1] = elapsed;
+            Log.i(LOG_TAG, "Migrated to version " + version + " (" + migration.description
+                    + ") in " + elapsed + "ms");
+        }
+        return millis;
+    }
+
+    private static void addColumn(SQLiteDatabase db, String table, String column, String type) {
+        db.execSQL("ALTER TABLE " + table + " ADD COLUMN " + column + " " + type);
+    }
+}
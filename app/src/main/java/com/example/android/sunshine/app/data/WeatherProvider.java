@@ -17,25 +17,53 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.sync.SyncCoordinator;
+
+import java.util.ArrayList;
 
 public class WeatherProvider extends ContentProvider {
 
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
+
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // The notifications held back by the applyBatch running on this thread, if there is one.
+    // Per thread, since other binder threads' writes aren't part of the batch.
+    private final ThreadLocal<ChangeNotifications> mPendingNotifications =
+            new ThreadLocal<ChangeNotifications>();
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int SYNC_METRICS = 400;
+    static final int SYNC_METRICS_SUMMARY = 401;
+    static final int HOURLY = 500;
+    static final int HOURLY_WITH_LOCATION = 501;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // Package-private, like the selections below, so TestQueryPlans can check the plans of
+    // the queries we actually run.
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,25 +77,41 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND time >= ?
+    static final String sLocationSettingWithStartTimeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " >= ? ";
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -108,6 +152,22 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    // The location is looked up by its setting, then its steps are read off the hourly
+    // table's (location_id, time) index in time order.
+    private Cursor getHourlyByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long startTime = WeatherContract.HourlyEntry.getStartTimeFromUri(uri);
+
+        return sHourlyByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingWithStartTimeSelection,
+                new String[]{locationSetting, Long.toString(startTime)},
+                null,
+                null,
+                sortOrder != null ? sortOrder : WeatherContract.HourlyEntry.COLUMN_TIME + " ASC"
+        );
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +190,13 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_METRICS, SYNC_METRICS);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_METRICS + "/" +
+                WeatherContract.SyncMetricsEntry.PATH_SUMMARY, SYNC_METRICS_SUMMARY);
+
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
         return matcher;
     }
 
@@ -164,6 +231,13 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_METRICS:
+                return WeatherContract.SyncMetricsEntry.CONTENT_TYPE;
+            case SYNC_METRICS_SUMMARY:
+                return WeatherContract.SyncMetricsEntry.CONTENT_ITEM_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -179,12 +253,14 @@ public class WeatherProvider extends ContentProvider {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                retCursor = withFreshness(uri,
+                        getWeatherByLocationSettingAndDate(uri, projection, sortOrder));
                 break;
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = withFreshness(uri,
+                        getWeatherByLocationSetting(uri, projection, sortOrder));
                 break;
             }
             // "weather"
@@ -213,6 +289,42 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "sync_metrics"
+            case SYNC_METRICS: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "sync_metrics/summary"
+            case SYNC_METRICS_SUMMARY: {
+                retCursor = getSyncMetricsSummary(selection, selectionArgs);
+                break;
+            }
+            // "hourly/*"
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -221,6 +333,104 @@ public class WeatherProvider extends ContentProvider {
         return retCursor;
     }
 
+    /*
+        Attaches the location's last sync time and whether it's stale to the cursor's extras.
+        For a revalidating URI, a stale location also gets a sync requested.  That doesn't wait
+        for anything: the caller gets the rows we have now, and the sync's commit notifies the
+        URI when the new ones are in.
+     */
+    private Cursor withFreshness(Uri uri, Cursor cursor) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long lastSync = getLastSync(locationSetting);
+        long maxAge = WeatherContract.WeatherEntry.getMaxAgeFromUri(uri);
+        boolean revalidate = maxAge >= 0;
+        if (!revalidate) {
+            maxAge = SyncCoordinator.FRESHNESS_WINDOW_MILLIS;
+        }
+        boolean stale = lastSync == 0 || System.currentTimeMillis() - lastSync > maxAge;
+        if (stale && revalidate) {
+            SyncCoordinator.requestSync(getContext(), maxAge);
+        }
+
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherContract.EXTRA_LAST_SYNC, lastSync);
+        extras.putBoolean(WeatherContract.EXTRA_STALE, stale);
+        return new ExtrasCursor(cursor, extras);
+    }
+
+    private long getLastSync(String locationSetting) {
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LAST_SYNC},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null, null, null);
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // AbstractCursor only got setExtras in API 23.
+    private static class ExtrasCursor extends CursorWrapper {
+        private final Bundle mExtras;
+
+        ExtrasCursor(Cursor cursor, Bundle extras) {
+            super(cursor);
+            mExtras = extras;
+        }
+
+        @Override
+        public Bundle getExtras() {
+            return mExtras;
+        }
+    }
+
+    // One row with the count, median and 95th percentile of total_ms over the syncs matching
+    // the selection.  The table is capped at a few hundred rows, so sorting them here is cheap.
+    private Cursor getSyncMetricsSummary(String selection, String[] selectionArgs) {
+        final String totalColumn = WeatherContract.SyncMetricsEntry.COLUMN_TOTAL_MS;
+        String totalSelection = totalColumn + " IS NOT NULL";
+        if (selection != null) {
+            totalSelection = "(" + selection + ") AND " + totalSelection;
+        }
+        Cursor totals = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                new String[]{totalColumn},
+                totalSelection,
+                selectionArgs,
+                null,
+                null,
+                totalColumn + " ASC");
+        long[] sorted;
+        try {
+            sorted = new long[totals.getCount()];
+            for (int i = 0; totals.moveToNext(); i++) {
+                sorted[i] = totals.getLong(0);
+            }
+        } finally {
+            totals.close();
+        }
+
+        MatrixCursor summary = new MatrixCursor(new String[]{
+                WeatherContract.SyncMetricsEntry.COLUMN_COUNT,
+                WeatherContract.SyncMetricsEntry.COLUMN_P50_TOTAL_MS,
+                WeatherContract.SyncMetricsEntry.COLUMN_P95_TOTAL_MS});
+        summary.addRow(new Object[]{sorted.length, percentile(sorted, 50), percentile(sorted, 95)});
+        return summary;
+    }
+
+    // Nearest-rank percentile of an ascending array, or null if it's empty.
+    private static Long percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return null;
+        }
+        // ceil(percent * length / 100), in integers so 95% of 20 is exactly 19
+        int rank = (percent * sorted.length + 99) / 100;
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
@@ -228,6 +438,7 @@ public class WeatherProvider extends ContentProvider {
     public Uri insert(Uri uri, ContentValues values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final ChangeNotifications changes = new ChangeNotifications();
         Uri returnUri;
 
         switch (match) {
@@ -238,6 +449,7 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.addWeather(values);
                 break;
             }
             case LOCATION: {
@@ -246,12 +458,31 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.addUri(uri);
                 break;
             }
+            case HOURLY: {
+                long _id = db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.HourlyEntry.buildHourlyUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                changes.addHourly(values);
+                break;
+            }
+            case SYNC_METRICS: {
+                // Nothing watches the metrics, and a sync recording its timings mustn't look
+                // like a change to anyone observing the whole authority, so don't notify.
+                long _id = db.insert(WeatherContract.SyncMetricsEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    return WeatherContract.SyncMetricsEntry.buildSyncMetricsUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(changes);
         return returnUri;
     }
 
@@ -259,29 +490,42 @@ public class WeatherProvider extends ContentProvider {
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final ChangeNotifications changes = new ChangeNotifications();
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
+                // which locations lose rows has to be asked before they're gone
+                changes.addWeatherWhere(db, selection, selectionArgs);
                 rowsDeleted = db.delete(
                         WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             case LOCATION:
+                changes.addUri(uri);
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
                 break;
+            case HOURLY:
+                changes.addHourlyWhere(db, selection, selectionArgs);
+                rowsDeleted = db.delete(
+                        WeatherContract.HourlyEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case SYNC_METRICS:
+                // no notification, see insert
+                return db.delete(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME, selection, selectionArgs);
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changes);
         }
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
+    private static void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
@@ -294,23 +538,45 @@ public class WeatherProvider extends ContentProvider {
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final ChangeNotifications changes = new ChangeNotifications();
         int rowsUpdated;
 
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
+                if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                        || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                    // rows moving to another location or day; not worth working out where to
+                    changes.addAllWeather();
+                } else {
+                    changes.addWeatherWhere(db, selection, selectionArgs);
+                }
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
             case LOCATION:
+                changes.addUri(uri);
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
+            case HOURLY:
+                if (values.containsKey(WeatherContract.HourlyEntry.COLUMN_LOC_KEY)) {
+                    changes.addAllHourly();
+                } else {
+                    changes.addHourlyWhere(db, selection, selectionArgs);
+                }
+                rowsUpdated = db.update(WeatherContract.HourlyEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
+                break;
+            case SYNC_METRICS:
+                // no notification, see insert
+                return db.update(WeatherContract.SyncMetricsEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changes);
         }
         return rowsUpdated;
     }
@@ -319,27 +585,211 @@ public class WeatherProvider extends ContentProvider {
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        final ChangeNotifications changes = new ChangeNotifications();
+        int returnCount;
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                if (uri.getBooleanQueryParameter(WeatherContract.WeatherEntry.PARAM_MERGE, false)) {
+                    return mergeWeather(values);
+                }
+                returnCount = insertAll(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                        ForecastWriter.SQL_INSERT_WEATHER, ForecastWriter.INSERT_WEATHER_COLUMNS,
+                        values);
+                // dates normalized by insertAll
+                for (ContentValues value : values) {
+                    changes.addWeather(value);
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                break;
+            case HOURLY:
+                returnCount = insertAll(db, WeatherContract.HourlyEntry.TABLE_NAME,
+                        ForecastWriter.SQL_INSERT_HOUR, ForecastWriter.INSERT_HOUR_COLUMNS,
+                        values);
+                for (ContentValues value : values) {
+                    changes.addHourly(value);
+                }
+                break;
             default:
                 return super.bulkInsert(uri, values);
         }
+        notifyChange(changes);
+        return returnCount;
+    }
+
+    /**
+     * Inserts every row in one transaction, through one compiled INSERT bound by position,
+     * instead of having db.insert build, compile and bind by name for each row.  Weather dates
+     * are normalized in the ContentValues first, as they always were.  A row that doesn't have
+     * exactly the statement's columns goes through db.insert like before, so it defaults or
+     * fails the same way it always did.
+     *
+     * @return the number of rows inserted.
+     */
+    static int insertAll(SQLiteDatabase db, String table, String sql, String[] columns,
+                         ContentValues[] values) {
+        boolean hasDates = WeatherContract.WeatherEntry.TABLE_NAME.equals(table);
+        int returnCount = 0;
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement(sql);
+        try {
+            for (ContentValues value : values) {
+                if (hasDates) {
+                    normalizeDate(value);
+                }
+                long _id;
+                if (bindRow(insert, columns, value)) {
+                    try {
+                        _id = insert.executeInsert();
+                    } catch (SQLException e) {
+                        // what db.insert does too
+                        Log.e(LOG_TAG, "Error inserting " + value + " into " + table, e);
+                        _id = -1;
+                    }
+                } else {
+                    _id = db.insert(table, null, value);
+                }
+                if (_id != -1) {
+                    returnCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    // Binds the row's values in column order.  false if it doesn't have exactly those columns.
+    private static boolean bindRow(SQLiteStatement insert, String[] columns, ContentValues value) {
+        if (value.size() != columns.length) {
+            return false;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            if (!value.containsKey(columns[i])) {
+                return false;
+            }
+            DatabaseUtils.bindObjectToProgram(insert, i + 1, value.get(columns[i]));
+        }
+        return true;
+    }
+
+    // bulkInsert in merge mode.  ForecastWriter does the comparing, and only notifies if rows
+    // were actually written.  Every column has to be there: a row that's missing one, or has
+    // something that isn't a number in a numeric one, fails the whole call and nothing of it
+    // is written.
+    private int mergeWeather(ContentValues[] values) {
+        ForecastWriter writer = openForecastWriter();
+        try {
+            for (ContentValues value : values) {
+                writer.mergeWeather(
+                        getMergeLong(value, WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                        getMergeLong(value, WeatherContract.WeatherEntry.COLUMN_DATE),
+                        getMergeString(value, WeatherContract.WeatherEntry.COLUMN_SHORT_DESC),
+                        getMergeInt(value, WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                        getMergeDouble(value, WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                        getMergeDouble(value, WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                        getMergeDouble(value, WeatherContract.WeatherEntry.COLUMN_HUMIDITY),
+                        getMergeDouble(value, WeatherContract.WeatherEntry.COLUMN_PRESSURE),
+                        getMergeDouble(value, WeatherContract.WeatherEntry.COLUMN_WIND_SPEED),
+                        getMergeDouble(value, WeatherContract.WeatherEntry.COLUMN_DEGREES));
+            }
+            ForecastWriter.Changes changes = writer.commit();
+            return changes.weatherRowsInserted + changes.weatherRowsUpdated;
+        } finally {
+            // without the commit, this rolls back whatever rows went in before a bad one
+            writer.close();
+        }
+    }
+
+    private static long getMergeLong(ContentValues value, String column) {
+        Long l = value.getAsLong(column);
+        if (l == null) {
+            throw missingMergeColumn(value, column);
+        }
+        return l;
+    }
+
+    private static int getMergeInt(ContentValues value, String column) {
+        Integer i = value.getAsInteger(column);
+        if (i == null) {
+            throw missingMergeColumn(value, column);
+        }
+        return i;
+    }
+
+    private static double getMergeDouble(ContentValues value, String column) {
+        Double d = value.getAsDouble(column);
+        if (d == null) {
+            throw missingMergeColumn(value, column);
+        }
+        return d;
+    }
+
+    private static String getMergeString(ContentValues value, String column) {
+        String s = value.getAsString(column);
+        if (s == null) {
+            throw missingMergeColumn(value, column);
+        }
+        return s;
+    }
+
+    private static IllegalArgumentException missingMergeColumn(ContentValues value,
+                                                               String column) {
+        return new IllegalArgumentException("Merge row has no usable " + column + ": " + value);
+    }
+
+    /**
+     * Applies the whole batch in one transaction, so either every operation sticks or none
+     * does, and nobody reads the weather halfway through it.  Change notifications are held
+     * back until the commit and then sent once per location, however many operations touched
+     * it: a batch that inserts, purges and updates wakes each observer up once.  A batch that
+     * fails notifies nobody.  Yield points are ignored, since yielding would commit half the
+     * batch.  A merging bulkInsert called on this thread during the batch is part of it too.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ChangeNotifications pending = new ChangeNotifications();
+        mPendingNotifications.set(pending);
+        ContentProviderResult[] results;
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mPendingNotifications.remove();
+        }
+        boolean changed = !pending.isEmpty();
+        pending.send(getContext().getContentResolver(), db);
+        // Any ForecastWriter in the batch left this to us, see openForecastWriter.
+        if (changed) {
+            WeatherDbHelper.checkpoint(db);
+        }
+        return results;
+    }
+
+    // Notifies now, or at the end of the batch if this thread is in one.
+    private void notifyChange(ChangeNotifications changes) {
+        ChangeNotifications pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.addAll(changes);
+        } else {
+            changes.send(getContext().getContentResolver(), mOpenHelper.getReadableDatabase());
+        }
+    }
+
+    /**
+     * Opens a {@link ForecastWriter} that streams rows into the weather database inside one
+     * transaction.  Only callers in our own process can get at this, through
+     * {@link android.content.ContentProviderClient#getLocalContentProvider()}.
+     */
+    public ForecastWriter openForecastWriter() {
+        // Opened inside applyBatch, say by a merging bulkInsert, the writer's transaction only
+        // nests in the batch's, so its notifications wait for the batch like everyone else's.
+        return new ForecastWriter(getContext().getContentResolver(),
+                mOpenHelper.getWritableDatabase(), mPendingNotifications.get());
     }
 
     // You do not need to call this method. This is a method specifically to assist the testing
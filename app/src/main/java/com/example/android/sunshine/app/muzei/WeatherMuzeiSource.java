@@ -18,11 +18,16 @@ package com.example.android.sunshine.app.muzei;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
+import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncCoordinator;
+import com.example.android.sunshine.app.sync.WeatherFanOut;
+import com.example.android.sunshine.app.sync.WeatherSnapshot;
 import com.google.android.apps.muzei.api.Artwork;
 import com.google.android.apps.muzei.api.MuzeiArtSource;
 
@@ -42,6 +47,23 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
         super("WeatherMuzeiSource");
     }
 
+    // Whether anybody is showing our source decides, among other things, how often we sync.
+    @Override
+    protected void onEnabled() {
+        setActive(true);
+    }
+
+    @Override
+    protected void onDisabled() {
+        setActive(false);
+    }
+
+    private void setActive(boolean active) {
+        PreferenceManager.getDefaultSharedPreferences(this).edit()
+                .putBoolean(getString(R.string.pref_muzei_active_key), active)
+                .apply();
+    }
+
     @Override
     protected void onHandleIntent(Intent intent) {
         super.onHandleIntent(intent);
@@ -55,25 +77,39 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
     @Override
     protected void onUpdate(int reason) {
         String location = Utility.getPreferredLocation(this);
-        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
-                location, System.currentTimeMillis());
+        WeatherSnapshot snapshot = WeatherFanOut.getCurrentSnapshot(this);
+        if (snapshot != null && snapshot.getFirstDay() != null) {
+            // A sync just finished and already read today's data for us, or this is a cold start
+            // and the last one left it on disk.
+            SyncCoordinator.revalidate(this, snapshot);
+            publishWeather(location, snapshot.getFirstDay().weatherId,
+                    snapshot.getFirstDay().shortDesc);
+            return;
+        }
+
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildRevalidatingUri(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        location, System.currentTimeMillis()),
+                SyncCoordinator.FRESHNESS_WINDOW_MILLIS);
         Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
                 null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
         if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            String desc = cursor.getString(INDEX_SHORT_DESC);
-
-            String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
-            // Only publish a new wallpaper if we have a valid image
-            if (imageUrl != null) {
-                publishArtwork(new Artwork.Builder()
-                        .imageUri(Uri.parse(imageUrl))
-                        .title(desc)
-                        .byline(location)
-                        .viewIntent(new Intent(this, MainActivity.class))
-                        .build());
-            }
+            publishWeather(location, cursor.getInt(INDEX_WEATHER_ID),
+                    cursor.getString(INDEX_SHORT_DESC));
         }
         cursor.close();
     }
+
+    private void publishWeather(String location, int weatherId, String desc) {
+        String imageUrl = Utility.getImageUrlForWeatherCondition(weatherId);
+        // Only publish a new wallpaper if we have a valid image
+        if (imageUrl != null) {
+            publishArtwork(new Artwork.Builder()
+                    .imageUri(Uri.parse(imageUrl))
+                    .title(desc)
+                    .byline(location)
+                    .viewIntent(new Intent(this, MainActivity.class))
+                    .build());
+        }
+    }
 }
@@ -0,0 +1,114 @@
+package com.example.android.sunshine.app.sync;
+
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.ForecastWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Glue between {@link ForecastParser} and {@link ForecastWriter}: every day is written to the
+ * database as soon as the parser hands it over.
+ *
+ * The only time rows are held back is when the location isn't in the database yet and the
+ * server sends the "city" object after the "list" (the hourly endpoint does this).  Those days
+ * are kept until the city arrives and we have a location ID to write them against.
+ */
+class ForecastIngester implements ForecastParser.Handler {
+
+    private final ForecastWriter mWriter;
+    private final String mLocationSetting;
+    private final SyncDeadline mDeadline;
+
+    // OWM returns daily forecasts based upon the local time of the city that is being
+    // asked for, which means that we need to know the GMT offset to translate this data
+    // properly.  Since this data is also sent in-order and the first day is always the
+    // current day, we use the position of each day to get a nice normalized UTC date.
+    private final int mJulianStartDay;
+    private final Time mUtcTime = new Time();
+
+    private long mLocationId;
+    private ArrayList<ForecastParser.Day> mPendingDays;
+    private int mDaysReceived;
+    private int mDaysWritten;
+
+    /**
+     * @param deadline checked before every day is written.  If the sync has to stop, the day
+     *                 callbacks throw and the writer's transaction is left to be rolled back.
+     */
+    ForecastIngester(ForecastWriter writer, String locationSetting, int julianStartDay,
+                     SyncDeadline deadline) {
+        mWriter = writer;
+        mLocationSetting = locationSetting;
+        mDeadline = deadline;
+        mJulianStartDay = julianStartDay;
+        mLocationId = writer.getLocationId(locationSetting);
+    }
+
+    @Override
+    public void onCity(long cityId, String cityName, double lat, double lon) throws IOException {
+        mDeadline.check("writing the location");
+        // Also done for locations we already have, so a new or changed city id gets stored.
+        mLocationId = mWriter.addLocation(mLocationSetting, cityId, cityName, lat, lon);
+        if (mPendingDays != null) {
+            for (ForecastParser.Day day : mPendingDays) {
+                writeDay(day);
+            }
+            mPendingDays = null;
+        }
+    }
+
+    @Override
+    public void onDay(ForecastParser.Day day) throws IOException {
+        mDeadline.check("writing day " + day.index);
+        if (mLocationId == -1) {
+            if (mPendingDays == null) {
+                mPendingDays = new ArrayList<ForecastParser.Day>();
+            }
+            mPendingDays.add(day.copy());
+        } else {
+            writeDay(day);
+        }
+    }
+
+    private void writeDay(ForecastParser.Day day) {
+        // Cheating to convert this to UTC time, which is what we want anyhow
+        long dateTime = mUtcTime.setJulianDay(mJulianStartDay + day.index);
+        mDaysReceived++;
+        if (mWriter.mergeWeather(mLocationId, dateTime, day.description, day.weatherId,
+                day.low, day.high, day.humidity, day.pressure, day.windSpeed, day.windDirection)) {
+            mDaysWritten++;
+        }
+    }
+
+    /**
+     * @return the row ID of the location the days were written against, or -1 if the server
+     * never told us about the city.
+     */
+    long getLocationId() {
+        return mLocationId;
+    }
+
+    /**
+     * @return the number of days the server sent us.
+     */
+    int getDaysReceived() {
+        return mDaysReceived;
+    }
+
+    /**
+     * @return the number of days that were new or different from what we had stored.
+     */
+    int getDaysWritten() {
+        return mDaysWritten;
+    }
+
+    /**
+     * @return the UTC date of the day before the first day in the forecast.  Anything on or
+     * before it is history.
+     */
+    long getYesterday() {
+        return mUtcTime.setJulianDay(mJulianStartDay - 1);
+    }
+}
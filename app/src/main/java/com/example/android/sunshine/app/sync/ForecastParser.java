@@ -0,0 +1,302 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pull parser for the OpenWeatherMap daily forecast response.
+ *
+ * Rather than reading the whole body into a String and building a JSONObject tree just to pull
+ * a handful of fields out of each day, this walks the response token by token straight off the
+ * connection's InputStream and hands the city and every day to a {@link Handler} as soon as they
+ * have been decoded.  Only primitive fields are kept; everything else is skipped in the stream.
+ */
+class ForecastParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_ID = "id";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Every one of these has to show up in a day, just like the getXXX() calls on the old
+    // JSONObject path, otherwise the response is treated as invalid.
+    private static final int FIELD_PRESSURE = 1;
+    private static final int FIELD_HUMIDITY = 1 << 1;
+    private static final int FIELD_WIND_SPEED = 1 << 2;
+    private static final int FIELD_WIND_DIRECTION = 1 << 3;
+    private static final int FIELD_MAX = 1 << 4;
+    private static final int FIELD_MIN = 1 << 5;
+    private static final int FIELD_DESCRIPTION = 1 << 6;
+    private static final int FIELD_WEATHER_ID = 1 << 7;
+    private static final int FIELDS_REQUIRED = (1 << 8) - 1;
+
+    /**
+     * One decoded day of the forecast.  The parser reuses a single instance for every day, so
+     * handlers must copy out whatever they want to keep before returning.
+     */
+    static final class Day {
+        // Position of the day in the "list" array.  Day 0 is always today in the city's timezone.
+        int index;
+        double pressure;
+        int humidity;
+        double windSpeed;
+        double windDirection;
+        double high;
+        double low;
+        String description;
+        int weatherId;
+
+        int fields;
+
+        void reset(int index) {
+            this.index = index;
+            pressure = 0;
+            humidity = 0;
+            windSpeed = 0;
+            windDirection = 0;
+            high = 0;
+            low = 0;
+            description = null;
+            weatherId = 0;
+            fields = 0;
+        }
+
+        Day copy() {
+            Day day = new Day();
+            day.index = index;
+            day.pressure = pressure;
+            day.humidity = humidity;
+            day.windSpeed = windSpeed;
+            day.windDirection = windDirection;
+            day.high = high;
+            day.low = low;
+            day.description = description;
+            day.weatherId = weatherId;
+            day.fields = fields;
+            return day;
+        }
+    }
+
+    interface Handler {
+        /**
+         * Called once the "city" object has been read.
+         *
+         * @param cityId OpenWeatherMap's id for the city, or -1 if the response didn't have one
+         */
+        void onCity(long cityId, String cityName, double lat, double lon) throws IOException;
+
+        /**
+         * Called for every element of the "list" array, in order.
+         */
+        void onDay(Day day) throws IOException;
+    }
+
+    private final Day mDay = new Day();
+
+    /**
+     * Parses a forecast response, calling into the handler as the city and each day arrive.
+     *
+     * @param in the response body, read as UTF-8.  It is not closed by this method.
+     * @param handler receives the decoded values
+     * @return the "cod" message code of the response, HTTP_OK if the server didn't send one.  If
+     * the server reports an error, parsing stops as soon as the code is seen.
+     * @throws IOException if the stream could not be read (including an empty stream)
+     * @throws JSONException if the stream was read but isn't a forecast we understand
+     */
+    int parse(InputStream in, Handler handler) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            int code = HttpURLConnection.HTTP_OK;
+            boolean sawCity = false;
+            boolean sawList = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    code = reader.nextInt();
+                    if (code != HttpURLConnection.HTTP_OK) {
+                        // No point in reading the rest, it won't contain a forecast.
+                        return code;
+                    }
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, handler);
+                    sawCity = true;
+                } else if (OWM_LIST.equals(name)) {
+                    readList(reader, handler);
+                    sawList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (!sawCity || !sawList) {
+                throw new JSONException("Forecast is missing " + (sawCity ? OWM_LIST : OWM_CITY));
+            }
+            return code;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // The bytes arrived fine, they just don't make sense.  Report it the same way the
+            // JSONObject path did so callers can tell a bad server from a bad network.
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        }
+    }
+
+    private void readCity(JsonReader reader, Handler handler) throws IOException, JSONException {
+        long cityId = -1;
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+        boolean sawCoord = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_ID.equals(name)) {
+                cityId = reader.nextLong();
+            } else if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                int found = 0;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                        found |= 1;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                        found |= 2;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                sawCoord = (found == 3);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null || !sawCoord) {
+            throw new JSONException("Incomplete " + OWM_CITY + " in forecast");
+        }
+        handler.onCity(cityId, cityName, lat, lon);
+    }
+
+    private void readList(JsonReader reader, Handler handler) throws IOException, JSONException {
+        int index = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Day day = mDay;
+            day.reset(index++);
+            readDay(reader, day);
+            if (day.fields != FIELDS_REQUIRED) {
+                throw new JSONException("Incomplete day " + day.index + " in forecast");
+            }
+            handler.onDay(day);
+        }
+        reader.endArray();
+    }
+
+    private void readDay(JsonReader reader, Day day) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                day.pressure = reader.nextDouble();
+                day.fields |= FIELD_PRESSURE;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                day.humidity = (int) reader.nextDouble();
+                day.fields |= FIELD_HUMIDITY;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                day.windSpeed = reader.nextDouble();
+                day.fields |= FIELD_WIND_SPEED;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                day.windDirection = reader.nextDouble();
+                day.fields |= FIELD_WIND_DIRECTION;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        day.high = reader.nextDouble();
+                        day.fields |= FIELD_MAX;
+                    } else if (OWM_MIN.equals(tempName)) {
+                        day.low = reader.nextDouble();
+                        day.fields |= FIELD_MIN;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            day.description = reader.nextString();
+                            day.fields |= FIELD_DESCRIPTION;
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            day.weatherId = (int) reader.nextDouble();
+                            day.fields |= FIELD_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+}
@@ -0,0 +1,333 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends each forecast request to a primary source and, if that hasn't answered within its
+ * usual p95 response time, a second time to a backup: a mirror, or another provider.  Whichever
+ * good response comes back first is used and the other request is cancelled.
+ *
+ * On a bad network most of a sync's time goes to the odd request that hangs on one host, and
+ * this cuts that tail at the cost of a second request for the slowest few percent.  A primary
+ * that fails outright (a network error or a 5xx) is hedged right away rather than after the
+ * budget.
+ *
+ * The budget is learned from the primary's own response times.  Until there are enough of them
+ * a fixed default is used.
+ */
+class HedgedWeatherSource implements WeatherSource {
+    private static final String LOG_TAG = HedgedWeatherSource.class.getSimpleName();
+
+    static final long DEFAULT_HEDGE_DELAY_MILLIS = 2000;
+    // Hedging sooner than this would just double the requests on a good network.
+    static final long MIN_HEDGE_DELAY_MILLIS = 100;
+    static final int LATENCY_SAMPLES = 32;
+    static final int MIN_LATENCY_SAMPLES = 8;
+
+    // Requests block on the network, so every one gets its own thread.
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
+
+    private final WeatherSource mPrimary;
+    private final WeatherSource mBackup;
+    private final long mDefaultDelayMillis;
+
+    // The primary's latest response times, a ring buffer.  Guarded by this.
+    private final long[] mLatencies = new long[LATENCY_SAMPLES];
+    private int mLatencyCount;
+
+    HedgedWeatherSource(WeatherSource primary, WeatherSource backup) {
+        this(primary, backup, DEFAULT_HEDGE_DELAY_MILLIS);
+    }
+
+    /**
+     * @param defaultDelayMillis how long to wait for the primary before hedging, until we have
+     *                           seen enough of its responses to know its p95
+     */
+    HedgedWeatherSource(WeatherSource primary, WeatherSource backup, long defaultDelayMillis) {
+        mPrimary = primary;
+        mBackup = backup;
+        mDefaultDelayMillis = defaultDelayMillis;
+    }
+
+    @Override
+    public Response fetchForecast(String locationSetting, long cityId, String[] validators)
+            throws IOException {
+        Race race = new Race();
+        CompletionService<Attempt> completion = new ExecutorCompletionService<Attempt>(sExecutor);
+        Future<Attempt> primary = completion.submit(
+                new AttemptCall(mPrimary, locationSetting, cityId, validators, race));
+        Future<Attempt> backup = null;
+        try {
+            Attempt first = null;
+            long hedgeDelay = getHedgeDelayMillis();
+            Future<Attempt> done = completion.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            if (done != null) {
+                first = done.get();
+                if (first.isGood()) {
+                    return race.finish(first);
+                }
+                Log.d(LOG_TAG, "Primary failed, asking the backup for " + locationSetting);
+            } else {
+                Log.d(LOG_TAG, "No answer in " + hedgeDelay + "ms, hedging " + locationSetting);
+            }
+
+            backup = completion.submit(
+                    new AttemptCall(mBackup, locationSetting, cityId, validators, race));
+            Attempt fallback = first;
+            for (int pending = first == null ? 2 : 1; pending > 0; pending--) {
+                Attempt attempt = completion.take().get();
+                if (attempt.isGood()) {
+                    return race.finish(attempt);
+                }
+                // Neither is good yet.  If it stays that way, report the primary's answer.
+                if (fallback == null
+                        || (fallback.mSource != mPrimary && attempt.mSource == mPrimary)) {
+                    fallback = attempt;
+                }
+            }
+            return race.finish(fallback);
+        } catch (InterruptedException e) {
+            race.finish(null);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Hedged fetch interrupted");
+        } catch (ExecutionException e) {
+            race.finish(null);
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // Whoever is still running lost.  For HTTP the interrupt may not get through, in
+            // which case the race closes its response once it arrives.
+            primary.cancel(true);
+            if (backup != null) {
+                backup.cancel(true);
+            }
+        }
+    }
+
+    @Override
+    public int parseForecast(Response response, ForecastParser.Handler handler)
+            throws IOException, JSONException {
+        // Each response is decoded by the source it came from.
+        HedgedResponse hedged = (HedgedResponse) response;
+        return hedged.mSource.parseForecast(hedged.mResponse, handler);
+    }
+
+    /**
+     * The hourly forecast only goes to the primary.  It's extra detail the sync can do
+     * without, so it isn't worth a second request.
+     */
+    @Override
+    public Response fetchHourlyForecast(String locationSetting, long cityId) throws IOException {
+        return mPrimary.fetchHourlyForecast(locationSetting, cityId);
+    }
+
+    @Override
+    public int parseHourlyForecast(Response response, HourlyForecastParser.Handler handler)
+            throws IOException, JSONException {
+        return mPrimary.parseHourlyForecast(response, handler);
+    }
+
+    /**
+     * @return the p95 of the primary's recent response times, or the default if we haven't seen
+     * enough of them.
+     */
+    synchronized long getHedgeDelayMillis() {
+        int count = Math.min(mLatencyCount, LATENCY_SAMPLES);
+        if (count < MIN_LATENCY_SAMPLES) {
+            return mDefaultDelayMillis;
+        }
+        long[] sorted = Arrays.copyOf(mLatencies, count);
+        Arrays.sort(sorted);
+        // nearest rank, like the sync metrics summary
+        int rank = (95 * count + 99) / 100;
+        return Math.max(MIN_HEDGE_DELAY_MILLIS, sorted[rank - 1]);
+    }
+
+    private synchronized void addPrimaryLatency(long millis) {
+        mLatencies[mLatencyCount % LATENCY_SAMPLES] = millis;
+        mLatencyCount++;
+    }
+
+    /**
+     * What one source answered: a response or the IOException it threw.
+     */
+    private static class Attempt {
+        final WeatherSource mSource;
+        final Response mResponse;
+        final IOException mError;
+
+        Attempt(WeatherSource source, Response response, IOException error) {
+            mSource = source;
+            mResponse = response;
+            mError = error;
+        }
+
+        /**
+         * @return true if this is an answer we can stop on.  A 404 counts, since the other
+         * source won't know the city either.
+         */
+        boolean isGood() {
+            return mResponse != null
+                    && mResponse.getCode() < HttpURLConnection.HTTP_INTERNAL_ERROR;
+        }
+    }
+
+    /**
+     * Decides the winner and makes sure every other response gets closed, however late it
+     * arrives.
+     */
+    private static class Race {
+        private final ArrayList<Attempt> mFinished = new ArrayList<Attempt>(2);
+        private boolean mDecided;
+
+        /**
+         * Called on the request's thread once a source has answered.
+         */
+        synchronized void add(Attempt attempt) {
+            if (mDecided) {
+                close(attempt);
+            } else {
+                mFinished.add(attempt);
+            }
+        }
+
+        /**
+         * Picks the winner, null for none, and closes everything else that has arrived.
+         *
+         * @return the winner as a response
+         * @throws IOException the winner's error, if it has no response
+         */
+        synchronized Response finish(Attempt winner) throws IOException {
+            mDecided = true;
+            for (Attempt attempt : mFinished) {
+                if (attempt != winner) {
+                    close(attempt);
+                }
+            }
+            mFinished.clear();
+            if (winner == null) {
+                return null;
+            }
+            if (winner.mResponse == null) {
+                throw winner.mError;
+            }
+            return new HedgedResponse(winner.mSource, winner.mResponse);
+        }
+
+        private void close(Attempt attempt) {
+            if (attempt.mResponse != null) {
+                attempt.mResponse.close();
+            }
+        }
+    }
+
+    private class AttemptCall implements Callable<Attempt> {
+        private final WeatherSource mSource;
+        private final String mLocationSetting;
+        private final long mCityId;
+        private final String[] mValidators;
+        private final Race mRace;
+
+        AttemptCall(WeatherSource source, String locationSetting, long cityId,
+                    String[] validators, Race race) {
+            mSource = source;
+            mLocationSetting = locationSetting;
+            mCityId = cityId;
+            mValidators = validators;
+            mRace = race;
+        }
+
+        @Override
+        public Attempt call() {
+            long start = SystemClock.elapsedRealtime();
+            Attempt attempt;
+            try {
+                attempt = new Attempt(mSource,
+                        mSource.fetchForecast(mLocationSetting, mCityId, mValidators), null);
+                if (mSource == mPrimary) {
+                    // Counted even if the backup won, so slow answers keep the budget honest.
+                    addPrimaryLatency(SystemClock.elapsedRealtime() - start);
+                }
+            } catch (IOException e) {
+                attempt = new Attempt(mSource, null, e);
+            }
+            mRace.add(attempt);
+            return attempt;
+        }
+    }
+
+    /**
+     * The winning response, remembering which source it came from so it can be decoded by it.
+     */
+    private static class HedgedResponse implements Response {
+        final WeatherSource mSource;
+        final Response mResponse;
+
+        HedgedResponse(WeatherSource source, Response response) {
+            mSource = source;
+            mResponse = response;
+        }
+
+        @Override
+        public int getCode() {
+            return mResponse.getCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mResponse.getHeader(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return mResponse.getBody();
+        }
+
+        @Override
+        public long getConnectMillis() {
+            return mResponse.getConnectMillis();
+        }
+
+        @Override
+        public long getTimeToFirstByteMillis() {
+            return mResponse.getTimeToFirstByteMillis();
+        }
+
+        @Override
+        public long getBodyReadMillis() {
+            return mResponse.getBodyReadMillis();
+        }
+
+        @Override
+        public long getBytesOnWire() {
+            return mResponse.getBytesOnWire();
+        }
+
+        @Override
+        public void abort() {
+            mResponse.abort();
+        }
+
+        @Override
+        public void close() {
+            mResponse.close();
+        }
+    }
+}
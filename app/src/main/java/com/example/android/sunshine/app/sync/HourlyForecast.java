@@ -0,0 +1,70 @@
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.data.ForecastWriter;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
+
+import java.util.Arrays;
+
+/**
+ * The hourly forecast of one location, held in memory between the fetch and the database
+ * write.
+ *
+ * Steps are encoded for {@link HourlyEntry} as they are parsed and packed into one int array,
+ * so a location's 40 steps take a couple of kilobytes whichever thread fetched them.  Steps
+ * that have already ended, and any past {@link HourlyEntry#MAX_ROWS_PER_LOCATION}, are
+ * dropped.
+ */
+class HourlyForecast implements HourlyForecastParser.Handler {
+
+    // Encoded values per step, in the order writeHour takes them.
+    private static final int STEP_SIZE = 7;
+
+    private final long mNow;
+    private int[] mSteps = new int[STEP_SIZE * 40];
+    private int mCount;
+
+    /**
+     * @param now seconds since the epoch
+     */
+    HourlyForecast(long now) {
+        mNow = now;
+    }
+
+    @Override
+    public void onHour(HourlyForecastParser.Hour hour) {
+        if (hour.time + HourlyEntry.STEP_SECONDS <= mNow
+                || mCount == HourlyEntry.MAX_ROWS_PER_LOCATION) {
+            return;
+        }
+        int offset = mCount * STEP_SIZE;
+        if (offset + STEP_SIZE > mSteps.length) {
+            mSteps = Arrays.copyOf(mSteps, mSteps.length * 2);
+        }
+        // Seconds since the epoch fit an int until 2038, and this only holds the next 5 days.
+        mSteps[offset] = (int) hour.time;
+        mSteps[offset + 1] = hour.weatherId;
+        mSteps[offset + 2] = HourlyEntry.toTenths(hour.temperature);
+        mSteps[offset + 3] = hour.humidity;
+        mSteps[offset + 4] = HourlyEntry.toTenths(hour.pressure);
+        mSteps[offset + 5] = HourlyEntry.toTenths(hour.windSpeed);
+        mSteps[offset + 6] = (int) Math.round(hour.windDirection);
+        mCount++;
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Replaces the stored hourly forecast of the location with this one.
+     */
+    void write(ForecastWriter writer, long locationId) {
+        writer.clearHourly(locationId);
+        for (int i = 0; i < mCount; i++) {
+            int offset = i * STEP_SIZE;
+            writer.writeHour(locationId, mSteps[offset], mSteps[offset + 1], mSteps[offset + 2],
+                    mSteps[offset + 3], mSteps[offset + 4], mSteps[offset + 5],
+                    mSteps[offset + 6]);
+        }
+    }
+}
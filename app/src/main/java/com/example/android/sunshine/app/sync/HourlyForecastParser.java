@@ -0,0 +1,212 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pull parser for the OpenWeatherMap 5 day / 3 hour forecast response, the hourly counterpart
+ * of {@link ForecastParser}.
+ *
+ * Each step is handed to the {@link Handler} as soon as it has been decoded.  The "city" object
+ * is skipped: this endpoint sends it after the list, and the sync only asks for the hourly
+ * forecast of locations it already has.
+ */
+class HourlyForecastParser {
+
+    private static final String OWM_LIST = "list";
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    // Start of the step, in seconds since the epoch
+    private static final String OWM_TIME = "dt";
+
+    // Temperature, pressure and humidity are children of the "main" object.
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+
+    // Wind speed and direction are children of the "wind" object.
+    private static final String OWM_WIND = "wind";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_WEATHER_ID = "id";
+
+    // Every one of these has to show up in a step, otherwise the response is treated as
+    // invalid, same as a day missing a field in the daily forecast.
+    private static final int FIELD_TIME = 1;
+    private static final int FIELD_TEMPERATURE = 1 << 1;
+    private static final int FIELD_PRESSURE = 1 << 2;
+    private static final int FIELD_HUMIDITY = 1 << 3;
+    private static final int FIELD_WIND_SPEED = 1 << 4;
+    private static final int FIELD_WIND_DIRECTION = 1 << 5;
+    private static final int FIELD_WEATHER_ID = 1 << 6;
+    private static final int FIELDS_REQUIRED = (1 << 7) - 1;
+
+    /**
+     * One decoded 3-hour step.  The parser reuses a single instance for every step, so handlers
+     * must copy out whatever they want to keep before returning.
+     */
+    static final class Hour {
+        long time;
+        double temperature;
+        double pressure;
+        int humidity;
+        double windSpeed;
+        double windDirection;
+        int weatherId;
+
+        int fields;
+
+        void reset() {
+            time = 0;
+            temperature = 0;
+            pressure = 0;
+            humidity = 0;
+            windSpeed = 0;
+            windDirection = 0;
+            weatherId = 0;
+            fields = 0;
+        }
+    }
+
+    interface Handler {
+        /**
+         * Called for every element of the "list" array, in order.
+         */
+        void onHour(Hour hour) throws IOException;
+    }
+
+    private final Hour mHour = new Hour();
+
+    /**
+     * Parses an hourly forecast response, calling into the handler as each step arrives.
+     *
+     * @param in the response body, read as UTF-8.  It is not closed by this method.
+     * @return the "cod" message code of the response, HTTP_OK if the server didn't send one.
+     * @throws IOException if the stream could not be read (including an empty stream)
+     * @throws JSONException if the stream was read but isn't a forecast we understand
+     */
+    int parse(InputStream in, Handler handler) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            int code = HttpURLConnection.HTTP_OK;
+            boolean sawList = false;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    code = reader.nextInt();
+                    if (code != HttpURLConnection.HTTP_OK) {
+                        return code;
+                    }
+                } else if (OWM_LIST.equals(name)) {
+                    readList(reader, handler);
+                    sawList = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (!sawList) {
+                throw new JSONException("Hourly forecast is missing " + OWM_LIST);
+            }
+            return code;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        }
+    }
+
+    private void readList(JsonReader reader, Handler handler) throws IOException, JSONException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Hour hour = mHour;
+            hour.reset();
+            readHour(reader, hour);
+            if (hour.fields != FIELDS_REQUIRED) {
+                throw new JSONException("Incomplete step at " + hour.time + " in forecast");
+            }
+            handler.onHour(hour);
+        }
+        reader.endArray();
+    }
+
+    private void readHour(JsonReader reader, Hour hour) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                hour.time = reader.nextLong();
+                hour.fields |= FIELD_TIME;
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String mainName = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(mainName)) {
+                        hour.temperature = reader.nextDouble();
+                        hour.fields |= FIELD_TEMPERATURE;
+                    } else if (OWM_PRESSURE.equals(mainName)) {
+                        hour.pressure = reader.nextDouble();
+                        hour.fields |= FIELD_PRESSURE;
+                    } else if (OWM_HUMIDITY.equals(mainName)) {
+                        hour.humidity = (int) reader.nextDouble();
+                        hour.fields |= FIELD_HUMIDITY;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String windName = reader.nextName();
+                    if (OWM_WINDSPEED.equals(windName)) {
+                        hour.windSpeed = reader.nextDouble();
+                        hour.fields |= FIELD_WIND_SPEED;
+                    } else if (OWM_WIND_DIRECTION.equals(windName)) {
+                        hour.windDirection = reader.nextDouble();
+                        hour.fields |= FIELD_WIND_DIRECTION;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // One element long, like in the daily forecast.
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (OWM_WEATHER_ID.equals(reader.nextName())) {
+                            hour.weatherId = (int) reader.nextDouble();
+                            hour.fields |= FIELD_WEATHER_ID;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+}
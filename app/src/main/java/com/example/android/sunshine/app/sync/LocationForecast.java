@@ -0,0 +1,67 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * The outcome of fetching the forecast for one location, held in memory.
+ *
+ * Used when several locations are fetched in parallel: each fetch thread parses into one of
+ * these, and the sync thread then replays them all into a single database transaction.  Only
+ * the decoded primitive fields are kept, so this stays small.
+ */
+class LocationForecast implements ForecastParser.Handler {
+
+    final String mLocationSetting;
+
+    @SunshineSyncAdapter.LocationStatus
+    int mStatus = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+    // True if the server answered 304 and what we have stored is still current.
+    boolean mNotModified;
+
+    String mEtag;
+    String mLastModified;
+    // The hourly forecast, if it was asked for and could be had.
+    HourlyForecast mHourly;
+
+    private long mCityId;
+    private String mCityName;
+    private double mLat;
+    private double mLon;
+    private final ArrayList<ForecastParser.Day> mDays = new ArrayList<ForecastParser.Day>(16);
+
+    LocationForecast(String locationSetting) {
+        mLocationSetting = locationSetting;
+    }
+
+    @Override
+    public void onCity(long cityId, String cityName, double lat, double lon) {
+        mCityId = cityId;
+        mCityName = cityName;
+        mLat = lat;
+        mLon = lon;
+    }
+
+    @Override
+    public void onDay(ForecastParser.Day day) {
+        mDays.add(day.copy());
+    }
+
+    /**
+     * @return true if there is a new forecast to write.
+     */
+    boolean hasForecast() {
+        return mStatus == SunshineSyncAdapter.LOCATION_STATUS_OK && !mNotModified
+                && mCityName != null;
+    }
+
+    /**
+     * Hands the city and the days to another handler, in the order the parser would have.
+     */
+    void replay(ForecastParser.Handler handler) throws IOException {
+        handler.onCity(mCityId, mCityName, mLat, mLon);
+        for (ForecastParser.Day day : mDays) {
+            handler.onDay(day);
+        }
+    }
+}
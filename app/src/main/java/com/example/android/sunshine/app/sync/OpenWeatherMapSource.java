@@ -0,0 +1,174 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+
+/**
+ * Fetches the daily and the 3-hourly forecast from OpenWeatherMap.
+ */
+class OpenWeatherMapSource implements WeatherSource {
+    private static final String LOG_TAG = OpenWeatherMapSource.class.getSimpleName();
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    static final String HOURLY_FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast?";
+
+    private final String mForecastBaseUrl;
+    private final String mHourlyForecastBaseUrl;
+
+    OpenWeatherMapSource() {
+        this(FORECAST_BASE_URL);
+    }
+
+    /**
+     * @param forecastBaseUrl where to send the requests instead of OpenWeatherMap, e.g. a
+     *                        local stand-in server in tests
+     */
+    OpenWeatherMapSource(String forecastBaseUrl) {
+        this(forecastBaseUrl, HOURLY_FORECAST_BASE_URL);
+    }
+
+    OpenWeatherMapSource(String forecastBaseUrl, String hourlyForecastBaseUrl) {
+        mForecastBaseUrl = forecastBaseUrl;
+        mHourlyForecastBaseUrl = hourlyForecastBaseUrl;
+    }
+
+    /**
+     * Sends the forecast request for one location.
+     *
+     * If we know OpenWeatherMap's id for the city we ask by id, which the server resolves
+     * exactly instead of running a search on the location setting.  Should the id request fail
+     * with an HTTP error (the id was retired, say) we ask again by the location setting, and the
+     * answer to that brings the current id with it.  Network errors aren't retried; asking the
+     * same unreachable server a second time would only double the wait.
+     */
+    @Override
+    public Response fetchForecast(String locationSetting, long cityId, String[] validators)
+            throws IOException {
+        HashMap<String, String> headers = buildConditionalHeaders(validators);
+        WeatherHttpClient.Response response = WeatherHttpClient.getInstance().get(
+                buildForecastUrl(locationSetting, cityId), headers);
+        if (cityId != -1 && response.getCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            Log.d(LOG_TAG, "Request for city " + cityId + " failed with " + response.getCode()
+                    + ", asking for " + locationSetting + " instead");
+            response.close();
+            response = WeatherHttpClient.getInstance().get(
+                    buildForecastUrl(locationSetting, -1), headers);
+        }
+        return response;
+    }
+
+    @Override
+    public int parseForecast(Response response, ForecastParser.Handler handler)
+            throws IOException, JSONException {
+        return new ForecastParser().parse(response.getBody(), handler);
+    }
+
+    /**
+     * Same as the daily forecast, including the fallback from a failed city id request to the
+     * location setting.
+     */
+    @Override
+    public Response fetchHourlyForecast(String locationSetting, long cityId) throws IOException {
+        HashMap<String, String> headers = new HashMap<String, String>();
+        WeatherHttpClient.Response response = WeatherHttpClient.getInstance().get(
+                buildHourlyForecastUrl(locationSetting, cityId), headers);
+        if (cityId != -1 && response.getCode() >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            response.close();
+            response = WeatherHttpClient.getInstance().get(
+                    buildHourlyForecastUrl(locationSetting, -1), headers);
+        }
+        return response;
+    }
+
+    @Override
+    public int parseHourlyForecast(Response response, HourlyForecastParser.Handler handler)
+            throws IOException, JSONException {
+        return new HourlyForecastParser().parse(response.getBody(), handler);
+    }
+
+    /**
+     * Builds the URL for the OpenWeatherMap daily forecast of a location.
+     *
+     * OWM has no daily forecast call that takes several cities at once (its "group" call only
+     * returns current conditions), so this is always one city per request.
+     *
+     * @param cityId OpenWeatherMap's id for the city.  If it's -1 the location setting is sent as
+     * the query instead.
+     */
+    URL buildForecastUrl(String locationQuery, long cityId) throws MalformedURLException {
+        String format = "json";
+        String units = "metric";
+        int numDays = 14;
+
+        final String QUERY_PARAM = "q";
+        final String CITY_ID_PARAM = "id";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        Uri.Builder builder = Uri.parse(mForecastBaseUrl).buildUpon();
+        if (cityId != -1) {
+            builder.appendQueryParameter(CITY_ID_PARAM, Long.toString(cityId));
+        } else {
+            builder.appendQueryParameter(QUERY_PARAM, locationQuery);
+        }
+        Uri builtUri = builder
+                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        return new URL(builtUri.toString());
+    }
+
+    /**
+     * Builds the URL for the OpenWeatherMap 5 day forecast in 3-hour steps.  It always returns
+     * all 40 steps, so there is no count to send.
+     */
+    URL buildHourlyForecastUrl(String locationQuery, long cityId) throws MalformedURLException {
+        Uri.Builder builder = Uri.parse(mHourlyForecastBaseUrl).buildUpon();
+        if (cityId != -1) {
+            builder.appendQueryParameter("id", Long.toString(cityId));
+        } else {
+            builder.appendQueryParameter("q", locationQuery);
+        }
+        Uri builtUri = builder
+                .appendQueryParameter("mode", "json")
+                .appendQueryParameter("units", "metric")
+                .appendQueryParameter("APPID", BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        return new URL(builtUri.toString());
+    }
+
+    /**
+     * @param validators the ETag and Last-Modified stored with the last forecast, if any
+     * @return the headers that turn the forecast request into a conditional one
+     */
+    private static HashMap<String, String> buildConditionalHeaders(String[] validators) {
+        HashMap<String, String> headers = new HashMap<String, String>();
+        if (validators[0] != null) {
+            headers.put("If-None-Match", validators[0]);
+        }
+        if (validators[1] != null) {
+            headers.put("If-Modified-Since", validators[1]);
+        }
+        return headers;
+    }
+}
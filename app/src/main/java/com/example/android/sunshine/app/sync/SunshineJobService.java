@@ -0,0 +1,74 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.content.SyncResult;
+import android.os.Build;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the sync jobs scheduled by {@link SyncJobs}.
+ *
+ * Jobs are started on the main thread, so the sync itself runs on a single background thread,
+ * which also keeps two jobs from syncing at the same time the way the sync framework would.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SunshineJobService extends JobService {
+    private static final String LOG_TAG = SunshineJobService.class.getSimpleName();
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    // The last job started under each id, and the adapter running it, so it can be stopped.
+    // Main thread only.
+    private final SparseArray<Future<?>> mRunningJobs = new SparseArray<Future<?>>();
+    private final SparseArray<SunshineSyncAdapter> mRunningAdapters =
+            new SparseArray<SunshineSyncAdapter>();
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        Log.d(LOG_TAG, "Starting sync job " + params.getJobId());
+        final SunshineSyncAdapter adapter =
+                new SunshineSyncAdapter(getApplicationContext(), false);
+        Future<?> future = sExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                SyncResult syncResult =
+                        SyncJobs.runSync(getApplicationContext(), adapter, params.getExtras());
+                // A periodic job just waits for its next period.  A one-off that failed on a
+                // soft error goes again after the job's backoff, and SyncBackoff turns it away
+                // if that's too soon.
+                boolean reschedule = !SyncJobs.isPeriodic(params.getJobId())
+                        && syncResult.hasSoftError();
+                jobFinished(params, reschedule);
+                Log.d(LOG_TAG, "Sync job " + params.getJobId() + " done, " + syncResult);
+            }
+        });
+        mRunningJobs.put(params.getJobId(), future);
+        mRunningAdapters.put(params.getJobId(), adapter);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The constraints went away, e.g. we lost the network.  Give up, rolling back whatever
+        // the sync wrote, and try again later.
+        Log.d(LOG_TAG, "Stopping sync job " + params.getJobId());
+        SunshineSyncAdapter adapter = mRunningAdapters.get(params.getJobId());
+        mRunningAdapters.remove(params.getJobId());
+        if (adapter != null) {
+            adapter.onSyncCanceled();
+        }
+        Future<?> future = mRunningJobs.get(params.getJobId());
+        mRunningJobs.remove(params.getJobId());
+        if (future != null) {
+            future.cancel(true);
+        }
+        return true;
+    }
+}
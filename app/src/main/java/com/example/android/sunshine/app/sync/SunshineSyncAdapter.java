@@ -2,100 +2,78 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
+import android.content.ContentProvider;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
-import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
-import android.content.res.Resources;
-import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
-import android.support.annotation.NonNull;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
-import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
-import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.Asset;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
-
-import org.json.JSONArray;
+import com.example.android.sunshine.app.data.ForecastWriter;
+import com.example.android.sunshine.app.data.WeatherProvider;
+
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
+    // Interval at which to sync with the weather, in seconds, until SyncScheduler has seen
+    // enough syncs to pick one.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
-    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
-    private static final int WEATHER_NOTIFICATION_ID = 3004;
-
-    //And the data tag for android wear (note - we use data items rather than message. we really always want
-    //to have weather data on watch)
-    private final static String DATAITEM_PATH = "/sunshineWeather";
-    private final static String DATAITEM_LOW_TEMP = "low";
-    private final static String DATAITEM_HIGH_TEMP = "high";
-    private final static String DATAITEM_ICONBM = "iconbm";
 
-    //keep a copy of the googleapiclient around
-    private GoogleApiClient mGoogleApiClient;
+    // Where forecasts come from.  Only ever changed by tests and benchmarks, to sync from a
+    // local stand-in server or from recorded forecasts.
+    static volatile WeatherSource sWeatherSource = createWeatherSource();
+
+    // Sync extra asking for every location in the database to be refreshed, not just the
+    // preferred one.
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS = "sync_all_locations";
+    // Sync extra: locations whose forecast was synced less than this many milliseconds ago are
+    // left alone.  Without it every location asked for is fetched.  See SyncCoordinator.
+    public static final String SYNC_EXTRAS_MAX_AGE = "sync_max_age";
+    // Sync extra asking for the hourly forecast of every location synced to be refreshed as
+    // well.  It's a second request per location, so only the scheduled syncs ask for it.
+    public static final String SYNC_EXTRAS_HOURLY = "sync_hourly";
+    // How many locations we fetch at once when syncing all of them.
+    private static final int MAX_PARALLEL_FETCHES = 4;
+
+    // Widgets, Muzei, the notification and wear all hear about new data through this.
+    private final WeatherFanOut mFanOut;
 
     public static boolean mbUpdateOnce = true;
 
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
+    // The deadline of the sync in progress, so onSyncCanceled can stop it.  Null between syncs.
+    private volatile SyncDeadline mDeadline;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -110,16 +88,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
 
-        //lets also set up the google api client here
-        mGoogleApiClient = new GoogleApiClient.Builder(context)
-                .addApi(Wearable.API)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .build();
-
-        if (mGoogleApiClient != null) {
-            mGoogleApiClient.connect();
-        }
+        //the fan-out owns the google api client we talk to wear with
+        mFanOut = WeatherFanOut.getInstance(context);
 
         //Note - we will want to force an initial update on start of weather app to get good
         //data to watch if watch user had just re-connected. (reasonable to assume user would stop/start
@@ -127,7 +97,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         //settings (like units to display in). After the one-shot, this will no longer trigger for session
         //and the only updates will come if cp data store updates.
         if (mbUpdateOnce) {
-            updateWear();
+            mFanOut.updateWear();
         }
     }
 
@@ -139,182 +109,363 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         //Step1 - see if updateOnce flag set. If so, force update wear regardless of content provider/data.
         //(it means that the settings page changed its units).
         if (mbUpdateOnce) {
-            updateWear();
+            mFanOut.updateWear();
+        }
+        // A fan-out an earlier sync asked for may not have lived to run.  Nobody else would
+        // ask again unless the forecast changes once more.
+        mFanOut.resumePendingFanOut();
+
+        // The provider lives in our process, so rather than going through bulkInsert we stream
+        // rows straight into its database.
+        ContentProvider localProvider = provider.getLocalContentProvider();
+        if (!(localProvider instanceof WeatherProvider)) {
+            Log.e(LOG_TAG, "Weather provider is not local, can't sync");
+            return;
         }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        // While OpenWeatherMap is failing, leave it alone until the backoff says otherwise, no
+        // matter who asked for the sync.  A freshly changed location still gets validated,
+        // unless the circuit is open.
+        SyncBackoff backoff = new SyncBackoff(getContext());
+        boolean locationChanged =
+                Utility.getLocationStatus(getContext()) == LOCATION_STATUS_UNKNOWN;
+        boolean ignoreBackoff = extras != null
+                && extras.getBoolean(ContentResolver.SYNC_EXTRAS_IGNORE_BACKOFF, false);
+        if (!ignoreBackoff && !backoff.canSyncNow(locationChanged)) {
+            Log.d(LOG_TAG, "Backing off after " + backoff.getFailureCount() + " failures, next "
+                    + "sync no sooner than " + new Date(backoff.getNextAttemptTime()));
+            syncResult.delayUntil = backoff.getNextAttemptTime() / 1000;
+            return;
+        }
+
+        WeatherProvider weatherProvider = (WeatherProvider) localProvider;
+        SyncMetrics metrics = new SyncMetrics();
+        long maxAge = extras != null ? extras.getLong(SYNC_EXTRAS_MAX_AGE, 0) : 0;
+        boolean hourly = extras != null && extras.getBoolean(SYNC_EXTRAS_HOURLY, false);
+        SyncDeadline deadline = new SyncDeadline(SyncDeadline.SYNC_TIMEOUT_MILLIS);
+        mDeadline = deadline;
+        boolean fetched;
+        try {
+            if (extras != null && extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)) {
+                fetched = syncAllLocations(weatherProvider, locationQuery, maxAge, hourly,
+                        metrics, deadline);
+            } else {
+                fetched = syncLocation(weatherProvider, locationQuery, maxAge, metrics, deadline);
+                if (fetched && hourly
+                        && Utility.getLocationStatus(getContext()) == LOCATION_STATUS_OK) {
+                    try {
+                        syncHourly(weatherProvider, locationQuery, deadline);
+                    } catch (SyncDeadline.CancelledException e) {
+                        // The daily forecast is committed by now; only the hourly one is lost.
+                        Log.d(LOG_TAG, e.getMessage() + ", hourly forecast not updated");
+                    }
+                }
+            }
+        } catch (SyncDeadline.CancelledException e) {
+            // Everything the sync wrote was rolled back, so there is nothing to report but this.
+            Log.d(LOG_TAG, e.getMessage() + ", nothing was written");
+            if (!deadline.isCancelled()) {
+                // Out of time rather than called off: a soft error, so it is tried again.
+                syncResult.stats.numIoExceptions++;
+            }
+            return;
+        } finally {
+            deadline.finish();
+            mDeadline = null;
+        }
+        if (!fetched) {
+            // Everything asked for was fresh enough; nothing to record or report.
+            return;
+        }
+        long metricsId = metrics.record(getContext());
+        reportSyncResult(syncResult, metrics, backoff);
+        SyncScheduler.reschedule(getContext());
+
+        // Nobody downstream needs to hear about a forecast that didn't change.  The fan-out
+        // adds its own time to this sync's metrics once it has run.  An unchanged forecast
+        // still has a new sync time, which the snapshot file and the watch need to know about.
+        if (metrics.isDataChanged()) {
+            mFanOut.dataChanged(metricsId);
+        } else if (Utility.getLocationStatus(getContext()) == LOCATION_STATUS_OK) {
+            mFanOut.syncConfirmed();
+        }
+    }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+    /**
+     * Stops the sync in progress at its next check, and aborts any download it is waiting on.
+     * Whatever it wrote so far is rolled back.
+     */
+    @Override
+    public void onSyncCanceled() {
+        SyncDeadline deadline = mDeadline;
+        if (deadline != null) {
+            deadline.cancel();
+        }
+        super.onSyncCanceled();
+    }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+    /**
+     * Tells the sync framework how the sync went, so it can back off along with us.  Server
+     * trouble is a soft error the framework will retry, a forecast we can't read a hard one it
+     * won't, and either way delayUntil holds off retries until our own backoff allows them.
+     * This goes by what this sync's own requests got back, not by the stored location status,
+     * which only follows the preferred location and may be left over from an earlier sync.
+     */
+    private void reportSyncResult(SyncResult syncResult, SyncMetrics metrics,
+                                  SyncBackoff backoff) {
+        metrics.addTo(syncResult.stats);
+        switch (metrics.getResult()) {
+            case LOCATION_STATUS_OK:
+            case LOCATION_STATUS_INVALID:
+                // The server answered; a location it doesn't know is the user's problem.
+                backoff.onSuccess();
+                break;
+            case LOCATION_STATUS_SERVER_DOWN:
+                syncResult.stats.numIoExceptions++;
+                syncResult.delayUntil = backoff.onFailure() / 1000;
+                break;
+            case LOCATION_STATUS_SERVER_INVALID:
+                syncResult.stats.numParseExceptions++;
+                syncResult.delayUntil = backoff.onFailure() / 1000;
+                break;
+            default:
+                // The sync didn't get far enough to tell.
+                break;
+        }
+    }
+
+    /**
+     * @return true if a forecast synced at lastSync is less than maxAge old.
+     */
+    // The snapshot file's check has its own copy of the time, so it doesn't need the database.
+    // It's noted ahead of the commit, see WeatherSnapshotFile.setLastSync.
+    private void setLastSync(ForecastWriter writer, String locationSetting, long time) {
+        WeatherSnapshotFile.setLastSync(getContext(), locationSetting, time);
+        writer.setLastSync(locationSetting, time);
+    }
+
+    private static boolean isFresh(long lastSync, long maxAge) {
+        long age = System.currentTimeMillis() - lastSync;
+        // A negative age means the clock was set back, so we can't tell.
+        return lastSync > 0 && age >= 0 && age < maxAge;
+    }
+
+    /**
+     * Fetches the forecast for one location and streams it into the database, unless the one
+     * we have was synced less than maxAge ago.
+     *
+     * @return false if the stored forecast was fresh and nothing was fetched.
+     * @throws SyncDeadline.CancelledException if the sync had to stop.  Nothing was written.
+     */
+    private boolean syncLocation(WeatherProvider weatherProvider, String locationQuery,
+                                 long maxAge, SyncMetrics metrics, SyncDeadline deadline)
+            throws SyncDeadline.CancelledException {
+        // These two need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        WeatherSource.Response response = null;
+        ForecastWriter writer = null;
 
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            writer = weatherProvider.openForecastWriter();
+            if (isFresh(writer.getLastSync(locationQuery), maxAge)) {
+                Log.d(LOG_TAG, "Sync skipped. Forecast for " + locationQuery + " is fresh");
+                return false;
             }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            // Send the request.  If we have the validators of the last forecast for this
+            // location, make it a conditional request.
+            deadline.check("fetching " + locationQuery);
+            response = sWeatherSource.fetchForecast(locationQuery,
+                    writer.getCityId(locationQuery), writer.getCacheValidators(locationQuery));
+            deadline.register(response);
+
+            if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // What we have is still current.  No parsing, no forecast writes, and nobody
+                // downstream needs to hear about it.  We only note that it was checked, which
+                // tells the location's observers if it had gone stale.
+                setLastSync(writer, locationQuery, System.currentTimeMillis());
+                deadline.check("committing");
+                writer.commit();
+                Log.d(LOG_TAG, "Sync Complete. Forecast not modified");
+                setLocationStatus(getContext(), LOCATION_STATUS_OK);
+                metrics.addResult(LOCATION_STATUS_OK);
+                return true;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+
+            // Parse the forecast straight off the wire.  An empty stream shows up as an
+            // EOFException, which is reported as the server being down just like before.
+            getWeatherDataFromStream(response, locationQuery, writer,
+                    response.getHeader("ETag"), response.getHeader("Last-Modified"), metrics,
+                    deadline);
+        } catch (SyncDeadline.CancelledException e) {
+            throw e;
         } catch (IOException e) {
+            // An aborted download shows up as an ordinary IOException.
+            deadline.check("reading the forecast");
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            metrics.addResult(LOCATION_STATUS_SERVER_DOWN);
         } catch (JSONException e) {
+            deadline.check("reading the forecast");
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            metrics.addResult(LOCATION_STATUS_SERVER_INVALID);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            // Without a commit, this rolls back everything written above.
+            if (writer != null) {
+                writer.close();
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+            // Closing rather than disconnecting lets the next sync reuse the connection.
+            if (response != null) {
+                deadline.unregister(response);
+                response.close();
+                metrics.addResponse(response);
             }
-
         }
-        return;
+        return true;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Replaces the stored hourly forecast of a location we already have.  This is best effort:
+     * the daily forecast is what everything depends on, so a failure here is only logged and
+     * doesn't touch the location status or the backoff.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @throws SyncDeadline.CancelledException if the sync had to stop.  Nothing was written.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    private void syncHourly(WeatherProvider weatherProvider, String locationSetting,
+                            SyncDeadline deadline) throws SyncDeadline.CancelledException {
+        ForecastWriter writer = weatherProvider.openForecastWriter();
+        try {
+            long locationId = writer.getLocationId(locationSetting);
+            if (locationId == -1) {
+                return;
+            }
+            HourlyForecast hourly = fetchHourlyForecast(locationSetting,
+                    writer.getCityId(locationSetting), deadline);
+            if (hourly == null) {
+                return;
+            }
+            hourly.write(writer, locationId);
+            writer.deleteHourlyBefore(System.currentTimeMillis() / 1000);
+            deadline.check("committing the hourly forecast");
+            ForecastWriter.Changes changes = writer.commit();
+            Log.d(LOG_TAG, "Hourly sync complete. " + changes.hourlyRowsWritten + " steps for "
+                    + locationSetting);
+        } finally {
+            writer.close();
+        }
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Fetches and parses the hourly forecast for one location into memory.  Safe to call from
+     * any thread.
+     *
+     * @return the forecast, or null if there was a problem getting it.
+     * @throws SyncDeadline.CancelledException if the sync had to stop.
+     */
+    private HourlyForecast fetchHourlyForecast(String locationSetting, long cityId,
+                                               SyncDeadline deadline)
+            throws SyncDeadline.CancelledException {
+        WeatherSource.Response response = null;
+        try {
+            deadline.check("fetching the hourly forecast of " + locationSetting);
+            response = sWeatherSource.fetchHourlyForecast(locationSetting, cityId);
+            deadline.register(response);
+            HourlyForecast hourly = new HourlyForecast(System.currentTimeMillis() / 1000);
+            int code = sWeatherSource.parseHourlyForecast(response, hourly);
+            if (code != HttpURLConnection.HTTP_OK) {
+                Log.w(LOG_TAG, "Hourly forecast of " + locationSetting + " failed with " + code);
+                return null;
+            }
+            return hourly;
+        } catch (SyncDeadline.CancelledException e) {
+            throw e;
+        } catch (IOException e) {
+            deadline.check("reading the hourly forecast");
+            Log.e(LOG_TAG, "Error fetching the hourly forecast of " + locationSetting, e);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+        } finally {
+            if (response != null) {
+                deadline.unregister(response);
+                response.close();
+            }
+        }
+        return null;
+    }
 
+    /**
+     * Refreshes every location in the database in one pass.
+     *
+     * The forecasts are fetched in parallel on a small thread pool, so the wall time of the
+     * sync is set by the slowest few requests rather than the sum of all of them.  Everything
+     * that came back is then written in a single transaction, so observers are woken up once.
+     * Locations synced less than maxAge ago are skipped.  With hourly set, the hourly forecast
+     * of every location that was fetched is refreshed along with it.
+     *
+     * @return false if every location was fresh and nothing was fetched.
+     * @throws SyncDeadline.CancelledException if the sync had to stop.  Nothing was written.
+     */
+    private boolean syncAllLocations(WeatherProvider weatherProvider, String preferredLocation,
+                                     long maxAge, final boolean hourly,
+                                     final SyncMetrics metrics, final SyncDeadline deadline)
+            throws SyncDeadline.CancelledException {
+        ForecastWriter writer = weatherProvider.openForecastWriter();
+        ExecutorService executor = null;
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            // Always include the preferred location, even if it hasn't made it into the
+            // database yet.
+            LinkedHashSet<String> locationSettings = new LinkedHashSet<String>();
+            locationSettings.add(preferredLocation);
+            locationSettings.addAll(writer.getLocationSettings());
+
+            @LocationStatus int preferredStatus = LOCATION_STATUS_UNKNOWN;
+            ArrayList<String> staleSettings = new ArrayList<String>(locationSettings.size());
+            for (String locationSetting : locationSettings) {
+                if (!isFresh(writer.getLastSync(locationSetting), maxAge)) {
+                    staleSettings.add(locationSetting);
+                } else if (locationSetting.equals(preferredLocation)) {
+                    preferredStatus = LOCATION_STATUS_OK;
                 }
             }
+            if (staleSettings.isEmpty()) {
+                Log.d(LOG_TAG, "Sync skipped. All " + locationSettings.size()
+                        + " locations are fresh");
+                return false;
+            }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+            executor = Executors.newFixedThreadPool(
+                    Math.min(MAX_PARALLEL_FETCHES, staleSettings.size()));
+            ArrayList<Future<LocationForecast>> fetches =
+                    new ArrayList<Future<LocationForecast>>(staleSettings.size());
+            long fetchStart = SystemClock.elapsedRealtime();
+            for (final String locationSetting : staleSettings) {
+                final long cityId = writer.getCityId(locationSetting);
+                final String[] validators = writer.getCacheValidators(locationSetting);
+                fetches.add(executor.submit(new Callable<LocationForecast>() {
+                    @Override
+                    public LocationForecast call() {
+                        return fetchLocationForecast(locationSetting, cityId, validators,
+                                hourly, metrics, deadline);
+                    }
+                }));
+            }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+            ArrayList<LocationForecast> forecasts =
+                    new ArrayList<LocationForecast>(staleSettings.size());
+            for (Future<LocationForecast> fetch : fetches) {
+                try {
+                    forecasts.add(fetch.get(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS));
+                } catch (TimeoutException e) {
+                    deadline.check("collecting the forecasts");
+                }
+            }
+            deadline.check("writing the forecasts");
+            Log.d(LOG_TAG, "Fetched " + forecasts.size() + " locations in "
+                    + (SystemClock.elapsedRealtime() - fetchStart) + "ms");
 
             Time dayTime = new Time();
             dayTime.setToNow();
@@ -322,358 +473,221 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             // we start at the day returned by local time. Otherwise this is a mess.
             int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
+            long syncTime = System.currentTimeMillis();
+            int daysReceived = 0;
+            int hoursReceived = 0;
+            long yesterday = 0;
+            for (LocationForecast forecast : forecasts) {
+                metrics.addResult(forecast.mStatus);
+                if (forecast.mLocationSetting.equals(preferredLocation)) {
+                    preferredStatus = forecast.mStatus;
+                }
+                if (forecast.hasForecast()) {
+                    ForecastIngester ingester = new ForecastIngester(writer,
+                            forecast.mLocationSetting, julianStartDay, deadline);
+                    forecast.replay(ingester);
+                    writer.setCacheValidators(ingester.getLocationId(),
+                            forecast.mEtag, forecast.mLastModified);
+                    daysReceived += ingester.getDaysReceived();
+                    yesterday = ingester.getYesterday();
+                }
+                if (forecast.mStatus == LOCATION_STATUS_OK) {
+                    setLastSync(writer, forecast.mLocationSetting, syncTime);
+                }
+                if (forecast.mHourly != null) {
+                    long locationId = writer.getLocationId(forecast.mLocationSetting);
+                    if (locationId != -1) {
+                        forecast.mHourly.write(writer, locationId);
+                        hoursReceived += forecast.mHourly.getCount();
+                    }
+                }
+            }
+            if (hourly) {
+                writer.deleteHourlyBefore(syncTime / 1000);
             }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
+            if ( daysReceived > 0 ) {
                 // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                updateWear();
+                long deleteStart = SystemClock.elapsedRealtime();
+                int deleted = writer.deleteWeatherOnOrBefore(yesterday);
+                metrics.addDeleteOld(SystemClock.elapsedRealtime() - deleteStart, deleted);
+            }
+            deadline.check("committing");
+            ForecastWriter.Changes changes = writer.commit();
+            metrics.addDbWrite(writer.getWriteMillis(), daysReceived, changes);
+            if (changes.hasWeatherChanges()) {
+                metrics.setDataChanged();
+            }
+            Log.d(LOG_TAG, "Sync Complete. " + changes + " for "
+                    + forecasts.size() + " locations, " + hoursReceived + " hourly steps");
+            setLocationStatus(getContext(), preferredStatus);
+            return true;
+        } catch (InterruptedException e) {
+            // onSyncCanceled interrupts us on top of cancelling the deadline.
+            Thread.currentThread().interrupt();
+            throw new SyncDeadline.CancelledException("collecting the forecasts",
+                    deadline.isCancelled());
+        } catch (SyncDeadline.CancelledException e) {
+            throw e;
+        } catch (ExecutionException | IOException e) {
+            // fetchLocationForecast reports its own failures, so this is unexpected.
+            Log.e(LOG_TAG, "Error ", e);
+            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            metrics.addResult(LOCATION_STATUS_SERVER_DOWN);
+        } finally {
+            writer.close();
+            if (executor != null) {
+                executor.shutdownNow();
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        }
-    }
-
-    private void updateWidgets() {
-        Context context = getContext();
-        // Setting the package ensures that only components in our app will receive the broadcast
-        Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
-        context.sendBroadcast(dataUpdatedIntent);
-    }
-
-    private void updateMuzei() {
-        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
-        // Muzei background on lower API level devices
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
-            Context context = getContext();
-            context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
         }
+        return true;
     }
 
-    //
-    //Will update wear with the current weather
-    //
-    private void updateWear() {
-        //unlike notifications where you don't want to spam...
-        //with wear, we only want to update if something has changed.
-        //so check current values against last values sent.
-        //however, we do have one possible problem. Using messages rather than data transfer.
-        //A message can be lost. So we also want to update every 30 minutes just in case.
-        Context context = getContext();
-
-        //So lets get the last data set sent to wear device
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String lastLowWearKey = context.getString(R.string.pref_last_low_temp_to_wear);
-        String lastHighWearKey = context.getString(R.string.pref_last_high_temp_to_wear);
-        String lastConditionWearKey = context.getString(R.string.pref_last_condition_to_wear);
-        String lastUpdateTimeWear = context.getString(R.string.pref_last_time_to_wear);
-
-        int lastLowTemp = prefs.getInt(lastLowWearKey, -1000);  //put in a default that won't match...
-        int lastHighTemp = prefs.getInt(lastHighWearKey, -1000);
-        int lastConditions = prefs.getInt(lastConditionWearKey, 0);
-        long lastUpdateTime = prefs.getLong(lastUpdateTimeWear, 0);
-
-        // Set up a query..
-        String locationQuery = Utility.getPreferredLocation(context);
-
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-        // we'll query our contentProvider, as always
-        Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-        if (cursor.moveToFirst()) {
-            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-            double high = cursor.getDouble(INDEX_MAX_TEMP);
-            double low = cursor.getDouble(INDEX_MIN_TEMP);
-
-            //Okay - now we have current update. And last update. Do they match?
-            //convert to proper units first...
-            int convertHigh = Utility.formatTemperatureInt(context, high);
-            int convertLow = Utility.formatTemperatureInt(context, low);
-
-            if (    mbUpdateOnce ||
-                    (weatherId != lastConditions)
-                    || (convertHigh != lastHighTemp)
-                    || (convertLow != lastLowTemp) ) {
-                //We have a change! (or is at launch)
-                //do we have a connection to api client?
-                if (mGoogleApiClient != null) {
-                    if (mGoogleApiClient.isConnected()) {
-                        mbUpdateOnce = false;       //reset the flag
-
-                        //Okay - update the data map
-                        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(DATAITEM_PATH);
-
-                        putDataMapRequest.getDataMap().putInt(DATAITEM_HIGH_TEMP, convertHigh);
-                        putDataMapRequest.getDataMap().putInt(DATAITEM_LOW_TEMP, convertLow);
-
-                        //grab the bitmap and shove in there as well...
-                        int icon_resource = Utility.getIconResourceForWeatherCondition(weatherId);
-                        Asset asset = Utility.createAssetFromDrawableResource(context, icon_resource);
-                        putDataMapRequest.getDataMap().putAsset(DATAITEM_ICONBM, asset);
-
-                        PutDataRequest request = putDataMapRequest.asPutDataRequest();
-                        request.setUrgent();    //might not really need to do this but for testing, required...
-
-                        Wearable.DataApi.putDataItem(mGoogleApiClient, request)
-                                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                                    @Override
-                                    public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
-                                        if (!dataItemResult.getStatus().isSuccess()) {
-                                            Log.v(LOG_TAG, "Failed to put wear data");
-                                        } else {
-                                            Log.v(LOG_TAG, "Successful in putting wear data");
-                                        }
-                                    }
-                                });
-
-                        //FIXME - just allocate temp for now... Need to add icon
-
-                        //Finally, store the data sent in the preferences
-                        SharedPreferences.Editor editor = prefs.edit();
-                        editor.putInt(lastHighWearKey, convertHigh);
-                        editor.putInt(lastLowWearKey, convertLow);
-                        editor.putInt(lastConditionWearKey, weatherId);
-                        editor.putLong(lastUpdateTimeWear, System.currentTimeMillis());
-                        editor.commit();
-
-                    }
-                }
+    /**
+     * Fetches and parses the forecast for one location into memory, and its hourly forecast
+     * too if asked to.  Safe to call from any thread; failures are reported through the status
+     * of the result rather than thrown.
+     */
+    private LocationForecast fetchLocationForecast(String locationSetting, long cityId,
+                                                   String[] validators, boolean hourly,
+                                                   SyncMetrics metrics, SyncDeadline deadline) {
+        LocationForecast forecast =
+                fetchLocationForecast(locationSetting, cityId, validators, metrics, deadline);
+        if (hourly && forecast.mStatus == LOCATION_STATUS_OK) {
+            try {
+                forecast.mHourly = fetchHourlyForecast(locationSetting, cityId, deadline);
+            } catch (SyncDeadline.CancelledException e) {
+                // As below, the sync thread notices this itself.
+                Log.d(LOG_TAG, "Hourly fetch of " + locationSetting + " stopped");
             }
         }
-        //close off the cursor
-        cursor.close();
+        return forecast;
     }
 
-    private void notifyWeather() {
-        Context context = getContext();
-        //checking the last update and notify if it' the first of the day
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
-        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
-                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
-
-        if ( displayNotifications ) {
-
-            String lastNotificationKey = context.getString(R.string.pref_last_notification);
-            long lastSync = prefs.getLong(lastNotificationKey, 0);
-
-            if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
-                // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
-
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
-
-                    //refreshing last sync
-                    SharedPreferences.Editor editor = prefs.edit();
-                    editor.putLong(lastNotificationKey, System.currentTimeMillis());
-                    editor.commit();
-                }
-                cursor.close();
+    private LocationForecast fetchLocationForecast(String locationSetting, long cityId,
+                                                   String[] validators, SyncMetrics metrics,
+                                                   SyncDeadline deadline) {
+        LocationForecast forecast = new LocationForecast(locationSetting);
+        WeatherSource.Response response = null;
+        try {
+            deadline.check("fetching " + locationSetting);
+            response = sWeatherSource.fetchForecast(locationSetting, cityId, validators);
+            deadline.register(response);
+            if (response.getCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                forecast.mNotModified = true;
+                forecast.mStatus = LOCATION_STATUS_OK;
+                return forecast;
+            }
+            long parseStart = SystemClock.elapsedRealtime();
+            int code = sWeatherSource.parseForecast(response, forecast);
+            metrics.addStream(SystemClock.elapsedRealtime() - parseStart, 0);
+            switch (code) {
+                case HttpURLConnection.HTTP_OK:
+                    forecast.mStatus = LOCATION_STATUS_OK;
+                    forecast.mEtag = response.getHeader("ETag");
+                    forecast.mLastModified = response.getHeader("Last-Modified");
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    forecast.mStatus = LOCATION_STATUS_INVALID;
+                    break;
+                default:
+                    forecast.mStatus = LOCATION_STATUS_SERVER_DOWN;
+            }
+        } catch (IOException e) {
+            if (deadline.isDone()) {
+                // The sync thread notices this itself before it writes anything.
+                Log.d(LOG_TAG, "Fetch of " + locationSetting + " stopped");
+            } else {
+                Log.e(LOG_TAG, "Error fetching " + locationSetting, e);
+                forecast.mStatus = LOCATION_STATUS_SERVER_DOWN;
+            }
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            forecast.mStatus = LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            if (response != null) {
+                deadline.unregister(response);
+                response.close();
+                metrics.addResponse(response);
             }
         }
+        return forecast;
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Read the forecast in JSON Format from the stream and write the data we need straight
+     * into the database.
      *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * The response is never held in memory as a whole: {@link ForecastParser} decodes each day
+     * as the bytes arrive and {@link ForecastIngester} writes it through the ForecastWriter, all
+     * inside one transaction that only becomes visible once the whole forecast has been read.
+     * The response's validators are stored in the same transaction, so they can never describe
+     * a forecast we didn't keep.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+    private void getWeatherDataFromStream(WeatherSource.Response response, String locationSetting,
+                                          ForecastWriter writer, String etag, String lastModified,
+                                          SyncMetrics metrics, SyncDeadline deadline)
+            throws IOException, JSONException {
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        ForecastIngester ingester =
+                new ForecastIngester(writer, locationSetting, julianStartDay, deadline);
+
+        long parseStart = SystemClock.elapsedRealtime();
+        int code = sWeatherSource.parseForecast(response, ingester);
+        long parseMillis = SystemClock.elapsedRealtime() - parseStart;
+        metrics.addStream(parseMillis, writer.getWriteMillis());
+        Log.d(LOG_TAG, "Parsed " + ingester.getDaysReceived() + " days, wrote "
+                + ingester.getDaysWritten() + " in " + parseMillis + "ms");
+
+        // do we have an error?  If so, closing the writer will roll back anything we wrote.
+        switch (code) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
+                metrics.addResult(LOCATION_STATUS_INVALID);
+                return;
+            default:
+                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+                metrics.addResult(LOCATION_STATUS_SERVER_DOWN);
+                return;
+        }
+
+        if ( ingester.getDaysReceived() > 0 ) {
+            // delete old data so we don't build up an endless history
+            long deleteStart = SystemClock.elapsedRealtime();
+            int deleted = writer.deleteWeatherOnOrBefore(ingester.getYesterday());
+            metrics.addDeleteOld(SystemClock.elapsedRealtime() - deleteStart, deleted);
         }
+        writer.setCacheValidators(ingester.getLocationId(), etag, lastModified);
+        setLastSync(writer, locationSetting, System.currentTimeMillis());
+        deadline.check("committing");
+        ForecastWriter.Changes changes = writer.commit();
+        metrics.addDbWrite(writer.getWriteMillis(), ingester.getDaysReceived(), changes);
+        if (changes.hasWeatherChanges()) {
+            metrics.setDataChanged();
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + changes);
+        setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        metrics.addResult(LOCATION_STATUS_OK);
+    }
 
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+    /**
+     * @return OpenWeatherMap, hedged with the mirror if the build has one configured.
+     */
+    private static WeatherSource createWeatherSource() {
+        WeatherSource openWeatherMap = new OpenWeatherMapSource();
+        if (BuildConfig.FORECAST_MIRROR_URL.isEmpty()) {
+            return openWeatherMap;
+        }
+        return new HedgedWeatherSource(openWeatherMap,
+                new OpenWeatherMapSource(BuildConfig.FORECAST_MIRROR_URL));
     }
 
     /**
@@ -682,7 +696,12 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
         Account account = getSyncAccount(context);
         String authority = context.getString(R.string.content_authority);
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+        if (SyncJobs.isAvailable()) {
+            // The job takes over, and the system picks the flex itself.  Drop the sync adapter's
+            // periodic sync in case an older version of the app set it up.
+            SyncJobs.schedulePeriodic(context, syncInterval);
+            ContentResolver.removePeriodicSync(account, authority, new Bundle());
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             // we can enable inexact timers in our periodic sync
             SyncRequest request = new SyncRequest.Builder().
                     syncPeriodic(syncInterval, flexTime).
@@ -700,6 +719,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        if (SyncJobs.isAvailable()) {
+            SyncJobs.syncNow(context, 0);
+            return;
+        }
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
@@ -707,6 +730,26 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 context.getString(R.string.content_authority), bundle);
     }
 
+    /**
+     * Helper method to have the sync adapter refresh every saved location right away.  Where
+     * JobScheduler is available this waits for the device to be charging on an unmetered
+     * network instead, since it's a big download.
+     * @param context The context used to access the account service
+     */
+    public static void syncAllLocationsImmediately(Context context) {
+        if (SyncJobs.isAvailable()) {
+            SyncJobs.syncAllLocations(context);
+            return;
+        }
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
+        bundle.putBoolean(SYNC_EXTRAS_HOURLY, true);
+        ContentResolver.requestSync(getSyncAccount(context),
+                context.getString(R.string.content_authority), bundle);
+    }
+
     /**
      * Helper method to get the fake account to be used with SyncAdapter, or make a new one
      * if the fake account doesn't exist yet.  If we make a new account, we call the
@@ -765,6 +808,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
+        // After an upgrade to a version that syncs through jobs, move the periodic sync over.
+        if (SyncJobs.isAvailable() && !SyncJobs.isPeriodicScheduled(context)) {
+            int interval = SyncScheduler.getSyncInterval(context);
+            configurePeriodicSync(context, interval, interval / 3);
+        }
     }
 
     /**
@@ -779,16 +827,4 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
         spe.commit();
     }
-
-    @Override
-    public void onConnected(Bundle bundle) {
-    }
-
-    @Override
-    public void onConnectionSuspended(int i) {
-    }
-
-    @Override
-    public void onConnectionFailed(ConnectionResult connectionResult) {
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,114 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+import java.util.Random;
+
+/**
+ * Keeps the sync from hammering OpenWeatherMap while it is failing.
+ *
+ * Every sync that ends with the server down or answering garbage pushes the next allowed sync
+ * out: 1, 2, 4 and 8 minutes, each with jitter so a fleet of devices that failed together
+ * doesn't come back together.  After {@link #CIRCUIT_BREAKER_THRESHOLD} failures in a row the
+ * circuit opens and we leave the server alone for an hour or two; the first sync after that is
+ * a probe, which closes the circuit again if it works and reopens it if it doesn't.  A good sync
+ * resets everything.
+ *
+ * The state lives in SharedPreferences, so it survives the process being killed between syncs.
+ */
+class SyncBackoff {
+    private static final String LOG_TAG = SyncBackoff.class.getSimpleName();
+
+    static final long BASE_BACKOFF_MILLIS = 60 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 30 * 60 * 1000;
+    static final int CIRCUIT_BREAKER_THRESHOLD = 5;
+    static final long CIRCUIT_OPEN_MILLIS = 2 * 60 * 60 * 1000;
+
+    private static final Random sRandom = new Random();
+
+    private final SharedPreferences mPrefs;
+    private final String mFailuresKey;
+    private final String mNextAttemptKey;
+    private final Random mRandom;
+
+    SyncBackoff(Context context) {
+        this(context, sRandom);
+    }
+
+    SyncBackoff(Context context, Random random) {
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        mFailuresKey = context.getString(R.string.pref_sync_failures_key);
+        mNextAttemptKey = context.getString(R.string.pref_sync_next_attempt_key);
+        mRandom = random;
+    }
+
+    int getFailureCount() {
+        return mPrefs.getInt(mFailuresKey, 0);
+    }
+
+    /**
+     * @return the earliest time the next sync may go out, in milliseconds since the epoch.  0 if
+     * there's nothing to wait for.
+     */
+    long getNextAttemptTime() {
+        return mPrefs.getLong(mNextAttemptKey, 0);
+    }
+
+    boolean isCircuitOpen() {
+        return getFailureCount() >= CIRCUIT_BREAKER_THRESHOLD
+                && System.currentTimeMillis() < getNextAttemptTime();
+    }
+
+    /**
+     * @param locationChanged true if the user just picked a new location.  That gets through
+     *                        a plain backoff, so the setting is validated right away, but not
+     *                        through an open circuit.
+     * @return true if a sync may talk to the server now.
+     */
+    boolean canSyncNow(boolean locationChanged) {
+        long now = System.currentTimeMillis();
+        long nextAttempt = getNextAttemptTime();
+        if (now >= nextAttempt || nextAttempt - now > CIRCUIT_OPEN_MILLIS) {
+            // Nothing to wait for, or the clock was set back since we stored the time.
+            return true;
+        }
+        return locationChanged && getFailureCount() < CIRCUIT_BREAKER_THRESHOLD;
+    }
+
+    void onSuccess() {
+        if (getFailureCount() != 0 || getNextAttemptTime() != 0) {
+            Log.d(LOG_TAG, "Sync recovered after " + getFailureCount() + " failures");
+            mPrefs.edit().remove(mFailuresKey).remove(mNextAttemptKey).commit();
+        }
+    }
+
+    /**
+     * Counts a failed sync and works out when the next one may go out.
+     *
+     * @return the earliest time for the next sync, in milliseconds since the epoch.
+     */
+    long onFailure() {
+        int failures = getFailureCount() + 1;
+        long delay;
+        if (failures >= CIRCUIT_BREAKER_THRESHOLD) {
+            delay = CIRCUIT_OPEN_MILLIS;
+        } else {
+            delay = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(failures - 1, 16));
+        }
+        // "Equal jitter": always wait at least half the delay, and a random part of the rest.
+        long jittered = delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+        long nextAttempt = System.currentTimeMillis() + jittered;
+        mPrefs.edit()
+                .putInt(mFailuresKey, failures)
+                .putLong(mNextAttemptKey, nextAttempt)
+                .commit();
+        Log.d(LOG_TAG, "Sync failure " + failures + ", backing off " + (jittered / 1000) + "s"
+                + (failures >= CIRCUIT_BREAKER_THRESHOLD ? ", circuit open" : ""));
+        return nextAttempt;
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * The way the UI asks for a sync.
+ *
+ * The app used to call {@link SunshineSyncAdapter#syncImmediately} on every launch and every
+ * time the settings screen bound a summary, each of which fetched and rewrote the forecast even
+ * if the last sync was a minute ago.  Requests made through here are coalesced instead:
+ * <ul>
+ *     <li>if a sync is already running or queued, it will bring the data up to date, so no
+ *     new one is requested;</li>
+ *     <li>requests within {@link #COALESCE_WINDOW_MILLIS} of the last one are dropped;</li>
+ *     <li>the sync that does get requested skips the network for any location whose forecast
+ *     was synced within the freshness window.</li>
+ * </ul>
+ * The sync framework, or {@link SunshineJobService} where syncs run as jobs, already runs only
+ * one of our syncs at a time, so whatever gets through ends up as a single fetch.
+ *
+ * Screens and widgets don't need to call this themselves: querying through a revalidating URI
+ * shows what's stored straight away and asks for a sync here only if it is stale.
+ */
+public final class SyncCoordinator {
+    private static final String LOG_TAG = SyncCoordinator.class.getSimpleName();
+
+    // Stored forecasts younger than this are good enough for a launch or a settings change.
+    public static final long FRESHNESS_WINDOW_MILLIS = 30 * 60 * 1000;
+
+    static final long COALESCE_WINDOW_MILLIS = 5 * 1000;
+
+    // elapsedRealtime of the last request we passed on, 0 for none.
+    private static long sLastRequestMillis;
+
+    private SyncCoordinator() {
+    }
+
+    /**
+     * Asks for the preferred location to be brought up to date, if it isn't already.
+     */
+    public static void requestSync(Context context) {
+        requestSync(context, FRESHNESS_WINDOW_MILLIS);
+    }
+
+    /**
+     * Asks for the preferred location to be brought up to date, if it isn't already.
+     *
+     * @param maxAge how old, in milliseconds, the stored forecast may be before it's fetched
+     *               again.  0 always fetches.
+     */
+    public static void requestSync(Context context, long maxAge) {
+        Account account = SunshineSyncAdapter.getSyncAccount(context);
+        String authority = context.getString(R.string.content_authority);
+        long now = SystemClock.elapsedRealtime();
+        synchronized (SyncCoordinator.class) {
+            if (sLastRequestMillis != 0 && now - sLastRequestMillis < COALESCE_WINDOW_MILLIS) {
+                Log.d(LOG_TAG, "Sync requested " + (now - sLastRequestMillis) + "ms ago, skipping");
+                return;
+            }
+            if (ContentResolver.isSyncActive(account, authority)
+                    || ContentResolver.isSyncPending(account, authority)
+                    || (SyncJobs.isAvailable() && SyncJobs.isSyncPending(context))) {
+                Log.d(LOG_TAG, "Sync already running or pending, skipping");
+                return;
+            }
+            sLastRequestMillis = now;
+        }
+
+        if (SyncJobs.isAvailable()) {
+            SyncJobs.syncNow(context, maxAge);
+            return;
+        }
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putLong(SunshineSyncAdapter.SYNC_EXTRAS_MAX_AGE, maxAge);
+        ContentResolver.requestSync(account, authority, bundle);
+    }
+
+    /**
+     * Stale-while-revalidate for consumers that show a {@link WeatherSnapshot} rather than
+     * querying the provider with {@link WeatherContract.WeatherEntry#buildRevalidatingUri}: if
+     * the snapshot is older than the freshness window, a sync is asked for in the background.
+     * The caller goes ahead and shows the snapshot either way.
+     */
+    public static void revalidate(Context context, WeatherSnapshot snapshot) {
+        if (snapshot.isStale(FRESHNESS_WINDOW_MILLIS)) {
+            requestSync(context, FRESHNESS_WINDOW_MILLIS);
+        }
+    }
+
+    /**
+     * Asks for a sync right away, whatever is running or queued, e.g. because the location
+     * changed and what's in flight is for the old one.  The new sync still only runs after
+     * any running one.
+     */
+    public static void requestSyncNow(Context context) {
+        synchronized (SyncCoordinator.class) {
+            sLastRequestMillis = SystemClock.elapsedRealtime();
+        }
+        SunshineSyncAdapter.syncImmediately(context);
+    }
+}
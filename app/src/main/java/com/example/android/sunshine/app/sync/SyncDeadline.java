@@ -0,0 +1,131 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time one sync has left, and whether it was cancelled.
+ *
+ * The sync checks it between stages (before each request, for every day it parses, before it
+ * commits) and stops with a {@link CancelledException} once the deadline has passed or the sync
+ * was cancelled.  Nothing is committed until the very end, so stopping anywhere rolls the sync
+ * back.  Responses being read are registered here, and aborted the moment the sync is
+ * cancelled or times out, so a sync never sits out a stalled download.
+ */
+class SyncDeadline {
+
+    // Plenty for a handful of locations; a sync that takes longer is stuck on something.
+    static final long SYNC_TIMEOUT_MILLIS = 2 * 60 * 1000;
+
+    private static final ScheduledExecutorService sTimer =
+            Executors.newSingleThreadScheduledExecutor();
+
+    private final long mDeadlineMillis;
+    private final ScheduledFuture<?> mTimeout;
+    // Guarded by this.
+    private final ArrayList<WeatherSource.Response> mResponses =
+            new ArrayList<WeatherSource.Response>();
+    private volatile boolean mCancelled;
+    private volatile boolean mExpired;
+
+    SyncDeadline(long timeoutMillis) {
+        mDeadlineMillis = SystemClock.elapsedRealtime() + timeoutMillis;
+        mTimeout = sTimer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                mExpired = true;
+                abortResponses();
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the sync as soon as it next checks, and aborts any download in progress.
+     */
+    void cancel() {
+        mCancelled = true;
+        abortResponses();
+    }
+
+    /**
+     * Called once the sync is over, whatever the outcome.
+     */
+    void finish() {
+        mTimeout.cancel(false);
+    }
+
+    boolean isCancelled() {
+        return mCancelled;
+    }
+
+    boolean isExpired() {
+        return mExpired || SystemClock.elapsedRealtime() >= mDeadlineMillis;
+    }
+
+    /**
+     * @return true if the sync should stop, for either reason.
+     */
+    boolean isDone() {
+        return mCancelled || isExpired() || Thread.currentThread().isInterrupted();
+    }
+
+    long getRemainingMillis() {
+        return Math.max(0, mDeadlineMillis - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * @param stage what the sync is about to do, for the log
+     * @throws CancelledException if the sync should stop
+     */
+    void check(String stage) throws CancelledException {
+        if (isDone()) {
+            throw new CancelledException(stage, mCancelled);
+        }
+    }
+
+    /**
+     * Keeps track of a response being read, so it can be aborted.  If the sync is already over
+     * it is aborted right away.
+     */
+    void register(WeatherSource.Response response) throws CancelledException {
+        synchronized (this) {
+            if (!isDone()) {
+                mResponses.add(response);
+                return;
+            }
+        }
+        response.abort();
+        throw new CancelledException("download", mCancelled);
+    }
+
+    synchronized void unregister(WeatherSource.Response response) {
+        mResponses.remove(response);
+    }
+
+    private void abortResponses() {
+        ArrayList<WeatherSource.Response> responses;
+        synchronized (this) {
+            responses = new ArrayList<WeatherSource.Response>(mResponses);
+            mResponses.clear();
+        }
+        for (WeatherSource.Response response : responses) {
+            response.abort();
+        }
+    }
+
+    /**
+     * Thrown where a sync stops because it was cancelled or ran out of time.  It is an
+     * IOException so it can come out of the parser's callbacks.
+     */
+    static class CancelledException extends InterruptedIOException {
+        CancelledException(String stage, boolean cancelled) {
+            super("Sync " + (cancelled ? "cancelled" : "timed out") + " before " + stage);
+        }
+    }
+}
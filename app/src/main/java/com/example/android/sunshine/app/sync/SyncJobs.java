@@ -0,0 +1,210 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SyncResult;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.PersistableBundle;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+
+/**
+ * Runs the sync as JobScheduler jobs on Lollipop and later, instead of through the sync
+ * framework.
+ *
+ * The jobs run exactly the same {@link SunshineSyncAdapter#onPerformSync} pipeline, but with the
+ * constraints the sync framework can't express:
+ * <ul>
+ *     <li>every job needs a network, so nothing wakes up just to fail offline;</li>
+ *     <li>the periodic job carries no deadline, so the system is free to batch it with other
+ *     apps' work;</li>
+ *     <li>refreshing every saved location, and the 3-hour forecast, are big downloads, so
+ *     they wait until the device is charging on an unmetered network.</li>
+ * </ul>
+ * Older devices keep using the sync adapter; {@link #isAvailable()} is what decides.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public final class SyncJobs {
+    private static final String LOG_TAG = SyncJobs.class.getSimpleName();
+
+    static final int JOB_ID_PERIODIC = 1;
+    static final int JOB_ID_IMMEDIATE = 2;
+    static final int JOB_ID_ALL_LOCATIONS = 3;
+    static final int JOB_ID_HOURLY = 4;
+
+    // Job extras.  PersistableBundle has no booleans before API 22, so flags are ints.
+    static final String EXTRA_MAX_AGE = "max_age";
+    static final String EXTRA_ALL_LOCATIONS = "all_locations";
+    static final String EXTRA_HOURLY = "hourly";
+
+    // First retry of a failed one-off job.  SyncBackoff keeps its own, longer, schedule.
+    static final long INITIAL_BACKOFF_MILLIS = 60 * 1000;
+
+    private SyncJobs() {
+    }
+
+    /**
+     * @return true if syncs should go through JobScheduler rather than the sync adapter.
+     */
+    public static boolean isAvailable() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    /**
+     * Schedules the periodic syncs, replacing whatever period they had: the daily forecast on
+     * any network, and the 3-hour forecast along with it only while charging on an unmetered
+     * one.
+     *
+     * @param syncInterval period in seconds, like {@link SunshineSyncAdapter#SYNC_INTERVAL}
+     */
+    static void schedulePeriodic(Context context, int syncInterval) {
+        JobInfo job = newJob(context, JOB_ID_PERIODIC)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setPeriodic(syncInterval * 1000L)
+                .setPersisted(true)
+                .build();
+        schedule(context, job);
+
+        PersistableBundle extras = new PersistableBundle();
+        extras.putInt(EXTRA_HOURLY, 1);
+        JobInfo hourlyJob = newJob(context, JOB_ID_HOURLY)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setPeriodic(syncInterval * 1000L)
+                .setPersisted(true)
+                .setExtras(extras)
+                .build();
+        schedule(context, hourlyJob);
+    }
+
+    /**
+     * @return true if both periodic sync jobs are scheduled.
+     */
+    static boolean isPeriodicScheduled(Context context) {
+        return isScheduled(context, JOB_ID_PERIODIC) && isScheduled(context, JOB_ID_HOURLY);
+    }
+
+    /**
+     * @return true for the jobs {@link #schedulePeriodic} schedules, which run again on their
+     * own.
+     */
+    static boolean isPeriodic(int jobId) {
+        return jobId == JOB_ID_PERIODIC || jobId == JOB_ID_HOURLY;
+    }
+
+    /**
+     * Syncs the preferred location as soon as there is a network.  Replaces any such sync that
+     * hasn't run yet.
+     *
+     * @param maxAge see {@link SunshineSyncAdapter#SYNC_EXTRAS_MAX_AGE}
+     */
+    static void syncNow(Context context, long maxAge) {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putLong(EXTRA_MAX_AGE, maxAge);
+        JobInfo job = newJob(context, JOB_ID_IMMEDIATE)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setBackoffCriteria(INITIAL_BACKOFF_MILLIS, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+                .setExtras(extras)
+                .build();
+        schedule(context, job);
+    }
+
+    /**
+     * Refreshes every saved location the next time the device is charging on an unmetered
+     * network.
+     */
+    static void syncAllLocations(Context context) {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putInt(EXTRA_ALL_LOCATIONS, 1);
+        extras.putInt(EXTRA_HOURLY, 1);
+        JobInfo job = newJob(context, JOB_ID_ALL_LOCATIONS)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED)
+                .setRequiresCharging(true)
+                .setBackoffCriteria(INITIAL_BACKOFF_MILLIS, JobInfo.BACKOFF_POLICY_EXPONENTIAL)
+                .setPersisted(true)
+                .setExtras(extras)
+                .build();
+        schedule(context, job);
+    }
+
+    /**
+     * @return true if a one-off sync job is waiting or running, so another one would be
+     * redundant.
+     */
+    static boolean isSyncPending(Context context) {
+        return isScheduled(context, JOB_ID_IMMEDIATE);
+    }
+
+    /**
+     * Runs the sync pipeline for a job, on the calling thread.
+     *
+     * @param adapter runs the sync.  Call its onSyncCanceled to stop it.
+     * @return how it went, as the sync framework would have been told.
+     */
+    static SyncResult runSync(Context context, SunshineSyncAdapter adapter,
+                              PersistableBundle jobExtras) {
+        SyncResult syncResult = new SyncResult();
+        String authority = context.getString(R.string.content_authority);
+        ContentProviderClient provider =
+                context.getContentResolver().acquireContentProviderClient(authority);
+        if (provider == null) {
+            Log.e(LOG_TAG, "No provider for " + authority);
+            syncResult.databaseError = true;
+            return syncResult;
+        }
+        try {
+            adapter.onPerformSync(null, toSyncExtras(jobExtras), authority, provider, syncResult);
+        } finally {
+            provider.release();
+        }
+        return syncResult;
+    }
+
+    /**
+     * Translates job extras into the sync extras onPerformSync understands.  A job only runs
+     * once its constraints are met, so the backoff is the only thing left to honor.
+     */
+    static Bundle toSyncExtras(PersistableBundle jobExtras) {
+        Bundle extras = new Bundle();
+        if (jobExtras == null) {
+            return extras;
+        }
+        extras.putLong(SunshineSyncAdapter.SYNC_EXTRAS_MAX_AGE,
+                jobExtras.getLong(EXTRA_MAX_AGE, 0));
+        extras.putBoolean(SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS,
+                jobExtras.getInt(EXTRA_ALL_LOCATIONS, 0) != 0);
+        extras.putBoolean(SunshineSyncAdapter.SYNC_EXTRAS_HOURLY,
+                jobExtras.getInt(EXTRA_HOURLY, 0) != 0);
+        return extras;
+    }
+
+    private static JobInfo.Builder newJob(Context context, int jobId) {
+        return new JobInfo.Builder(jobId, new ComponentName(context, SunshineJobService.class));
+    }
+
+    private static void schedule(Context context, JobInfo job) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (scheduler.schedule(job) <= 0) {
+            Log.e(LOG_TAG, "Couldn't schedule sync job " + job.getId());
+        }
+    }
+
+    private static boolean isScheduled(Context context, int jobId) {
+        JobScheduler scheduler =
+                (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == jobId) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
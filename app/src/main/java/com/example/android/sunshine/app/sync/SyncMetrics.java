@@ -0,0 +1,184 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SyncStats;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.ForecastWriter;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+/**
+ * Collects the phase timings, bytes and row counts of one sync and writes them to the sync
+ * metrics table when it's done.
+ *
+ * When several locations are fetched in parallel, each fetch thread adds its own numbers, so
+ * the network and parse times are sums over the locations.
+ */
+class SyncMetrics {
+    private static final String LOG_TAG = SyncMetrics.class.getSimpleName();
+
+    private final long mStartTime = System.currentTimeMillis();
+    private final long mStartElapsed = SystemClock.elapsedRealtime();
+
+    private int mLocations;
+    private int mHttpStatus = -1;
+    private long mConnectMillis;
+    private long mTimeToFirstByteMillis;
+    private long mDownloadMillis;
+    private long mStreamMillis;
+    private long mStreamWriteMillis;
+    private long mDbWriteMillis;
+    private long mDeleteOldMillis;
+    private long mBytes;
+    private int mRowsReceived;
+    private int mRowsInserted;
+    private int mRowsUpdated;
+    private int mRowsDeleted;
+    private boolean mDataChanged;
+    @SunshineSyncAdapter.LocationStatus
+    private int mResult = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+
+    /**
+     * Adds the network side of one forecast request.  Call it once the response is closed, or
+     * the download time and byte count will come up short.
+     */
+    synchronized void addResponse(WeatherSource.Response response) {
+        mLocations++;
+        mHttpStatus = response.getCode();
+        mConnectMillis += response.getConnectMillis();
+        mTimeToFirstByteMillis += response.getTimeToFirstByteMillis();
+        mDownloadMillis += response.getBodyReadMillis();
+        mBytes += response.getBytesOnWire();
+    }
+
+    /**
+     * Adds one streaming read of a forecast.  Whatever part of it wasn't spent waiting on the
+     * network or writing to the database is counted as parsing.
+     *
+     * @param streamMillis wall time from the start of the parse to its end
+     * @param writeMillis the part of that spent writing to the database, if the forecast was
+     *                    written as it was parsed
+     */
+    synchronized void addStream(long streamMillis, long writeMillis) {
+        mStreamMillis += streamMillis;
+        mStreamWriteMillis += writeMillis;
+    }
+
+    synchronized void addDbWrite(long millis, int rowsReceived, ForecastWriter.Changes changes) {
+        mDbWriteMillis += millis;
+        mRowsReceived += rowsReceived;
+        mRowsInserted += changes.weatherRowsInserted;
+        mRowsUpdated += changes.weatherRowsUpdated;
+    }
+
+    synchronized void addDeleteOld(long millis, int rowsDeleted) {
+        mDeleteOldMillis += millis;
+        mRowsDeleted += rowsDeleted;
+    }
+
+    synchronized void setDataChanged() {
+        mDataChanged = true;
+    }
+
+    synchronized boolean isDataChanged() {
+        return mDataChanged;
+    }
+
+    /**
+     * Adds how the request for one location went.  The sync as a whole takes the worst of
+     * them, so a single location the server failed on counts against the backoff even when
+     * the others came back fine.
+     */
+    synchronized void addResult(@SunshineSyncAdapter.LocationStatus int status) {
+        if (severity(status) > severity(mResult)) {
+            mResult = status;
+        }
+    }
+
+    /**
+     * @return the worst result added, or LOCATION_STATUS_UNKNOWN if no location got as far as
+     * an answer.
+     */
+    @SunshineSyncAdapter.LocationStatus
+    synchronized int getResult() {
+        return mResult;
+    }
+
+    private static int severity(int status) {
+        switch (status) {
+            case SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN:
+                return 3;
+            case SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID:
+                return 2;
+            case SunshineSyncAdapter.LOCATION_STATUS_OK:
+            case SunshineSyncAdapter.LOCATION_STATUS_INVALID:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    synchronized ContentValues toContentValues(int status) {
+        ContentValues values = new ContentValues();
+        values.put(SyncMetricsEntry.COLUMN_START_TIME, mStartTime);
+        values.put(SyncMetricsEntry.COLUMN_LOCATIONS, mLocations);
+        values.put(SyncMetricsEntry.COLUMN_STATUS, status);
+        if (mHttpStatus != -1) {
+            values.put(SyncMetricsEntry.COLUMN_HTTP_STATUS, mHttpStatus);
+        }
+        values.put(SyncMetricsEntry.COLUMN_CONNECT_MS, mConnectMillis);
+        values.put(SyncMetricsEntry.COLUMN_TTFB_MS, mTimeToFirstByteMillis);
+        values.put(SyncMetricsEntry.COLUMN_DOWNLOAD_MS, mDownloadMillis);
+        values.put(SyncMetricsEntry.COLUMN_PARSE_MS,
+                Math.max(0, mStreamMillis - mDownloadMillis - mStreamWriteMillis));
+        values.put(SyncMetricsEntry.COLUMN_DB_WRITE_MS, mDbWriteMillis);
+        values.put(SyncMetricsEntry.COLUMN_DELETE_OLD_MS, mDeleteOldMillis);
+        values.put(SyncMetricsEntry.COLUMN_TOTAL_MS, SystemClock.elapsedRealtime() - mStartElapsed);
+        values.put(SyncMetricsEntry.COLUMN_BYTES, mBytes);
+        values.put(SyncMetricsEntry.COLUMN_ROWS_RECEIVED, mRowsReceived);
+        values.put(SyncMetricsEntry.COLUMN_ROWS_WRITTEN, mRowsInserted + mRowsUpdated);
+        values.put(SyncMetricsEntry.COLUMN_ROWS_DELETED, mRowsDeleted);
+        return values;
+    }
+
+    /**
+     * Reports what the sync did to the database to the sync framework.
+     */
+    synchronized void addTo(SyncStats stats) {
+        stats.numEntries += mRowsReceived;
+        stats.numInserts += mRowsInserted;
+        stats.numUpdates += mRowsUpdated;
+        stats.numDeletes += mRowsDeleted;
+        stats.numSkippedEntries += mRowsReceived - mRowsInserted - mRowsUpdated;
+    }
+
+    /**
+     * Writes the record, with the sync's result as its status.  Losing a record
+     * isn't worth failing a sync over, so errors are only logged.
+     *
+     * @return the row ID of the record, or -1 if it couldn't be written.
+     */
+    long record(Context context) {
+        ContentValues values = toContentValues(getResult());
+        // The whole record is in the table; a line is enough for logcat, and only on request
+        // (adb shell setprop log.tag.SyncMetrics DEBUG).
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, "Sync took " + values.getAsLong(SyncMetricsEntry.COLUMN_TOTAL_MS)
+                    + "ms for " + values.getAsInteger(SyncMetricsEntry.COLUMN_LOCATIONS)
+                    + " locations, " + values.getAsLong(SyncMetricsEntry.COLUMN_BYTES)
+                    + " bytes, " + values.getAsInteger(SyncMetricsEntry.COLUMN_ROWS_WRITTEN)
+                    + " rows written");
+        }
+        try {
+            Uri uri = context.getContentResolver().insert(SyncMetricsEntry.CONTENT_URI, values);
+            return uri == null ? -1 : ContentUris.parseId(uri);
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Couldn't record sync metrics", e);
+            return -1;
+        }
+    }
+}
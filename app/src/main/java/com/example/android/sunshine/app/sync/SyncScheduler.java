@@ -0,0 +1,178 @@
+package com.example.android.sunshine.app.sync;
+
+import android.appwidget.AppWidgetManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+import com.example.android.sunshine.app.widget.DetailWidgetProvider;
+import com.example.android.sunshine.app.widget.TodayWidgetProvider;
+
+import java.util.Calendar;
+
+/**
+ * Picks the period of the periodic sync, instead of always syncing every
+ * {@link SunshineSyncAdapter#SYNC_INTERVAL} seconds.
+ *
+ * After every sync it looks at how much of the forecast the last few syncs actually changed,
+ * the time of day, whether anything outside the app (a widget, Muzei, a watch) is showing the
+ * weather, and whether the device is charging on an unmetered network, and re-registers the
+ * periodic sync if that calls for a different period.  Volatile weather gets synced more
+ * often, quiet nights and nobody watching less.
+ */
+public final class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    // All in seconds, like SYNC_INTERVAL.
+    static final int MIN_SYNC_INTERVAL = 60 * 60;
+    static final int MAX_SYNC_INTERVAL = 60 * 60 * 12;
+    static final int VOLATILE_SYNC_INTERVAL = 60 * 60;
+    static final int CALM_SYNC_INTERVAL = 60 * 60 * 6;
+
+    // How many of the latest syncs that got a forecast we look at, and the share of days they
+    // changed above which the weather counts as volatile, and below which as calm.
+    static final int RECENT_SYNCS = 6;
+    static final double VOLATILE_CHANGE_RATIO = 0.3;
+    static final double CALM_CHANGE_RATIO = 0.1;
+
+    // Local hours between which nobody is likely to look.
+    static final int NIGHT_START_HOUR = 23;
+    static final int NIGHT_END_HOUR = 6;
+
+    private SyncScheduler() {
+    }
+
+    /**
+     * Works out the period the periodic sync should have now, and re-registers it if that's
+     * not the one it has.  Must not be called on the UI thread.
+     */
+    public static void reschedule(Context context) {
+        int interval = computeSyncInterval(queryChangeRatio(context),
+                Calendar.getInstance().get(Calendar.HOUR_OF_DAY),
+                hasActiveConsumers(context), isCheapToSync(context));
+
+        if (getSyncInterval(context) != interval) {
+            Log.d(LOG_TAG, "Syncing every " + (interval / 60) + " minutes from now on");
+            SunshineSyncAdapter.configurePeriodicSync(context, interval, interval / 3);
+            PreferenceManager.getDefaultSharedPreferences(context).edit()
+                    .putInt(context.getString(R.string.pref_sync_interval_key), interval)
+                    .commit();
+        }
+    }
+
+    /**
+     * @return the period, in seconds, the periodic sync was last registered with.
+     */
+    static int getSyncInterval(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getInt(
+                context.getString(R.string.pref_sync_interval_key),
+                SunshineSyncAdapter.SYNC_INTERVAL);
+    }
+
+    /**
+     * @param changeRatio share of the received forecast days that recent syncs changed, or -1
+     *                    if we have no history yet
+     * @param hourOfDay local hour, 0-23
+     * @param consumersActive true if a widget, Muzei or a watch shows the weather
+     * @param cheapToSync true if the device is charging on an unmetered network
+     * @return the sync period in seconds
+     */
+    static int computeSyncInterval(double changeRatio, int hourOfDay, boolean consumersActive,
+                                   boolean cheapToSync) {
+        int interval;
+        if (changeRatio < 0) {
+            interval = SunshineSyncAdapter.SYNC_INTERVAL;
+        } else if (changeRatio >= VOLATILE_CHANGE_RATIO) {
+            interval = VOLATILE_SYNC_INTERVAL;
+        } else if (changeRatio <= CALM_CHANGE_RATIO) {
+            interval = CALM_SYNC_INTERVAL;
+        } else {
+            interval = SunshineSyncAdapter.SYNC_INTERVAL;
+        }
+
+        if (hourOfDay >= NIGHT_START_HOUR || hourOfDay < NIGHT_END_HOUR) {
+            interval *= 2;
+        }
+        if (!consumersActive) {
+            // Only the app itself shows the weather, and it asks for a sync when it's opened.
+            interval *= 2;
+        }
+        if (cheapToSync) {
+            interval /= 2;
+        }
+        return Math.max(MIN_SYNC_INTERVAL, Math.min(MAX_SYNC_INTERVAL, interval));
+    }
+
+    /**
+     * @return the share of received forecast days the last {@link #RECENT_SYNCS} syncs that got
+     * a forecast actually inserted or changed, or -1 if there are none.
+     */
+    static double queryChangeRatio(Context context) {
+        Cursor cursor = context.getContentResolver().query(SyncMetricsEntry.CONTENT_URI,
+                new String[]{SyncMetricsEntry.COLUMN_ROWS_RECEIVED,
+                        SyncMetricsEntry.COLUMN_ROWS_WRITTEN},
+                SyncMetricsEntry.COLUMN_ROWS_RECEIVED + " > 0", null,
+                SyncMetricsEntry._ID + " DESC");
+        if (cursor == null) {
+            return -1;
+        }
+        long received = 0;
+        long written = 0;
+        try {
+            for (int i = 0; i < RECENT_SYNCS && cursor.moveToNext(); i++) {
+                received += cursor.getLong(0);
+                written += cursor.getLong(1);
+            }
+        } finally {
+            cursor.close();
+        }
+        return received == 0 ? -1 : (double) written / received;
+    }
+
+    private static boolean hasActiveConsumers(Context context) {
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        if (appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, TodayWidgetProvider.class)).length > 0
+                || appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, DetailWidgetProvider.class)).length > 0) {
+            return true;
+        }
+        if (PreferenceManager.getDefaultSharedPreferences(context)
+                .getBoolean(context.getString(R.string.pref_muzei_active_key), false)) {
+            return true;
+        }
+        return WeatherFanOut.getInstance(context).hasConnectedWearable();
+    }
+
+    private static boolean isCheapToSync(Context context) {
+        // ACTION_BATTERY_CHANGED is sticky, so this just reads the last one without registering
+        Intent battery = context.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        boolean charging = battery != null
+                && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        if (!charging) {
+            return false;
+        }
+
+        ConnectivityManager cm =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        if (activeNetwork == null || !activeNetwork.isConnected()) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return !cm.isActiveNetworkMetered();
+        }
+        return activeNetwork.getType() == ConnectivityManager.TYPE_WIFI;
+    }
+}
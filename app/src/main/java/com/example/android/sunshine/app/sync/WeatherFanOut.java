@@ -0,0 +1,586 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.SuppressLint;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.annotation.NonNull;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.TaskStackBuilder;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tells everything outside the app's own UI that the weather changed: the widgets, Muzei, the
+ * daily notification and the wear data item.
+ *
+ * This used to happen inline at the end of every sync, with each consumer querying "today"
+ * for itself on the sync thread and the notification blocking on a Glide download.  Now the
+ * sync just calls {@link #dataChanged()} and carries on.  On a background thread of its own,
+ * the fan-out reads one {@link WeatherSnapshot} and hands that to every consumer.  Requests are
+ * debounced, so several syncs finishing close together (one per location, or a periodic sync
+ * right behind a manual one) produce a single update.  Each consumer is timed and the timings
+ * are logged, and the total goes into the sync metrics of every sync the fan-out covered.
+ * Every snapshot is also written out as a {@link WeatherSnapshotFile} for the next cold start.
+ *
+ * The sync is long gone by the time the fan-out runs, so nothing else keeps the device awake or
+ * the process alive for it.  A wake lock is held from the first request until the fan-out is
+ * done, so the debounce is measured in seconds even if the screen is off.  A pending fan-out is
+ * also noted in the preferences until it has run.  If the process dies first, the fan-out is
+ * picked up again as soon as this class is next used, at the latest by the next sync.
+ */
+public class WeatherFanOut implements GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener {
+    private static final String LOG_TAG = WeatherFanOut.class.getSimpleName();
+
+    // How long we wait after a change for another one before telling anybody, and the longest
+    // a steady stream of changes can hold the update back.
+    static final long DEBOUNCE_MILLIS = 2 * 1000;
+    static final long MAX_DEBOUNCE_MILLIS = 10 * 1000;
+    // The wake lock lets go on its own after this, in case a fan-out hangs.  Enough for the
+    // debounce and a slow notification icon download.
+    private static final long WAKE_LOCK_TIMEOUT_MILLIS = MAX_DEBOUNCE_MILLIS + 60 * 1000;
+
+    // The widgets and Muzei run in their own services.  They use our latest snapshot rather than
+    // querying, as long as it is this fresh.
+    private static final long SNAPSHOT_MAX_AGE_MILLIS = 60 * 1000;
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int WEATHER_NOTIFICATION_ID = 3004;
+    private static final long LARGE_ICON_TIMEOUT_SECONDS = 10;
+
+    //And the data tag for android wear (note - we use data items rather than message. we really always want
+    //to have weather data on watch)
+    private final static String DATAITEM_PATH = "/sunshineWeather";
+    private final static String DATAITEM_LOW_TEMP = "low";
+    private final static String DATAITEM_HIGH_TEMP = "high";
+    private final static String DATAITEM_ICONBM = "iconbm";
+    // when the phone last synced the forecast, so the watch can tell stale data from fresh
+    private final static String DATAITEM_LAST_SYNC = "last_sync";
+    // The watch gives up on data it hasn't heard about for a day.  Tell it the forecast is
+    // still current well before that, even when none of the values changed.
+    private static final long WEAR_RESEND_MILLIS = 6 * 60 * 60 * 1000;
+
+    private static final int MSG_FAN_OUT = 1;
+    private static final int MSG_UPDATE_WEAR = 2;
+    private static final int MSG_SYNC_CONFIRMED = 3;
+
+    private static WeatherFanOut sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final PowerManager.WakeLock mWakeLock;
+    //keep a copy of the googleapiclient around
+    private final GoogleApiClient mGoogleApiClient;
+
+    private long mFirstRequestMillis;
+    // Sync metrics rows waiting for the next fan-out's time.  Guarded by this.
+    private ArrayList<Long> mPendingMetricsIds = new ArrayList<Long>();
+    // Whether the preference says a fan-out is pending, and whether one is running right now.
+    // Guarded by this.
+    private boolean mPendingSaved;
+    private boolean mFanOutRunning;
+    private volatile WeatherSnapshot mLatestSnapshot;
+    private volatile int mFanOutCount;
+
+    public static synchronized WeatherFanOut getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherFanOut(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the snapshot the last fan-out handed out, if it is recent and for the preferred
+     * location.  Right after a cold start, when there hasn't been a fan-out in this process yet,
+     * the one the last fan-out wrote to disk, as long as no sync has been since.  Otherwise null,
+     * and consumers should query the provider themselves.
+     */
+    public static WeatherSnapshot getCurrentSnapshot(Context context) {
+        WeatherFanOut fanOut;
+        synchronized (WeatherFanOut.class) {
+            fanOut = sInstance;
+        }
+        String locationSetting = Utility.getPreferredLocation(context);
+        WeatherSnapshot snapshot = fanOut == null ? null : fanOut.mLatestSnapshot;
+        if (snapshot != null) {
+            return snapshot.isCurrent(locationSetting, SNAPSHOT_MAX_AGE_MILLIS) ? snapshot : null;
+        }
+        return readSnapshotFile(context, locationSetting);
+    }
+
+    /**
+     * @return the snapshot on disk, if it is for the given location and has the last sync time
+     * the latest sync noted for it.  A file whose fan-out never ran, or that a later sync
+     * overtook, would otherwise be shown as if it were current.  Doesn't touch the database.
+     */
+    static WeatherSnapshot readSnapshotFile(Context context, String locationSetting) {
+        WeatherSnapshot snapshot = WeatherSnapshotFile.read(context, locationSetting);
+        if (snapshot == null || snapshot.getDayCount() == 0) {
+            return null;
+        }
+        long lastSync = WeatherSnapshotFile.getLastSync(context, locationSetting);
+        if (snapshot.getLastSync() != lastSync) {
+            Log.d(LOG_TAG, "Snapshot file is from the sync at " + snapshot.getLastSync()
+                    + ", the latest sync from " + lastSync);
+            return null;
+        }
+        return snapshot;
+    }
+
+    private WeatherFanOut(Context context) {
+        mContext = context;
+
+        HandlerThread thread = new HandlerThread("WeatherFanOut", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_FAN_OUT:
+                        fanOut();
+                        break;
+                    case MSG_UPDATE_WEAR:
+                        // Usually the first thing we do after a cold start, when the watch
+                        // connects, so try the file before querying the whole forecast.
+                        WeatherSnapshot snapshot = getCurrentSnapshot(mContext);
+                        updateWear(snapshot != null ? snapshot : WeatherSnapshot.query(mContext));
+                        break;
+                    case MSG_SYNC_CONFIRMED:
+                        confirmSync();
+                        break;
+                }
+            }
+        };
+
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, LOG_TAG);
+        mWakeLock.setReferenceCounted(false);
+
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .build();
+        mGoogleApiClient.connect();
+
+        // The last process may have died with a fan-out still waiting.
+        resumePendingFanOut();
+    }
+
+    /**
+     * Asks for every consumer to be brought up to date with the database.  Returns right away.
+     */
+    public void dataChanged() {
+        dataChanged(-1);
+    }
+
+    /**
+     * Same as {@link #dataChanged()}, and records how long the fan-out took in the given sync
+     * metrics row.
+     *
+     * @param metricsId row ID in the sync metrics table, or -1 for none
+     */
+    public synchronized void dataChanged(long metricsId) {
+        if (metricsId != -1) {
+            mPendingMetricsIds.add(metricsId);
+        }
+        setFanOutPending(true);
+        mWakeLock.acquire(WAKE_LOCK_TIMEOUT_MILLIS);
+        long now = SystemClock.uptimeMillis();
+        if (!mHandler.hasMessages(MSG_FAN_OUT)) {
+            mFirstRequestMillis = now;
+        }
+        mHandler.removeMessages(MSG_FAN_OUT);
+        mHandler.sendEmptyMessageAtTime(MSG_FAN_OUT,
+                Math.min(now + DEBOUNCE_MILLIS, mFirstRequestMillis + MAX_DEBOUNCE_MILLIS));
+    }
+
+    /**
+     * Runs a fan-out that an earlier process asked for but didn't live to see, if there is one.
+     * Returns right away.
+     */
+    public synchronized void resumePendingFanOut() {
+        if (mHandler.hasMessages(MSG_FAN_OUT) || mFanOutRunning) {
+            return;
+        }
+        if (mPendingSaved || PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getBoolean(mContext.getString(R.string.pref_fan_out_pending_key), false)) {
+            Log.d(LOG_TAG, "Resuming a fan-out that never ran");
+            // already saved, no need to write it again
+            mPendingSaved = true;
+            dataChanged(-1);
+        }
+    }
+
+    // Only ever called with the lock held.  commit rather than apply, since the whole point is
+    // for the flag to outlive the process.
+    private void setFanOutPending(boolean pending) {
+        if (pending == mPendingSaved) {
+            return;
+        }
+        mPendingSaved = pending;
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putBoolean(mContext.getString(R.string.pref_fan_out_pending_key), pending)
+                .commit();
+    }
+
+    /**
+     * Tells the fan-out that a sync found the forecast unchanged.  Nothing needs redrawing, but
+     * the snapshot file is brought up to the new last sync time, and the watch is told the
+     * forecast is still current once {@link #WEAR_RESEND_MILLIS} have gone by since it last
+     * heard from us.  Returns right away.
+     */
+    public synchronized void syncConfirmed() {
+        // A fan-out on its way does all of this anyway.
+        if (!mHandler.hasMessages(MSG_FAN_OUT) && !mHandler.hasMessages(MSG_SYNC_CONFIRMED)) {
+            mHandler.sendEmptyMessage(MSG_SYNC_CONFIRMED);
+        }
+    }
+
+    /**
+     * Asks for just the wear data item to be refreshed, e.g. because the units changed.  Wear
+     * is sent if the data differs from what it last got or {@link SunshineSyncAdapter#mbUpdateOnce}
+     * is set.
+     */
+    public synchronized void updateWear() {
+        if (!mHandler.hasMessages(MSG_FAN_OUT) && !mHandler.hasMessages(MSG_UPDATE_WEAR)) {
+            mHandler.sendEmptyMessage(MSG_UPDATE_WEAR);
+        }
+    }
+
+    /**
+     * @return true if a watch is connected right now.  Blocks for up to a couple of seconds, so
+     * must not be called on the UI thread.
+     */
+    boolean hasConnectedWearable() {
+        if (!mGoogleApiClient.isConnected()) {
+            return false;
+        }
+        NodeApi.GetConnectedNodesResult result =
+                Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).await(2, TimeUnit.SECONDS);
+        return result.getStatus().isSuccess() && !result.getNodes().isEmpty();
+    }
+
+    /**
+     * @return how many fan-outs have run, for tests.
+     */
+    int getFanOutCount() {
+        return mFanOutCount;
+    }
+
+    private void fanOut() {
+        ArrayList<Long> metricsIds;
+        synchronized (this) {
+            metricsIds = mPendingMetricsIds;
+            mPendingMetricsIds = new ArrayList<Long>();
+            mFanOutRunning = true;
+        }
+        boolean done = false;
+        try {
+            fanOut(metricsIds);
+            done = true;
+        } finally {
+            synchronized (this) {
+                mFanOutRunning = false;
+                // Unless another change came in meanwhile, which will run its own fan-out.
+                if (!mHandler.hasMessages(MSG_FAN_OUT)) {
+                    if (done) {
+                        setFanOutPending(false);
+                    }
+                    mWakeLock.release();
+                }
+            }
+        }
+    }
+
+    private void fanOut(ArrayList<Long> metricsIds) {
+        long start = SystemClock.elapsedRealtime();
+        WeatherSnapshot snapshot = WeatherSnapshot.query(mContext);
+        mLatestSnapshot = snapshot;
+        WeatherSnapshotFile.write(mContext, snapshot);
+        long snapshotDone = SystemClock.elapsedRealtime();
+
+        updateWidgets();
+        long widgetsDone = SystemClock.elapsedRealtime();
+        updateMuzei();
+        long muzeiDone = SystemClock.elapsedRealtime();
+        notifyWeather(snapshot);
+        long notificationDone = SystemClock.elapsedRealtime();
+        updateWear(snapshot);
+        long wearDone = SystemClock.elapsedRealtime();
+
+        mFanOutCount++;
+        Log.d(LOG_TAG, "Fan-out of " + snapshot.getDayCount() + " days:"
+                + " snapshot=" + (snapshotDone - start) + "ms"
+                + " widgets=" + (widgetsDone - snapshotDone) + "ms"
+                + " muzei=" + (muzeiDone - widgetsDone) + "ms"
+                + " notification=" + (notificationDone - muzeiDone) + "ms"
+                + " wear=" + (wearDone - notificationDone) + "ms");
+        recordFanOutTime(metricsIds, wearDone - start);
+    }
+
+    private void confirmSync() {
+        WeatherSnapshot snapshot = WeatherSnapshot.query(mContext);
+        mLatestSnapshot = snapshot;
+        WeatherSnapshotFile.write(mContext, snapshot);
+        updateWear(snapshot);
+    }
+
+    private void recordFanOutTime(ArrayList<Long> metricsIds, long millis) {
+        if (metricsIds.isEmpty()) {
+            return;
+        }
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.SyncMetricsEntry.COLUMN_FAN_OUT_MS, millis);
+        for (long metricsId : metricsIds) {
+            mContext.getContentResolver().update(WeatherContract.SyncMetricsEntry.CONTENT_URI,
+                    values, WeatherContract.SyncMetricsEntry._ID + " = ?",
+                    new String[]{Long.toString(metricsId)});
+        }
+    }
+
+    private void updateWidgets() {
+        // Setting the package ensures that only components in our app will receive the broadcast
+        Intent dataUpdatedIntent = new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                .setPackage(mContext.getPackageName());
+        mContext.sendBroadcast(dataUpdatedIntent);
+    }
+
+    private void updateMuzei() {
+        // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
+        // Muzei background on lower API level devices
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            mContext.startService(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                    .setClass(mContext, WeatherMuzeiSource.class));
+        }
+    }
+
+    //
+    //Will update wear with the current weather
+    //
+    private void updateWear(WeatherSnapshot snapshot) {
+        //unlike notifications where you don't want to spam...
+        //with wear, we only want to update if something has changed.
+        //so check current values against last values sent.
+        Context context = mContext;
+        WeatherSnapshot.Day today = snapshot.getToday();
+        if (today == null) {
+            return;
+        }
+
+        //So lets get the last data set sent to wear device
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String lastLowWearKey = context.getString(R.string.pref_last_low_temp_to_wear);
+        String lastHighWearKey = context.getString(R.string.pref_last_high_temp_to_wear);
+        String lastConditionWearKey = context.getString(R.string.pref_last_condition_to_wear);
+        String lastUpdateTimeWear = context.getString(R.string.pref_last_time_to_wear);
+
+        int lastLowTemp = prefs.getInt(lastLowWearKey, -1000);  //put in a default that won't match...
+        int lastHighTemp = prefs.getInt(lastHighWearKey, -1000);
+        int lastConditions = prefs.getInt(lastConditionWearKey, 0);
+        long lastSentMillis = prefs.getLong(lastUpdateTimeWear, 0);
+
+        //Okay - now we have current update. And last update. Do they match?
+        //convert to proper units first...
+        int weatherId = today.weatherId;
+        int convertHigh = Utility.formatTemperatureInt(context, today.high);
+        int convertLow = Utility.formatTemperatureInt(context, today.low);
+
+        if (SunshineSyncAdapter.mbUpdateOnce
+                || (weatherId != lastConditions)
+                || (convertHigh != lastHighTemp)
+                || (convertLow != lastLowTemp)
+                || (snapshot.getLastSync() > lastSentMillis
+                        && System.currentTimeMillis() - lastSentMillis >= WEAR_RESEND_MILLIS)) {
+            //We have a change! (or is at launch)
+            //do we have a connection to api client?  If not, onConnected() will try again.
+            if (mGoogleApiClient.isConnected()) {
+                SunshineSyncAdapter.mbUpdateOnce = false;       //reset the flag
+
+                //Okay - update the data map
+                PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(DATAITEM_PATH);
+
+                putDataMapRequest.getDataMap().putInt(DATAITEM_HIGH_TEMP, convertHigh);
+                putDataMapRequest.getDataMap().putInt(DATAITEM_LOW_TEMP, convertLow);
+                putDataMapRequest.getDataMap().putLong(DATAITEM_LAST_SYNC, snapshot.getLastSync());
+
+                //grab the bitmap and shove in there as well...
+                int icon_resource = Utility.getIconResourceForWeatherCondition(weatherId);
+                Asset asset = Utility.createAssetFromDrawableResource(context, icon_resource);
+                putDataMapRequest.getDataMap().putAsset(DATAITEM_ICONBM, asset);
+
+                PutDataRequest request = putDataMapRequest.asPutDataRequest();
+                request.setUrgent();    //might not really need to do this but for testing, required...
+
+                Wearable.DataApi.putDataItem(mGoogleApiClient, request)
+                        .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+                            @Override
+                            public void onResult(@NonNull DataApi.DataItemResult dataItemResult) {
+                                if (!dataItemResult.getStatus().isSuccess()) {
+                                    Log.v(LOG_TAG, "Failed to put wear data");
+                                } else {
+                                    Log.v(LOG_TAG, "Successful in putting wear data");
+                                }
+                            }
+                        });
+
+                //Finally, store the data sent in the preferences
+                SharedPreferences.Editor editor = prefs.edit();
+                editor.putInt(lastHighWearKey, convertHigh);
+                editor.putInt(lastLowWearKey, convertLow);
+                editor.putInt(lastConditionWearKey, weatherId);
+                editor.putLong(lastUpdateTimeWear, System.currentTimeMillis());
+                editor.commit();
+            }
+        }
+    }
+
+    private void notifyWeather(WeatherSnapshot snapshot) {
+        Context context = mContext;
+        //checking the last update and notify if it' the first of the day
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String displayNotificationsKey = context.getString(R.string.pref_enable_notifications_key);
+        boolean displayNotifications = prefs.getBoolean(displayNotificationsKey,
+                Boolean.parseBoolean(context.getString(R.string.pref_enable_notifications_default)));
+        if (!displayNotifications) {
+            return;
+        }
+
+        String lastNotificationKey = context.getString(R.string.pref_last_notification);
+        long lastSync = prefs.getLong(lastNotificationKey, 0);
+        WeatherSnapshot.Day today = snapshot.getToday();
+        if (System.currentTimeMillis() - lastSync < DAY_IN_MILLIS || today == null) {
+            return;
+        }
+
+        // Last sync was more than 1 day ago, let's send a notification with the weather.
+        int weatherId = today.weatherId;
+        int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+        Resources resources = context.getResources();
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        @SuppressLint("InlinedApi")
+        int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        @SuppressLint("InlinedApi")
+        int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+        // Retrieve the large icon.  This blocks, but only our own thread, and not for long: on
+        // a slow network the notification goes out with the bundled art instead.
+        Bitmap largeIcon;
+        try {
+            largeIcon = Glide.with(context)
+                    .load(artUrl)
+                    .asBitmap()
+                    .error(artResourceId)
+                    .fitCenter()
+                    .into(largeIconWidth, largeIconHeight)
+                    .get(LARGE_ICON_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException e) {
+            Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+            largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
+        }
+        String title = context.getString(R.string.app_name);
+
+        // Define the text of the forecast.
+        String contentText = String.format(context.getString(R.string.format_notification),
+                today.shortDesc,
+                Utility.formatTemperature(context, today.high),
+                Utility.formatTemperature(context, today.low));
+
+        // NotificationCompatBuilder is a very convenient way to build backward-compatible
+        // notifications.  Just throw in some data.
+        NotificationCompat.Builder mBuilder =
+                new NotificationCompat.Builder(context)
+                        .setColor(resources.getColor(R.color.primary_light))
+                        .setSmallIcon(iconId)
+                        .setLargeIcon(largeIcon)
+                        .setContentTitle(title)
+                        .setContentText(contentText);
+
+        // Make something interesting happen when the user clicks on the notification.
+        // In this case, opening the app is sufficient.
+        Intent resultIntent = new Intent(context, MainActivity.class);
+
+        // The stack builder object will contain an artificial back stack for the
+        // started Activity.
+        // This ensures that navigating backward from the Activity leads out of
+        // your application to the Home screen.
+        TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+        stackBuilder.addNextIntent(resultIntent);
+        PendingIntent resultPendingIntent =
+                stackBuilder.getPendingIntent(
+                        0,
+                        PendingIntent.FLAG_UPDATE_CURRENT
+                );
+        mBuilder.setContentIntent(resultPendingIntent);
+
+        NotificationManager mNotificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+        mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+
+        //refreshing last sync
+        SharedPreferences.Editor editor = prefs.edit();
+        editor.putLong(lastNotificationKey, System.currentTimeMillis());
+        editor.commit();
+    }
+
+    @Override
+    public void onConnected(Bundle bundle) {
+        // A wear update may have been skipped while we were still connecting.
+        if (SunshineSyncAdapter.mbUpdateOnce) {
+            updateWear();
+        }
+    }
+
+    @Override
+    public void onConnectionSuspended(int i) {
+    }
+
+    @Override
+    public void onConnectionFailed(ConnectionResult connectionResult) {
+    }
+}
@@ -0,0 +1,259 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The one place the sync package talks HTTP.
+ *
+ * Every request gets hard connect/read timeouts and asks for a gzip'd body.  Responses are
+ * released by draining and closing the body rather than calling disconnect(), so the platform
+ * keeps the connection alive and back-to-back requests (several locations in one sync, a
+ * manual refresh right after a periodic one) reuse it instead of paying for a new handshake.
+ *
+ * Each response also records connect time, time-to-first-byte, the time spent waiting on the
+ * body and the number of body bytes that actually came over the wire, before decompression,
+ * and logs them when it is closed.
+ */
+class WeatherHttpClient {
+    private static final String LOG_TAG = WeatherHttpClient.class.getSimpleName();
+
+    static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    // If there's more than this left unread when a response is closed, it isn't worth reading
+    // it just to keep the connection; we disconnect instead.
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private static final WeatherHttpClient sInstance =
+            new WeatherHttpClient(CONNECT_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS);
+
+    private final int mConnectTimeoutMillis;
+    private final int mReadTimeoutMillis;
+
+    static WeatherHttpClient getInstance() {
+        return sInstance;
+    }
+
+    // Only tests need other timeouts; everybody else shares the instance above.
+    WeatherHttpClient(int connectTimeoutMillis, int readTimeoutMillis) {
+        mConnectTimeoutMillis = connectTimeoutMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Sends a GET and waits for the response headers.
+     *
+     * @param headers extra request headers, may be null
+     * @return the response.  The caller must close it.
+     */
+    Response get(URL url, Map<String, String> headers) throws IOException {
+        long start = SystemClock.elapsedRealtime();
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        try {
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setConnectTimeout(mConnectTimeoutMillis);
+            urlConnection.setReadTimeout(mReadTimeoutMillis);
+            // Setting this ourselves means HttpURLConnection leaves the body compressed, which is
+            // what lets us count the bytes on the wire.  Response.getBody() inflates it.
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+            if (headers != null) {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    urlConnection.setRequestProperty(header.getKey(), header.getValue());
+                }
+            }
+            urlConnection.connect();
+            long connectMillis = SystemClock.elapsedRealtime() - start;
+            int code = urlConnection.getResponseCode();
+            return new Response(url, urlConnection, code, start, connectMillis,
+                    SystemClock.elapsedRealtime() - start);
+        } catch (IOException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    static class Response implements WeatherSource.Response {
+        private final URL mUrl;
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        private final long mStartMillis;
+        private final long mConnectMillis;
+        private final long mTimeToFirstByteMillis;
+
+        private CountingInputStream mRawBody;
+        private InputStream mBody;
+        private boolean mClosed;
+
+        private Response(URL url, HttpURLConnection connection, int code, long startMillis,
+                         long connectMillis, long timeToFirstByteMillis) {
+            mUrl = url;
+            mConnection = connection;
+            mCode = code;
+            mStartMillis = startMillis;
+            mConnectMillis = connectMillis;
+            mTimeToFirstByteMillis = timeToFirstByteMillis;
+        }
+
+        @Override
+        public int getCode() {
+            return mCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        /**
+         * @return the decoded response body.  Throws the same IOExceptions as
+         * {@link HttpURLConnection#getInputStream()}, e.g. for error responses.
+         */
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                mRawBody = new CountingInputStream(mConnection.getInputStream());
+                if ("gzip".equalsIgnoreCase(mConnection.getContentEncoding())) {
+                    mBody = new GZIPInputStream(mRawBody);
+                } else {
+                    mBody = mRawBody;
+                }
+            }
+            return mBody;
+        }
+
+        /**
+         * @return time spent on DNS, TCP and TLS setup.  Close to 0 if a pooled connection was
+         * reused.
+         */
+        @Override
+        public long getConnectMillis() {
+            return mConnectMillis;
+        }
+
+        @Override
+        public long getTimeToFirstByteMillis() {
+            return mTimeToFirstByteMillis;
+        }
+
+        /**
+         * @return time spent blocked reading the body off the connection so far.  Whatever the
+         * caller does between reads, like parsing, isn't counted.
+         */
+        @Override
+        public long getBodyReadMillis() {
+            return mRawBody == null ? 0 : mRawBody.getReadNanos() / 1000000;
+        }
+
+        /**
+         * @return body bytes read off the connection so far, before decompression.
+         */
+        @Override
+        public long getBytesOnWire() {
+            return mRawBody == null ? 0 : mRawBody.getCount();
+        }
+
+        /**
+         * Gives up on the response right away, e.g. because the sync was cancelled.  The
+         * connection is not reused.
+         */
+        @Override
+        public void abort() {
+            mClosed = true;
+            mConnection.disconnect();
+        }
+
+        /**
+         * Releases the response.  What's left of a short body is read so the connection can go
+         * back to the pool.
+         */
+        @Override
+        public void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                InputStream raw = mRawBody;
+                if (raw == null) {
+                    raw = mCode < HttpURLConnection.HTTP_BAD_REQUEST
+                            ? mConnection.getInputStream() : mConnection.getErrorStream();
+                }
+                if (raw != null) {
+                    long skipped = 0;
+                    byte[] buffer = new byte[4096];
+                    int read;
+                    while (skipped <= MAX_DRAIN_BYTES && (read = raw.read(buffer)) != -1) {
+                        skipped += read;
+                    }
+                    raw.close();
+                    if (skipped > MAX_DRAIN_BYTES) {
+                        mConnection.disconnect();
+                    }
+                }
+            } catch (IOException e) {
+                mConnection.disconnect();
+            }
+            Log.d(LOG_TAG, mUrl.getPath() + " " + mCode
+                    + " connect=" + mConnectMillis + "ms"
+                    + " ttfb=" + mTimeToFirstByteMillis + "ms"
+                    + " total=" + (SystemClock.elapsedRealtime() - mStartMillis) + "ms"
+                    + " wire=" + getBytesOnWire() + "B"
+                    + " encoding=" + mConnection.getContentEncoding());
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long mCount;
+        private long mReadNanos;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return mCount;
+        }
+
+        long getReadNanos() {
+            return mReadNanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            mReadNanos += System.nanoTime() - start;
+            if (b != -1) {
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(buffer, offset, count);
+            mReadNanos += System.nanoTime() - start;
+            if (read > 0) {
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            long skipped = super.skip(byteCount);
+            mCount += skipped;
+            return skipped;
+        }
+    }
+}
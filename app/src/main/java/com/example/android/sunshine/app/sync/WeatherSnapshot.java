@@ -0,0 +1,173 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * An immutable copy of the forecast for the preferred location, from today on.
+ *
+ * {@link WeatherFanOut} reads one of these after every sync that changed something and hands
+ * the same instance to every consumer, so the widgets, Muzei, wear and the notification don't
+ * each go back to the provider for today's weather.
+ */
+public final class WeatherSnapshot {
+
+    private static final String[] SNAPSHOT_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_LAST_SYNC
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+    private static final int INDEX_COORD_LAT = 5;
+    private static final int INDEX_COORD_LONG = 6;
+    private static final int INDEX_LAST_SYNC = 7;
+
+    public static final class Day {
+        public final long date;
+        public final int weatherId;
+        public final String shortDesc;
+        public final double high;
+        public final double low;
+
+        Day(long date, int weatherId, String shortDesc, double high, double low) {
+            this.date = date;
+            this.weatherId = weatherId;
+            this.shortDesc = shortDesc;
+            this.high = high;
+            this.low = low;
+        }
+    }
+
+    private final String mLocationSetting;
+    private final double mCoordLat;
+    private final double mCoordLong;
+    private final long mLastSync;
+    private final long mToday;
+    private final Day[] mDays;
+    private final long mCreatedElapsedMillis;
+
+    WeatherSnapshot(String locationSetting, double coordLat, double coordLong, long lastSync,
+                    long today, Day[] days) {
+        mLocationSetting = locationSetting;
+        mCoordLat = coordLat;
+        mCoordLong = coordLong;
+        mLastSync = lastSync;
+        mToday = today;
+        mDays = days;
+        mCreatedElapsedMillis = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Reads the forecast for the preferred location in one query.  Must not be called on the
+     * UI thread.
+     */
+    static WeatherSnapshot query(Context context) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        long now = System.currentTimeMillis();
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, now);
+        Cursor cursor = context.getContentResolver().query(weatherUri, SNAPSHOT_COLUMNS, null,
+                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        Day[] days;
+        double coordLat = 0;
+        double coordLong = 0;
+        long lastSync = 0;
+        if (cursor == null) {
+            days = new Day[0];
+        } else {
+            try {
+                days = new Day[cursor.getCount()];
+                if (cursor.moveToFirst()) {
+                    coordLat = cursor.getDouble(INDEX_COORD_LAT);
+                    coordLong = cursor.getDouble(INDEX_COORD_LONG);
+                    lastSync = cursor.isNull(INDEX_LAST_SYNC) ? 0 : cursor.getLong(INDEX_LAST_SYNC);
+                }
+                for (int i = 0; cursor.moveToPosition(i); i++) {
+                    days[i] = new Day(cursor.getLong(INDEX_DATE),
+                            cursor.getInt(INDEX_WEATHER_ID),
+                            cursor.getString(INDEX_SHORT_DESC),
+                            cursor.getDouble(INDEX_MAX_TEMP),
+                            cursor.getDouble(INDEX_MIN_TEMP));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return new WeatherSnapshot(locationSetting, coordLat, coordLong, lastSync,
+                WeatherContract.normalizeDate(now), days);
+    }
+
+    public String getLocationSetting() {
+        return mLocationSetting;
+    }
+
+    public double getCoordLat() {
+        return mCoordLat;
+    }
+
+    public double getCoordLong() {
+        return mCoordLong;
+    }
+
+    /**
+     * @return when a sync last confirmed this forecast, in milliseconds since the epoch, or 0
+     * if none ever has.
+     */
+    public long getLastSync() {
+        return mLastSync;
+    }
+
+    /**
+     * @return true if the forecast was last synced longer than maxAgeMillis ago.
+     */
+    public boolean isStale(long maxAgeMillis) {
+        return mLastSync == 0 || System.currentTimeMillis() - mLastSync > maxAgeMillis;
+    }
+
+    /**
+     * @return today's weather, or null if we don't have a forecast for today.
+     */
+    public Day getToday() {
+        return mDays.length > 0 && mDays[0].date == mToday ? mDays[0] : null;
+    }
+
+    /**
+     * @return the first day we have a forecast for, today or later, or null if there is none.
+     */
+    public Day getFirstDay() {
+        return mDays.length > 0 ? mDays[0] : null;
+    }
+
+    public int getDayCount() {
+        return mDays.length;
+    }
+
+    public Day getDay(int position) {
+        return mDays[position];
+    }
+
+    /**
+     * @return true if this snapshot was taken for the given location no longer than maxAgeMillis
+     * ago, and on the same day it's now.
+     */
+    public boolean isCurrent(String locationSetting, long maxAgeMillis) {
+        return mLocationSetting.equals(locationSetting)
+                && SystemClock.elapsedRealtime() - mCreatedElapsedMillis <= maxAgeMillis
+                && mToday == WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link WeatherSnapshot} kept on disk, so the forecast list, the widgets, Muzei and wear
+ * have something to show right after a cold start, before SQLite has been opened.
+ *
+ * {@link WeatherFanOut} rewrites the file every time it hands out a new snapshot, so it is
+ * never further behind the database than the fan-out itself.  Readers map it and take it as
+ * a first answer only; whoever reads it still gets the real data from the provider
+ * afterwards.
+ *
+ * To tell whether a sync has got ahead of the file without opening the database, the sync
+ * also notes every location's last sync time in a preferences file of its own, see
+ * {@link #setLastSync}.
+ *
+ * The layout is a 16 byte header: magic, format version, payload length and a CRC32 of the
+ * payload, all big-endian ints.  The payload is the write time, the location setting, its
+ * coordinates and when it was last synced, then the days.  A file with the wrong magic,
+ * another version, a bad length or a bad checksum is ignored, as if there were none.
+ */
+public final class WeatherSnapshotFile {
+    private static final String LOG_TAG = WeatherSnapshotFile.class.getSimpleName();
+
+    static final String FILE_NAME = "weather_snapshot.bin";
+    // location setting -> the last sync time the database has for it
+    static final String LAST_SYNC_PREFS_NAME = "snapshot_last_sync";
+
+    static final int MAGIC = 0x53554e53;    // "SUNS"
+    // Bump whenever the payload changes.  Old files are then ignored until the next fan-out.
+    // 2: the location's last sync time after its coordinates.
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 16;
+
+    // A sanity limit, so a damaged length can't make us allocate much.
+    private static final int MAX_PAYLOAD_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private WeatherSnapshotFile() {
+    }
+
+    static File getFile(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Notes the last sync time a sync is about to commit for a location.  Call it before the
+     * commit: if the commit then fails, the file is only ignored until a later sync gets
+     * through, where noting it afterwards could leave a file behind the database looking
+     * current.  Writes to disk, so not on the UI thread.
+     */
+    static void setLastSync(Context context, String locationSetting, long lastSync) {
+        getLastSyncPrefs(context).edit().putLong(locationSetting, lastSync).commit();
+    }
+
+    /**
+     * @return the last sync time of a location as of the latest sync, or 0 if none has noted
+     * one.  The snapshot file is current if it has the same.
+     */
+    static long getLastSync(Context context, String locationSetting) {
+        return getLastSyncPrefs(context).getLong(locationSetting, 0);
+    }
+
+    private static SharedPreferences getLastSyncPrefs(Context context) {
+        return context.getSharedPreferences(LAST_SYNC_PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Reads the snapshot for the preferred location from disk.  Days before today are left
+     * out.  Cheap enough to call on the UI thread at startup: the file is a few hundred bytes
+     * and is mapped rather than read through a stream.
+     *
+     * @return the snapshot, or null if there is no usable file or it is for another location.
+     */
+    public static WeatherSnapshot read(Context context, String locationSetting) {
+        WeatherSnapshot snapshot = read(getFile(context));
+        if (snapshot == null || !snapshot.getLocationSetting().equals(locationSetting)) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    static WeatherSnapshot read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > HEADER_SIZE + MAX_PAYLOAD_SIZE) {
+                Log.w(LOG_TAG, "Ignoring snapshot file of " + size + " bytes");
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getInt() != MAGIC) {
+                Log.w(LOG_TAG, "Ignoring snapshot file with a bad magic number");
+                return null;
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                Log.d(LOG_TAG, "Ignoring snapshot file version " + version);
+                return null;
+            }
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length != size - HEADER_SIZE) {
+                Log.w(LOG_TAG, "Ignoring truncated snapshot file");
+                return null;
+            }
+            // CRC32 only takes a ByteBuffer from API 26 on, so the payload is copied out once.
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                Log.w(LOG_TAG, "Ignoring snapshot file with a bad checksum");
+                return null;
+            }
+            return decode(ByteBuffer.wrap(payload));
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Couldn't read snapshot file", e);
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    // nothing to do, we only read from it
+                }
+            }
+        }
+    }
+
+    private static WeatherSnapshot decode(ByteBuffer payload) {
+        payload.getLong();  // write time, for whoever looks at the file by hand
+        String locationSetting = getString(payload);
+        double coordLat = payload.getDouble();
+        double coordLong = payload.getDouble();
+        long lastSync = payload.getLong();
+        int dayCount = payload.getShort() & 0xffff;
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ArrayList<WeatherSnapshot.Day> days = new ArrayList<WeatherSnapshot.Day>(dayCount);
+        for (int i = 0; i < dayCount; i++) {
+            long date = payload.getLong();
+            int weatherId = payload.getInt();
+            double high = payload.getDouble();
+            double low = payload.getDouble();
+            String shortDesc = getString(payload);
+            // The file may be from yesterday; the days that have gone by don't count.
+            if (date >= today) {
+                days.add(new WeatherSnapshot.Day(date, weatherId, shortDesc, high, low));
+            }
+        }
+        if (payload.hasRemaining()) {
+            throw new IllegalArgumentException("Trailing bytes in snapshot file");
+        }
+        return new WeatherSnapshot(locationSetting, coordLat, coordLong, lastSync, today,
+                days.toArray(new WeatherSnapshot.Day[days.size()]));
+    }
+
+    /**
+     * Replaces the file with the given snapshot.  The new file is written next to the old one
+     * and renamed over it, so readers see either the old snapshot or the new one, never half.
+     *
+     * @return true if the file was written.
+     */
+    static boolean write(Context context, WeatherSnapshot snapshot) {
+        return write(getFile(context), snapshot);
+    }
+
+    static boolean write(File file, WeatherSnapshot snapshot) {
+        byte[] payload = encode(snapshot);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(payload.length)
+                .putInt((int) crc.getValue())
+                .put(payload);
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(buffer.array());
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                Log.e(LOG_TAG, "Couldn't rename " + temp + " to " + file);
+                temp.delete();
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Couldn't write snapshot file", e);
+            temp.delete();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // already failed, the temp file is gone
+                }
+            }
+        }
+    }
+
+    private static byte[] encode(WeatherSnapshot snapshot) {
+        byte[] locationSetting = snapshot.getLocationSetting().getBytes(UTF_8);
+        int dayCount = snapshot.getDayCount();
+        byte[][] descriptions = new byte[dayCount][];
+        int size = 8 + 2 + locationSetting.length + 8 + 8 + 8 + 2;
+        for (int i = 0; i < dayCount; i++) {
+            String shortDesc = snapshot.getDay(i).shortDesc;
+            descriptions[i] = (shortDesc == null ? "" : shortDesc).getBytes(UTF_8);
+            size += 8 + 4 + 8 + 8 + 2 + descriptions[i].length;
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(size);
+        payload.putLong(System.currentTimeMillis());
+        putString(payload, locationSetting);
+        payload.putDouble(snapshot.getCoordLat());
+        payload.putDouble(snapshot.getCoordLong());
+        payload.putLong(snapshot.getLastSync());
+        payload.putShort((short) dayCount);
+        for (int i = 0; i < dayCount; i++) {
+            WeatherSnapshot.Day day = snapshot.getDay(i);
+            payload.putLong(day.date);
+            payload.putInt(day.weatherId);
+            payload.putDouble(day.high);
+            payload.putDouble(day.low);
+            putString(payload, descriptions[i]);
+        }
+        return payload.array();
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
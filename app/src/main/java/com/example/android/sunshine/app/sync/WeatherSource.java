@@ -0,0 +1,84 @@
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Where the sync gets its forecasts from.
+ *
+ * The sync adapter only decides which locations to fetch and what to do with the answer; how a
+ * forecast is requested and how its body is decoded is up to the source.  In the app that is
+ * always {@link OpenWeatherMapSource}.  Tests and benchmarks swap in ReplayWeatherSource, which
+ * lives with them in androidTest and serves recorded forecasts without a network.
+ *
+ * Implementations must be safe to call from several threads at once, since all-locations
+ * syncs fetch in parallel.
+ */
+interface WeatherSource {
+
+    /**
+     * Requests the forecast for one location and waits for the response headers.
+     *
+     * @param cityId the provider's id for the city, or -1 if we don't have one
+     * @param validators the ETag and Last-Modified stored with the last forecast, either of
+     *                   which may be null
+     * @return the response.  The caller must close it.
+     */
+    Response fetchForecast(String locationSetting, long cityId, String[] validators)
+            throws IOException;
+
+    /**
+     * Decodes the body of a response this source returned, handing the city and each day over
+     * as they are read.
+     *
+     * @return the provider's status code for the forecast, HTTP_OK if it is good
+     */
+    int parseForecast(Response response, ForecastParser.Handler handler)
+            throws IOException, JSONException;
+
+    /**
+     * Requests the 5 day forecast in 3-hour steps for one location.  Unlike the daily
+     * forecast this is never conditional: it moves on every few hours anyway.
+     *
+     * @param cityId the provider's id for the city, or -1 if we don't have one
+     * @return the response.  The caller must close it.
+     */
+    Response fetchHourlyForecast(String locationSetting, long cityId) throws IOException;
+
+    /**
+     * Decodes the body of a response fetchHourlyForecast returned, handing each step over as
+     * it is read.
+     *
+     * @return the provider's status code for the forecast, HTTP_OK if it is good
+     */
+    int parseHourlyForecast(Response response, HourlyForecastParser.Handler handler)
+            throws IOException, JSONException;
+
+    interface Response {
+        /**
+         * @return the HTTP status, HTTP_NOT_MODIFIED if the validators still match
+         */
+        int getCode();
+
+        String getHeader(String name);
+
+        InputStream getBody() throws IOException;
+
+        long getConnectMillis();
+
+        long getTimeToFirstByteMillis();
+
+        long getBodyReadMillis();
+
+        long getBytesOnWire();
+
+        /**
+         * Gives up on the response right away, e.g. because the sync was cancelled.
+         */
+        void abort();
+
+        void close();
+    }
+}
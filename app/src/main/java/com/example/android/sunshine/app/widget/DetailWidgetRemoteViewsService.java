@@ -17,6 +17,7 @@ import com.bumptech.glide.request.target.Target;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SyncCoordinator;
 
 import java.util.concurrent.ExecutionException;
 
@@ -63,8 +64,11 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 // that calls use our process and permission
                 final long identityToken = Binder.clearCallingIdentity();
                 String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
-                Uri weatherForLocationUri = WeatherContract.WeatherEntry
-                        .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
+                // Stale rows are still shown; the provider asks for a refresh behind them.
+                Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildRevalidatingUri(
+                        WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                                location, System.currentTimeMillis()),
+                        SyncCoordinator.FRESHNESS_WINDOW_MILLIS);
                 data = getContentResolver().query(weatherForLocationUri,
                         FORECAST_COLUMNS,
                         null,
@@ -27,6 +27,7 @@ public class MyWeatherListenService extends WearableListenerService {
     private final static String DATAITEM_LOW_TEMP = "low";
     private final static String DATAITEM_HIGH_TEMP = "high";
     private final static String DATAITEM_ICONBM = "iconbm";
+    private final static String DATAITEM_LAST_SYNC = "last_sync";
 
     /*
         Communication routines follow
@@ -70,6 +71,9 @@ public class MyWeatherListenService extends WearableListenerService {
     private void updateDataFromDataMap(DataMap weather) {
         SunshineWatchFace.mLowTemp = weather.getInt(DATAITEM_LOW_TEMP);
         SunshineWatchFace.mHighTemp = weather.getInt(DATAITEM_HIGH_TEMP);
+        //the phone says how old its data is. An older phone that doesn't just sent it, so now.
+        SunshineWatchFace.mLastUpdateMillis = weather.getLong(DATAITEM_LAST_SYNC,
+                System.currentTimeMillis());
 
         Asset icon_asset = weather.getAsset(DATAITEM_ICONBM);
         if (SunshineWatchFace.mGoogleApiClient.isConnected()) {
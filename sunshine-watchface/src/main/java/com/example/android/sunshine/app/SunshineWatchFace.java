@@ -208,9 +208,6 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
             mTime = new Time();
             mTime.setToNow();
-
-            //initialize the timeout timer
-            mLastUpdateMillis = System.currentTimeMillis();
         }
 
         @Override
@@ -502,7 +499,10 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             String tempLow;
 
             //Note - only need to check one temp for no data (valid data always comes in pairs)
-            if (mHighTemp == UNKNOWN_TEMP) {
+            //Data the phone hasn't confirmed for a day is as good as none.
+            if (mHighTemp == UNKNOWN_TEMP
+                    || System.currentTimeMillis() - mLastUpdateMillis
+                            > TimeUnit.HOURS.toMillis(TIMEOUT_IN_HOURS)) {
                 tempHigh = " ?°";
                 tempLow = " ?°";
             } else {